@@ -35,6 +35,17 @@ import org.openjdk.jmh.annotations.Threads;
  * Prometheus counters are faster than counters of other libraries. For example, incrementing a single counter
  * without labels is more than 2 times faster (34752 ops / second) than doing the same with an OpenTelemetry
  * counter (16634 ops / sec).
+ * <p>
+ * The {@code prometheusLabelValuesInc} and {@code simpleclientLabelValuesInc} benchmarks look up the data point
+ * with {@code labelValues(...)} for each increment. Run them with the GC profiler to see the allocation rate
+ * of the labeled path:
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar CounterBenchmark.*LabelValuesInc -prof gc
+ * </pre>
+ * The {@code gc.alloc.rate.norm} result for {@code prometheusLabelValuesInc} should be (close to) zero bytes per operation.
+ * <p>
+ * {@code prometheusSingleWriterAdd} and {@code prometheusSingleWriterInc} use a counter built with
+ * {@link Counter.Builder#singleWriter()}, where each thread increments its own data point.
  */
 public class CounterBenchmark {
 
@@ -42,6 +53,7 @@ public class CounterBenchmark {
     public static class PrometheusCounter {
 
         final Counter noLabels;
+        final Counter labels;
         final CounterDataPoint dataPoint;
 
         public PrometheusCounter() {
@@ -50,7 +62,7 @@ public class CounterBenchmark {
                     .help("help")
                     .build();
 
-            Counter labels = Counter.builder()
+            labels = Counter.builder()
                     .name("test")
                     .help("help")
                     .labelNames("path", "status")
@@ -59,10 +71,27 @@ public class CounterBenchmark {
         }
     }
 
+    @State(Scope.Thread)
+    public static class PrometheusSingleWriterCounter {
+
+        final CounterDataPoint dataPoint;
+
+        public PrometheusSingleWriterCounter() {
+            Counter counter = Counter.builder()
+                    .name("test")
+                    .help("help")
+                    .labelNames("path", "status")
+                    .singleWriter()
+                    .build();
+            this.dataPoint = counter.labelValues("/", "200");
+        }
+    }
+
     @State(Scope.Benchmark)
     public static class SimpleclientCounter {
 
         final io.prometheus.client.Counter noLabels;
+        final io.prometheus.client.Counter labels;
         final io.prometheus.client.Counter.Child dataPoint;
 
         public SimpleclientCounter() {
@@ -71,13 +100,13 @@ public class CounterBenchmark {
                     .help("help")
                     .create();
 
-            io.prometheus.client.Counter counter = io.prometheus.client.Counter.build()
+            labels = io.prometheus.client.Counter.build()
                     .name("name")
                     .help("help")
                     .labelNames("path", "status")
                     .create();
 
-            this.dataPoint = counter.labels("/", "200");
+            this.dataPoint = labels.labels("/", "200");
         }
     }
 
@@ -139,6 +168,24 @@ public class CounterBenchmark {
         return counter.dataPoint;
     }
 
+    @Benchmark
+    @Threads(4)
+    public CounterDataPoint prometheusSingleWriterAdd(RandomNumbers randomNumbers, PrometheusSingleWriterCounter counter) {
+        for (int i=0; i<randomNumbers.randomNumbers.length; i++) {
+            counter.dataPoint.inc(randomNumbers.randomNumbers[i]);
+        }
+        return counter.dataPoint;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CounterDataPoint prometheusSingleWriterInc(PrometheusSingleWriterCounter counter) {
+        for (int i=0; i<10*1024; i++) {
+            counter.dataPoint.inc();
+        }
+        return counter.dataPoint;
+    }
+
     @Benchmark
     @Threads(4)
     public DoubleCounter openTelemetryAdd(RandomNumbers randomNumbers, OpenTelemetryCounter counter) {
@@ -210,4 +257,22 @@ public class CounterBenchmark {
         }
         return counter.noLabels;
     }
+
+    @Benchmark
+    @Threads(4)
+    public io.prometheus.metrics.core.metrics.Counter prometheusLabelValuesInc(PrometheusCounter counter) {
+        for (int i=0; i<10*1024; i++) {
+            counter.labels.labelValues("/", "200").inc();
+        }
+        return counter.labels;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public io.prometheus.client.Counter simpleclientLabelValuesInc(SimpleclientCounter counter) {
+        for (int i=0; i<10*1024; i++) {
+            counter.labels.labels("/", "200").inc();
+        }
+        return counter.labels;
+    }
 }
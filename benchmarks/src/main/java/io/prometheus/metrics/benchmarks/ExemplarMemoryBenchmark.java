@@ -0,0 +1,159 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.tracer.common.SpanContext;
+import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap used per time series for exemplars. Each benchmark operation creates a metric with {@link #N} = 100k
+ * label values and observes one value per data point. Run with the GC profiler:
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ExemplarMemoryBenchmark -prof gc
+ * </pre>
+ * The {@code gc.alloc.rate.norm} result is the number of bytes allocated per 100k series, which is almost
+ * all retained by the metric. The difference between the {@code sampled} parameters shows the memory used by
+ * exemplars:
+ * <ul>
+ *     <li>{@code sampled=false}: No observation has a sampled span, so no exemplar arrays are allocated.
+ *         This is the typical case for high-cardinality metrics where only a small fraction of series
+ *         ever sees a sampled span.</li>
+ *     <li>{@code sampled=true}: Every observation has a sampled span, so each data point allocates its exemplars.</li>
+ * </ul>
+ * The {@code ...WithoutExemplars} benchmarks are the baseline with exemplars disabled.
+ * <p>
+ * Results ({@code gc.alloc.rate.norm} in bytes per 100k series):
+ * <pre>
+ * Benchmark                  (sampled)     Score
+ * counter                        false  29991350
+ * counter                         true  46791350
+ * counterWithoutExemplars        false  24391302
+ * histogram                      false 102793429
+ * histogram                       true 123593429
+ * histogramWithoutExemplars      false  97193422
+ * </pre>
+ * Without a sampled span, exemplars cost 56 bytes per series: the sampler and its reservoir, with the rate limit
+ * timestamps as fields. The custom exemplars and their rate limit are allocated with the first custom exemplar.
+ * Before exemplars were allocated lazily, the same {@code sampled=false} benchmarks allocated 33191333 bytes for
+ * the counter and 113993413 bytes for the histogram, i.e. exemplars cost 88 bytes per counter series and 168 bytes per
+ * classic histogram series even if no exemplar was ever sampled.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExemplarMemoryBenchmark {
+
+    static final int N = 100_000;
+
+    @State(Scope.Benchmark)
+    public static class LabelValues {
+
+        @Param({"false", "true"})
+        boolean sampled;
+
+        final String[] values = new String[N];
+        private SpanContext origContext;
+
+        public LabelValues() {
+            for (int i = 0; i < N; i++) {
+                values[i] = "series-" + i;
+            }
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            origContext = SpanContextSupplier.getSpanContext();
+            SpanContextSupplier.setSpanContext(sampled ? new SampledSpanContext() : null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SpanContextSupplier.setSpanContext(origContext);
+        }
+    }
+
+    private static class SampledSpanContext implements SpanContext {
+
+        @Override
+        public String getCurrentTraceId() {
+            return "0af7651916cd43dd8448eb211c80319c";
+        }
+
+        @Override
+        public String getCurrentSpanId() {
+            return "b7ad6b7169203331";
+        }
+
+        @Override
+        public boolean isCurrentSpanSampled() {
+            return true;
+        }
+
+        @Override
+        public void markCurrentSpanAsExemplar() {
+        }
+    }
+
+    @Benchmark
+    public Counter counter(LabelValues labelValues) {
+        Counter counter = Counter.builder()
+                .name("test")
+                .labelNames("series")
+                .build();
+        for (String value : labelValues.values) {
+            counter.labelValues(value).inc();
+        }
+        return counter;
+    }
+
+    @Benchmark
+    public Counter counterWithoutExemplars(LabelValues labelValues) {
+        Counter counter = Counter.builder()
+                .name("test")
+                .labelNames("series")
+                .withoutExemplars()
+                .build();
+        for (String value : labelValues.values) {
+            counter.labelValues(value).inc();
+        }
+        return counter;
+    }
+
+    @Benchmark
+    public Histogram histogram(LabelValues labelValues) {
+        Histogram histogram = Histogram.builder()
+                .name("test_seconds")
+                .labelNames("series")
+                .classicOnly()
+                .build();
+        for (String value : labelValues.values) {
+            histogram.labelValues(value).observe(0.2);
+        }
+        return histogram;
+    }
+
+    @Benchmark
+    public Histogram histogramWithoutExemplars(LabelValues labelValues) {
+        Histogram histogram = Histogram.builder()
+                .name("test_seconds")
+                .labelNames("series")
+                .classicOnly()
+                .withoutExemplars()
+                .build();
+        for (String value : labelValues.values) {
+            histogram.labelValues(value).observe(0.2);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,147 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.core.metrics.Summary;
+import io.prometheus.metrics.expositionformats.OpenMetricsTextFormatWriter;
+import io.prometheus.metrics.expositionformats.PrometheusProtobufWriter;
+import io.prometheus.metrics.expositionformats.PrometheusTextFormatWriter;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Serializes the same {@link MetricSnapshots} with each exposition format.
+ * <p>
+ * The snapshots look like a typical web application with {@link Snapshots#PATHS} endpoints: A request counter,
+ * a classic request duration histogram, a response size summary, and an in-flight requests gauge,
+ * labeled by method, path, and status. This is about 15k samples in total.
+ * <p>
+ * Run with the GC profiler to see allocations per scrape:
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ExpositionFormatsBenchmark -prof gc
+ * </pre>
+ * Results on a single vCPU, so the error margins are large. Operations are scrapes per second,
+ * {@code gc.alloc.rate.norm} is bytes allocated per scrape:
+ * <pre>
+ * Benchmark                                                          Mode  Cnt        Score  Units
+ * ExpositionFormatsBenchmark.openMetricsText                        thrpt    8      444.026  ops/s
+ * ExpositionFormatsBenchmark.openMetricsText:gc.alloc.rate.norm     thrpt    8    40736.245   B/op
+ * ExpositionFormatsBenchmark.prometheusProtobuf                     thrpt    8      921.184  ops/s
+ * ExpositionFormatsBenchmark.prometheusProtobuf:gc.alloc.rate.norm  thrpt    8   270832.113   B/op
+ * ExpositionFormatsBenchmark.prometheusText                         thrpt    8      567.852  ops/s
+ * ExpositionFormatsBenchmark.prometheusText:gc.alloc.rate.norm      thrpt    8    40712.199   B/op
+ * </pre>
+ * Before the protobuf format was encoded directly from the snapshots, each scrape created the protobuf objects
+ * for all metric families first:
+ * <pre>
+ * Benchmark                                                          Mode  Cnt        Score  Units
+ * ExpositionFormatsBenchmark.openMetricsText                        thrpt    5      239.412  ops/s
+ * ExpositionFormatsBenchmark.prometheusProtobuf                     thrpt    5      391.231  ops/s
+ * ExpositionFormatsBenchmark.prometheusProtobuf:gc.alloc.rate.norm  thrpt    5  3366210.453   B/op
+ * ExpositionFormatsBenchmark.prometheusText                         thrpt    5      259.866  ops/s
+ * </pre>
+ * Before the text formats were written directly to bytes, they were written through an
+ * {@link java.io.OutputStreamWriter}, and each number was converted to a String first:
+ * <pre>
+ * Benchmark                                                          Mode  Cnt        Score  Units
+ * ExpositionFormatsBenchmark.openMetricsText                        thrpt    3       48.568  ops/s
+ * ExpositionFormatsBenchmark.openMetricsText:gc.alloc.rate.norm     thrpt    3 50918529.235   B/op
+ * ExpositionFormatsBenchmark.prometheusText                         thrpt    3       37.613  ops/s
+ * ExpositionFormatsBenchmark.prometheusText:gc.alloc.rate.norm      thrpt    3 50592318.240   B/op
+ * </pre>
+ */
+public class ExpositionFormatsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshots {
+
+        static final int PATHS = 200;
+
+        final MetricSnapshots snapshots;
+
+        public Snapshots() {
+            PrometheusRegistry registry = new PrometheusRegistry();
+            Counter requests = Counter.builder()
+                    .name("http_requests_total")
+                    .help("Total number of HTTP requests")
+                    .labelNames("method", "path", "status")
+                    .register(registry);
+            Histogram duration = Histogram.builder()
+                    .name("http_request_duration_seconds")
+                    .help("Duration of HTTP requests in seconds")
+                    .labelNames("method", "path")
+                    .classicOnly()
+                    .register(registry);
+            Summary responseSize = Summary.builder()
+                    .name("http_response_size_bytes")
+                    .help("Size of HTTP responses")
+                    .labelNames("path")
+                    .quantile(0.5, 0.01)
+                    .quantile(0.95, 0.005)
+                    .quantile(0.99, 0.001)
+                    .register(registry);
+            Gauge inFlight = Gauge.builder()
+                    .name("http_requests_in_flight")
+                    .help("Number of HTTP requests currently being processed")
+                    .labelNames("path")
+                    .register(registry);
+            String[] methods = {"GET", "POST", "PUT", "DELETE"};
+            String[] statuses = {"200", "404", "500"};
+            Random random = new Random(0);
+            for (int i = 0; i < PATHS; i++) {
+                String path = "/api/v1/resource/" + i;
+                for (String method : methods) {
+                    for (String status : statuses) {
+                        requests.labelValues(method, path, status).inc(random.nextInt(100_000));
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        duration.labelValues(method, path).observe(random.nextDouble() * random.nextDouble() * 5);
+                    }
+                }
+                for (int j = 0; j < 100; j++) {
+                    responseSize.labelValues(path).observe(random.nextInt(64 * 1024));
+                }
+                inFlight.labelValues(path).set(random.nextInt(20));
+            }
+            snapshots = registry.scrape();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Output {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4 * 1024 * 1024);
+        final PrometheusTextFormatWriter prometheusTextWriter = new PrometheusTextFormatWriter(false);
+        final OpenMetricsTextFormatWriter openMetricsWriter = new OpenMetricsTextFormatWriter(false, false);
+        final PrometheusProtobufWriter protobufWriter = new PrometheusProtobufWriter();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream prometheusText(Snapshots snapshots, Output output) throws IOException {
+        output.out.reset();
+        output.prometheusTextWriter.write(output.out, snapshots.snapshots);
+        return output.out;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream openMetricsText(Snapshots snapshots, Output output) throws IOException {
+        output.out.reset();
+        output.openMetricsWriter.write(output.out, snapshots.snapshots);
+        return output.out;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream prometheusProtobuf(Snapshots snapshots, Output output) throws IOException {
+        output.out.reset();
+        output.protobufWriter.write(output.out, snapshots.snapshots);
+        return output.out;
+    }
+}
@@ -0,0 +1,126 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares looking up data points via {@code labelValues(...)} for counters with one, two, and three labels
+ * with a lookup in a {@code ConcurrentHashMap<List<String>, CounterDataPoint>}, which is how data points were
+ * stored in previous versions.
+ * <p>
+ * Each metric has {@link LabeledCounters#N} label value combinations, and each benchmark iteration looks up
+ * all of them and increments the data point.
+ * <p>
+ * Run with
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar LabelLookupBenchmark -prof gc
+ * </pre>
+ */
+public class LabelLookupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LabeledCounters {
+
+        static final int N = 64;
+
+        final String[] values1 = new String[N];
+        final String[] values2 = new String[N];
+        final String[] values3 = new String[N];
+
+        final Counter oneLabel;
+        final Counter twoLabels;
+        final Counter threeLabels;
+
+        final ConcurrentHashMap<List<String>, CounterDataPoint> oneLabelMap = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<List<String>, CounterDataPoint> twoLabelsMap = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<List<String>, CounterDataPoint> threeLabelsMap = new ConcurrentHashMap<>();
+
+        public LabeledCounters() {
+            oneLabel = Counter.builder()
+                    .name("one_label")
+                    .labelNames("path")
+                    .build();
+            twoLabels = Counter.builder()
+                    .name("two_labels")
+                    .labelNames("path", "status")
+                    .build();
+            threeLabels = Counter.builder()
+                    .name("three_labels")
+                    .labelNames("method", "path", "status")
+                    .build();
+            String[] methods = {"GET", "POST", "PUT", "DELETE"};
+            String[] statuses = {"200", "201", "404", "500"};
+            for (int i = 0; i < N; i++) {
+                // new String() to make sure lookups do not rely on identity
+                values1[i] = new String(methods[i % methods.length]);
+                values2[i] = new String("/api/v1/resource/" + i);
+                values3[i] = new String(statuses[(i / methods.length) % statuses.length]);
+                oneLabelMap.put(Arrays.asList(values2[i]), oneLabel.labelValues(values2[i]));
+                twoLabelsMap.put(Arrays.asList(values2[i], values3[i]), twoLabels.labelValues(values2[i], values3[i]));
+                threeLabelsMap.put(Arrays.asList(values1[i], values2[i], values3[i]), threeLabels.labelValues(values1[i], values2[i], values3[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Counter prometheusOneLabel(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.oneLabel.labelValues(counters.values2[i]).inc();
+        }
+        return counters.oneLabel;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Counter prometheusTwoLabels(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.twoLabels.labelValues(counters.values2[i], counters.values3[i]).inc();
+        }
+        return counters.twoLabels;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Counter prometheusThreeLabels(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.threeLabels.labelValues(counters.values1[i], counters.values2[i], counters.values3[i]).inc();
+        }
+        return counters.threeLabels;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ConcurrentHashMap<List<String>, CounterDataPoint> concurrentHashMapOneLabel(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.oneLabelMap.get(Arrays.asList(counters.values2[i])).inc();
+        }
+        return counters.oneLabelMap;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ConcurrentHashMap<List<String>, CounterDataPoint> concurrentHashMapTwoLabels(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.twoLabelsMap.get(Arrays.asList(counters.values2[i], counters.values3[i])).inc();
+        }
+        return counters.twoLabelsMap;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ConcurrentHashMap<List<String>, CounterDataPoint> concurrentHashMapThreeLabels(LabeledCounters counters) {
+        for (int i = 0; i < LabeledCounters.N; i++) {
+            counters.threeLabelsMap.get(Arrays.asList(counters.values1[i], counters.values2[i], counters.values3[i])).inc();
+        }
+        return counters.threeLabelsMap;
+    }
+}
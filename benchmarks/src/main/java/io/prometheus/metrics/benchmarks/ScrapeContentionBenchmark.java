@@ -0,0 +1,122 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.core.metrics.Summary;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@code observe()} throughput while a concurrent scraper is running.
+ * <p>
+ * While a data point is collected, observations are redirected to a buffer and applied after the scrape
+ * is done. Each benchmark group runs 7 observer threads and 1 thread collecting the metric in a tight loop,
+ * so that almost every observation hits the buffer. Compare the {@code observe} scores with the
+ * {@code prometheusClassic} / {@code prometheusNative} scores in {@link HistogramBenchmark} to see the cost of a
+ * running scrape.
+ * <p>
+ * Run with
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ScrapeContentionBenchmark
+ * </pre>
+ */
+public class ScrapeContentionBenchmark {
+
+    @State(Scope.Group)
+    public static class ClassicHistogram {
+
+        final Histogram noLabels;
+
+        public ClassicHistogram() {
+            noLabels = Histogram.builder()
+                    .name("test")
+                    .help("help")
+                    .classicOnly()
+                    .build();
+        }
+    }
+
+    @State(Scope.Group)
+    public static class NativeHistogram {
+
+        final Histogram noLabels;
+
+        public NativeHistogram() {
+            noLabels = Histogram.builder()
+                    .name("test")
+                    .help("help")
+                    .nativeOnly()
+                    .nativeInitialSchema(5)
+                    .nativeMaxNumberOfBuckets(0)
+                    .build();
+        }
+    }
+
+    @State(Scope.Group)
+    public static class PrometheusSummary {
+
+        final Summary noLabels;
+
+        public PrometheusSummary() {
+            noLabels = Summary.builder()
+                    .name("test")
+                    .help("help")
+                    .build();
+        }
+    }
+
+    @Benchmark
+    @Group("classicHistogram")
+    @GroupThreads(7)
+    public Histogram classicHistogramObserve(RandomNumbers randomNumbers, ClassicHistogram histogram) {
+        for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+            histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+        }
+        return histogram.noLabels;
+    }
+
+    @Benchmark
+    @Group("classicHistogram")
+    @GroupThreads(1)
+    public HistogramSnapshot classicHistogramScrape(ClassicHistogram histogram) {
+        return histogram.noLabels.collect();
+    }
+
+    @Benchmark
+    @Group("nativeHistogram")
+    @GroupThreads(7)
+    public Histogram nativeHistogramObserve(RandomNumbers randomNumbers, NativeHistogram histogram) {
+        for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+            histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+        }
+        return histogram.noLabels;
+    }
+
+    @Benchmark
+    @Group("nativeHistogram")
+    @GroupThreads(1)
+    public HistogramSnapshot nativeHistogramScrape(NativeHistogram histogram) {
+        return histogram.noLabels.collect();
+    }
+
+    @Benchmark
+    @Group("summary")
+    @GroupThreads(7)
+    public Summary summaryObserve(RandomNumbers randomNumbers, PrometheusSummary summary) {
+        for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+            summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+        }
+        return summary.noLabels;
+    }
+
+    @Benchmark
+    @Group("summary")
+    @GroupThreads(1)
+    public SummarySnapshot summaryScrape(PrometheusSummary summary) {
+        return summary.noLabels.collect();
+    }
+}
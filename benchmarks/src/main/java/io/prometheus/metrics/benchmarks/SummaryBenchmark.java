@@ -0,0 +1,138 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Summary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Observing a summary with quantiles from 1, 8, and 32 threads.
+ * <p>
+ * Quantiles are maintained in a sliding time window. The {@code simpleclient} benchmarks show the
+ * implementation of client_java 0.16.0 and older, which inserts each observation into all age buckets
+ * while holding a lock that is shared by all threads. The {@code prometheusRelativeError} benchmarks show
+ * {@link Summary.Builder#relativeError(double)}, which inserts each observation into a single sketch.
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar SummaryBenchmark
+ * </pre>
+ */
+public class SummaryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PrometheusSummary {
+
+        final Summary summary;
+
+        public PrometheusSummary() {
+            summary = Summary.builder()
+                    .name("test")
+                    .help("help")
+                    .quantile(0.5, 0.05)
+                    .quantile(0.95, 0.01)
+                    .quantile(0.99, 0.005)
+                    .build();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PrometheusRelativeErrorSummary {
+
+        final Summary summary;
+
+        public PrometheusRelativeErrorSummary() {
+            summary = Summary.builder()
+                    .name("test")
+                    .help("help")
+                    .quantile(0.5)
+                    .quantile(0.95)
+                    .quantile(0.99)
+                    .relativeError(0.01)
+                    .build();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SimpleclientSummary {
+
+        final io.prometheus.client.Summary summary;
+
+        public SimpleclientSummary() {
+            summary = io.prometheus.client.Summary.build()
+                    .name("test")
+                    .help("help")
+                    .quantile(0.5, 0.05)
+                    .quantile(0.95, 0.01)
+                    .quantile(0.99, 0.005)
+                    .create();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Summary prometheus1Thread(RandomNumbers randomNumbers, PrometheusSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Summary prometheus8Threads(RandomNumbers randomNumbers, PrometheusSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Summary prometheus32Threads(RandomNumbers randomNumbers, PrometheusSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Summary prometheusRelativeError1Thread(RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Summary prometheusRelativeError8Threads(RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Summary prometheusRelativeError32Threads(RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public io.prometheus.client.Summary simpleclient1Thread(RandomNumbers randomNumbers, SimpleclientSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public io.prometheus.client.Summary simpleclient8Threads(RandomNumbers randomNumbers, SimpleclientSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public io.prometheus.client.Summary simpleclient32Threads(RandomNumbers randomNumbers, SimpleclientSummary summary) {
+        return observe(randomNumbers, summary.summary);
+    }
+
+    private Summary observe(RandomNumbers randomNumbers, Summary summary) {
+        for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+            summary.observe(randomNumbers.randomNumbers[i]);
+        }
+        return summary;
+    }
+
+    private io.prometheus.client.Summary observe(RandomNumbers randomNumbers, io.prometheus.client.Summary summary) {
+        for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+            summary.observe(randomNumbers.randomNumbers[i]);
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,69 @@
+package io.prometheus.metrics.config;
+
+import java.util.Map;
+
+/**
+ * Properties starting with io.prometheus.clock
+ */
+public class ClockProperties {
+
+    private static final String RESOLUTION_MILLIS = "resolutionMillis";
+
+    private final Long resolutionMillis;
+
+    private ClockProperties(Long resolutionMillis) {
+        this.resolutionMillis = resolutionMillis;
+    }
+
+    /**
+     * Resolution of the wall clock used for timestamps in metrics, like exemplar timestamps or the time window of
+     * summary quantiles.
+     * <p>
+     * Default is {@code 0}, which means {@link System#currentTimeMillis()} is called each time the current time is
+     * needed. If the resolution is greater than 0, a background thread caches the current time every
+     * {@code resolutionMillis} milliseconds, and metrics read the cached value. This trades precision for lower cost
+     * per observation.
+     * <p>
+     * Durations measured with {@code Timer} always use {@link System#nanoTime()} and are not affected by this.
+     */
+    public long getResolutionMillis() {
+        return resolutionMillis != null ? resolutionMillis : 0;
+    }
+
+    /**
+     * Note that this will remove entries from {@code properties}.
+     * This is because we want to know if there are unused properties remaining after all properties have been loaded.
+     */
+    static ClockProperties load(String prefix, Map<Object, Object> properties) throws PrometheusPropertiesException {
+        Long resolutionMillis = Util.loadLong(prefix + "." + RESOLUTION_MILLIS, properties);
+        Util.assertValue(resolutionMillis, t -> t >= 0, "Expecting value >= 0.", prefix, RESOLUTION_MILLIS);
+        return new ClockProperties(resolutionMillis);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Long resolutionMillis;
+
+        private Builder() {
+        }
+
+        /**
+         * See {@link #getResolutionMillis()}
+         */
+        public Builder resolutionMillis(long resolutionMillis) {
+            if (resolutionMillis < 0) {
+                throw new IllegalArgumentException(resolutionMillis + ": Expecting resolutionMillis >= 0.");
+            }
+            this.resolutionMillis = resolutionMillis;
+            return this;
+        }
+
+        public ClockProperties build() {
+            return new ClockProperties(resolutionMillis);
+        }
+    }
+}
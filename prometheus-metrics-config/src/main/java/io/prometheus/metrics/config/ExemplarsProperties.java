@@ -10,18 +10,32 @@ public class ExemplarsProperties {
     private static final String MIN_RETENTION_PERIOD_SECONDS = "minRetentionPeriodSeconds";
     private static final String MAX_RETENTION_PERIOD_SECONDS = "maxRetentionPeriodSeconds";
     private static final String SAMPLE_INTERVAL_MILLISECONDS = "sampleIntervalMilliseconds";
+    private static final String RESERVOIR = "reservoir";
+
+    /**
+     * See {@link #getReservoir()}.
+     */
+    public static final String RESERVOIR_DEFAULT = "default";
+
+    /**
+     * See {@link #getReservoir()}.
+     */
+    public static final String RESERVOIR_TOP_K = "top_k";
 
     private final Integer minRetentionPeriodSeconds;
     private final Integer maxRetentionPeriodSeconds;
     private final Integer sampleIntervalMilliseconds;
+    private final String reservoir;
 
     private ExemplarsProperties(
             Integer minRetentionPeriodSeconds,
             Integer maxRetentionPeriodSeconds,
-            Integer sampleIntervalMilliseconds) {
+            Integer sampleIntervalMilliseconds,
+            String reservoir) {
         this.minRetentionPeriodSeconds = minRetentionPeriodSeconds;
         this.maxRetentionPeriodSeconds = maxRetentionPeriodSeconds;
         this.sampleIntervalMilliseconds = sampleIntervalMilliseconds;
+        this.reservoir = reservoir;
     }
 
     /**
@@ -53,6 +67,26 @@ public class ExemplarsProperties {
         return sampleIntervalMilliseconds;
     }
 
+    /**
+     * Strategy for selecting which sampled Exemplars are kept.
+     * <ul>
+     *     <li>{@value #RESERVOIR_DEFAULT}: Classic histograms keep one Exemplar per bucket. Other metrics keep
+     *         a fixed number of Exemplars, preferring the smallest and largest values.
+     *         New Exemplars are sampled at most once per {@link #getSampleIntervalMilliseconds() sample interval}.</li>
+     *     <li>{@value #RESERVOIR_TOP_K}: Keep the Exemplars with the highest values, which is useful for
+     *         analyzing tail latencies. Observations with a higher value than the smallest Exemplar
+     *         are not rate limited by the sample interval.</li>
+     * </ul>
+     * In both cases Exemplars may be replaced by any value after the
+     * {@link #getMinRetentionPeriodSeconds() minimum retention period}.
+     * Custom Exemplars provided explicitly in code are not affected by this.
+     * <p>
+     * Default is {@value #RESERVOIR_DEFAULT}.
+     */
+    public String getReservoir() {
+        return reservoir;
+    }
+
     /**
      * Note that this will remove entries from {@code properties}.
      * This is because we want to know if there are unused properties remaining after all properties have been loaded.
@@ -61,10 +95,14 @@ public class ExemplarsProperties {
         Integer minRetentionPeriodSeconds = Util.loadInteger(prefix + "." + MIN_RETENTION_PERIOD_SECONDS, properties);
         Integer maxRetentionPeriodSeconds = Util.loadInteger(prefix + "." + MAX_RETENTION_PERIOD_SECONDS, properties);
         Integer sampleIntervalMilliseconds = Util.loadInteger(prefix + "." + SAMPLE_INTERVAL_MILLISECONDS, properties);
+        String reservoir = Util.loadString(prefix + "." + RESERVOIR, properties);
 
         Util.assertValue(minRetentionPeriodSeconds, t -> t > 0, "Expecting value > 0.", prefix, MIN_RETENTION_PERIOD_SECONDS);
         Util.assertValue(minRetentionPeriodSeconds, t -> t > 0, "Expecting value > 0.", prefix, MAX_RETENTION_PERIOD_SECONDS);
         Util.assertValue(sampleIntervalMilliseconds, t -> t > 0, "Expecting value > 0.", prefix, SAMPLE_INTERVAL_MILLISECONDS);
+        if (reservoir != null && !isValidReservoir(reservoir)) {
+            throw new PrometheusPropertiesException(prefix + "." + RESERVOIR + ": Unsupported value " + reservoir + ". Expecting " + RESERVOIR_DEFAULT + " or " + RESERVOIR_TOP_K + ".");
+        }
 
         if (minRetentionPeriodSeconds != null && maxRetentionPeriodSeconds != null) {
             if (minRetentionPeriodSeconds > maxRetentionPeriodSeconds) {
@@ -75,10 +113,15 @@ public class ExemplarsProperties {
         return new ExemplarsProperties(
                 minRetentionPeriodSeconds,
                 maxRetentionPeriodSeconds,
-                sampleIntervalMilliseconds
+                sampleIntervalMilliseconds,
+                reservoir
         );
     }
 
+    private static boolean isValidReservoir(String reservoir) {
+        return RESERVOIR_DEFAULT.equals(reservoir) || RESERVOIR_TOP_K.equals(reservoir);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -88,6 +131,7 @@ public class ExemplarsProperties {
         private Integer minRetentionPeriodSeconds;
         private Integer maxRetentionPeriodSeconds;
         private Integer sampleIntervalMilliseconds;
+        private String reservoir;
 
         private Builder() {
         }
@@ -107,8 +151,19 @@ public class ExemplarsProperties {
             return this;
         }
 
+        /**
+         * See {@link ExemplarsProperties#getReservoir()}.
+         */
+        public Builder reservoir(String reservoir) {
+            if (!isValidReservoir(reservoir)) {
+                throw new IllegalArgumentException(reservoir + ": Unsupported reservoir. Expecting " + RESERVOIR_DEFAULT + " or " + RESERVOIR_TOP_K + ".");
+            }
+            this.reservoir = reservoir;
+            return this;
+        }
+
         public ExemplarsProperties builder() {
-            return new ExemplarsProperties(minRetentionPeriodSeconds, maxRetentionPeriodSeconds, sampleIntervalMilliseconds);
+            return new ExemplarsProperties(minRetentionPeriodSeconds, maxRetentionPeriodSeconds, sampleIntervalMilliseconds, reservoir);
         }
     }
 }
@@ -9,13 +9,19 @@ public class ExporterProperties {
 
     private static final String INCLUDE_CREATED_TIMESTAMPS = "includeCreatedTimestamps";
     private static final String EXEMPLARS_ON_ALL_METRIC_TYPES = "exemplarsOnAllMetricTypes";
+    private static final String STREAM_RESPONSE = "streamResponse";
+    private static final String RESPONSE_POOL_SIZE = "responsePoolSize";
 
     private final Boolean includeCreatedTimestamps;
     private final Boolean exemplarsOnAllMetricTypes;
+    private final Boolean streamResponse;
+    private final Integer responsePoolSize;
 
-    private ExporterProperties(Boolean includeCreatedTimestamps, Boolean exemplarsOnAllMetricTypes) {
+    private ExporterProperties(Boolean includeCreatedTimestamps, Boolean exemplarsOnAllMetricTypes, Boolean streamResponse, Integer responsePoolSize) {
         this.includeCreatedTimestamps = includeCreatedTimestamps;
         this.exemplarsOnAllMetricTypes = exemplarsOnAllMetricTypes;
+        this.streamResponse = streamResponse;
+        this.responsePoolSize = responsePoolSize;
     }
 
     /**
@@ -33,6 +39,34 @@ public class ExporterProperties {
         return exemplarsOnAllMetricTypes != null && exemplarsOnAllMetricTypes;
     }
 
+    /**
+     * Write the scrape response while the metrics are collected?
+     * <p>
+     * If {@code true}, collectors are collected one at a time and written to a chunked response immediately,
+     * so that the complete scrape result is never held in memory. Metrics are written in registration order,
+     * and if a collector throws an Exception after the first metrics have been sent the connection is aborted
+     * without completing the response, so that the scrape fails rather than returning incomplete metrics.
+     * <p>
+     * Default is {@code false}, which means the response is buffered and sent with a {@code Content-Length} header.
+     * {@code HEAD} requests and {@code debug} requests are always buffered.
+     */
+    public boolean getStreamResponse() {
+        return streamResponse != null && streamResponse;
+    }
+
+    /**
+     * Maximum number of idle response buffers and gzip {@link java.util.zip.Deflater Deflaters} that a scrape
+     * endpoint keeps for reuse. Default is {@code 2}, which is enough if the endpoint is scraped by a pair of
+     * Prometheus servers. Concurrent scrapes beyond that allocate new ones, which are dropped afterwards.
+     * <p>
+     * Pooled response buffers keep the size of the largest response they have held.
+     * Buffers that held a response larger than 8 MiB are dropped rather than pooled.
+     * Set this to {@code 0} to allocate new buffers for each scrape.
+     */
+    public int getResponsePoolSize() {
+        return responsePoolSize != null ? responsePoolSize : 2;
+    }
+
     /**
      * Note that this will remove entries from {@code properties}.
      * This is because we want to know if there are unused properties remaining after all properties have been loaded.
@@ -40,7 +74,10 @@ public class ExporterProperties {
     static ExporterProperties load(String prefix, Map<Object, Object> properties) throws PrometheusPropertiesException {
         Boolean includeCreatedTimestamps = Util.loadBoolean(prefix + "." + INCLUDE_CREATED_TIMESTAMPS, properties);
         Boolean exemplarsOnAllMetricTypes = Util.loadBoolean(prefix + "." + EXEMPLARS_ON_ALL_METRIC_TYPES, properties);
-        return new ExporterProperties(includeCreatedTimestamps, exemplarsOnAllMetricTypes);
+        Boolean streamResponse = Util.loadBoolean(prefix + "." + STREAM_RESPONSE, properties);
+        Integer responsePoolSize = Util.loadInteger(prefix + "." + RESPONSE_POOL_SIZE, properties);
+        Util.assertValue(responsePoolSize, n -> n >= 0, "Expecting value >= 0.", prefix, RESPONSE_POOL_SIZE);
+        return new ExporterProperties(includeCreatedTimestamps, exemplarsOnAllMetricTypes, streamResponse, responsePoolSize);
     }
 
     public static Builder builder() {
@@ -51,6 +88,8 @@ public class ExporterProperties {
 
         private Boolean includeCreatedTimestamps;
         private Boolean exemplarsOnAllMetricTypes;
+        private Boolean streamResponse;
+        private Integer responsePoolSize;
 
         private Builder() {
         }
@@ -71,8 +110,27 @@ public class ExporterProperties {
             return this;
         }
 
+        /**
+         * See {@link #getStreamResponse()}.
+         */
+        public Builder streamResponse(boolean streamResponse) {
+            this.streamResponse = streamResponse;
+            return this;
+        }
+
+        /**
+         * See {@link #getResponsePoolSize()}.
+         */
+        public Builder responsePoolSize(int responsePoolSize) {
+            if (responsePoolSize < 0) {
+                throw new IllegalArgumentException(responsePoolSize + ": Expecting responsePoolSize >= 0.");
+            }
+            this.responsePoolSize = responsePoolSize;
+            return this;
+        }
+
         public ExporterProperties build() {
-            return new ExporterProperties(includeCreatedTimestamps, exemplarsOnAllMetricTypes);
+            return new ExporterProperties(includeCreatedTimestamps, exemplarsOnAllMetricTypes, streamResponse, responsePoolSize);
         }
     }
 }
@@ -25,6 +25,9 @@ public class MetricsProperties {
     private static final String SUMMARY_QUANTILE_ERRORS = "summaryQuantileErrors";
     private static final String SUMMARY_MAX_AGE_SECONDS = "summaryMaxAgeSeconds";
     private static final String SUMMARY_NUMBER_OF_AGE_BUCKETS = "summaryNumberOfAgeBuckets";
+    private static final String CARDINALITY_LIMIT = "cardinalityLimit"; // 0 means no limit
+    private static final String IDLE_EXPIRY_SECONDS = "idleExpirySeconds"; // 0 means no expiry
+    private static final String SUMMARY_RELATIVE_ERROR = "summaryRelativeError"; // null means CKMS
 
     private final Boolean exemplarsEnabled;
     private final Boolean histogramNativeOnly;
@@ -39,6 +42,9 @@ public class MetricsProperties {
     private final List<Double> summaryQuantileErrors;
     private final Long summaryMaxAgeSeconds;
     private final Integer summaryNumberOfAgeBuckets;
+    private final Integer cardinalityLimit;
+    private final Long idleExpirySeconds;
+    private final Double summaryRelativeError;
 
     public MetricsProperties(
             Boolean exemplarsEnabled,
@@ -67,6 +73,9 @@ public class MetricsProperties {
                 summaryQuantileErrors,
                 summaryMaxAgeSeconds,
                 summaryNumberOfAgeBuckets,
+                null,
+                null,
+                null,
                 "");
     }
 
@@ -84,6 +93,9 @@ public class MetricsProperties {
             List<Double> summaryQuantileErrors,
             Long summaryMaxAgeSeconds,
             Integer summaryNumberOfAgeBuckets,
+            Integer cardinalityLimit,
+            Long idleExpirySeconds,
+            Double summaryRelativeError,
             String configPropertyPrefix) {
         this.exemplarsEnabled = exemplarsEnabled;
         this.histogramNativeOnly = isHistogramNativeOnly(histogramClassicOnly, histogramNativeOnly);
@@ -98,6 +110,9 @@ public class MetricsProperties {
         this.summaryQuantileErrors = summaryQuantileErrors == null ? null : unmodifiableList(new ArrayList<>(summaryQuantileErrors));
         this.summaryMaxAgeSeconds = summaryMaxAgeSeconds;
         this.summaryNumberOfAgeBuckets = summaryNumberOfAgeBuckets;
+        this.cardinalityLimit = cardinalityLimit;
+        this.idleExpirySeconds = idleExpirySeconds;
+        this.summaryRelativeError = summaryRelativeError;
         validate(configPropertyPrefix);
     }
 
@@ -130,6 +145,9 @@ public class MetricsProperties {
         Util.assertValue(histogramNativeResetDurationSeconds, t -> t >= 0, "Expecting value >= 0.", prefix, HISTOGRAM_NATIVE_RESET_DURATION_SECONDS);
         Util.assertValue(summaryMaxAgeSeconds, t -> t > 0, "Expecting value > 0", prefix, SUMMARY_MAX_AGE_SECONDS);
         Util.assertValue(summaryNumberOfAgeBuckets, t -> t > 0, "Expecting value > 0", prefix, SUMMARY_NUMBER_OF_AGE_BUCKETS);
+        Util.assertValue(cardinalityLimit, t -> t >= 0, "Expecting value >= 0.", prefix, CARDINALITY_LIMIT);
+        Util.assertValue(idleExpirySeconds, t -> t >= 0, "Expecting value >= 0.", prefix, IDLE_EXPIRY_SECONDS);
+        Util.assertValue(summaryRelativeError, t -> t > 0 && t < 1, "Expecting 0 < value < 1.", prefix, SUMMARY_RELATIVE_ERROR);
 
         if (Boolean.TRUE.equals(histogramNativeOnly) && Boolean.TRUE.equals(histogramClassicOnly)) {
             throw new PrometheusPropertiesException(prefix + "." + HISTOGRAM_NATIVE_ONLY + " and " + prefix + "." + HISTOGRAM_CLASSIC_ONLY + " cannot both be true");
@@ -165,7 +183,7 @@ public class MetricsProperties {
     }
 
     /**
-     * This is the only configuration property that can be applied to all metric types.
+     * This configuration property can be applied to all metric types.
      * You can use it to turn Exemplar support off. Default is {@code true}.
      */
     public Boolean getExemplarsEnabled() {
@@ -265,6 +283,35 @@ public class MetricsProperties {
         return summaryNumberOfAgeBuckets;
     }
 
+    /**
+     * Maximum number of label value combinations per metric, {@code 0} means no limit.
+     * Like exemplars enabled, this can be applied to all metric types.
+     * See {@code Counter.Builder.cardinalityLimit()}
+     */
+    public Integer getCardinalityLimit() {
+        return cardinalityLimit;
+    }
+
+    /**
+     * Data points that have not been updated for this number of seconds are removed, {@code 0} means no expiry.
+     * Like exemplars enabled, this can be applied to all metric types.
+     * See {@code Counter.Builder.idleExpiry()}
+     */
+    public Long getIdleExpirySeconds() {
+        return idleExpirySeconds;
+    }
+
+    /**
+     * Relative error of summary quantiles, like {@code 0.01} for 1%.
+     * If this is set, summaries estimate quantiles with a mergeable sketch with the given relative error
+     * instead of the CKMS algorithm, and {@link #getSummaryQuantileErrors()} is ignored.
+     * Default is {@code null}, which means CKMS.
+     * See {@code Summary.Builder.relativeError()}.
+     */
+    public Double getSummaryRelativeError() {
+        return summaryRelativeError;
+    }
+
     /**
      * Note that this will remove entries from {@code properties}.
      * This is because we want to know if there are unused properties remaining after all properties have been loaded.
@@ -284,6 +331,9 @@ public class MetricsProperties {
                 Util.loadDoubleList(prefix + "." + SUMMARY_QUANTILE_ERRORS, properties),
                 Util.loadLong(prefix + "." + SUMMARY_MAX_AGE_SECONDS, properties),
                 Util.loadInteger(prefix + "." + SUMMARY_NUMBER_OF_AGE_BUCKETS, properties),
+                Util.loadInteger(prefix + "." + CARDINALITY_LIMIT, properties),
+                Util.loadLong(prefix + "." + IDLE_EXPIRY_SECONDS, properties),
+                Util.loadDouble(prefix + "." + SUMMARY_RELATIVE_ERROR, properties),
                 prefix);
     }
 
@@ -305,6 +355,9 @@ public class MetricsProperties {
         private List<Double> summaryQuantileErrors;
         private Long summaryMaxAgeSeconds;
         private Integer summaryNumberOfAgeBuckets;
+        private Integer cardinalityLimit;
+        private Long idleExpirySeconds;
+        private Double summaryRelativeError;
 
         private Builder() {
         }
@@ -322,7 +375,11 @@ public class MetricsProperties {
                     summaryQuantiles,
                     summaryQuantileErrors,
                     summaryMaxAgeSeconds,
-                    summaryNumberOfAgeBuckets);
+                    summaryNumberOfAgeBuckets,
+                    cardinalityLimit,
+                    idleExpirySeconds,
+                    summaryRelativeError,
+                    "");
         }
 
         /**
@@ -428,5 +485,29 @@ public class MetricsProperties {
             this.summaryNumberOfAgeBuckets = summaryNumberOfAgeBuckets;
             return this;
         }
+
+        /**
+         * See {@link MetricsProperties#getCardinalityLimit()}
+         */
+        public Builder cardinalityLimit(Integer cardinalityLimit) {
+            this.cardinalityLimit = cardinalityLimit;
+            return this;
+        }
+
+        /**
+         * See {@link MetricsProperties#getIdleExpirySeconds()}
+         */
+        public Builder idleExpirySeconds(Long idleExpirySeconds) {
+            this.idleExpirySeconds = idleExpirySeconds;
+            return this;
+        }
+
+        /**
+         * See {@link MetricsProperties#getSummaryRelativeError()}
+         */
+        public Builder summaryRelativeError(Double summaryRelativeError) {
+            this.summaryRelativeError = summaryRelativeError;
+            return this;
+        }
     }
 }
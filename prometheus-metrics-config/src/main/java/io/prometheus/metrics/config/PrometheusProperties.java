@@ -19,6 +19,8 @@ public class PrometheusProperties {
     private final ExporterFilterProperties exporterFilterProperties;
     private final ExporterHttpServerProperties exporterHttpServerProperties;
     private final ExporterOpenTelemetryProperties exporterOpenTelemetryProperties;
+    private final ClockProperties clockProperties;
+    private final SchedulerProperties schedulerProperties;
 
     /**
      * Get the properties instance. When called for the first time, {@code get()} loads the properties from the following locations:
@@ -40,6 +42,19 @@ public class PrometheusProperties {
             ExporterFilterProperties exporterFilterProperties,
             ExporterHttpServerProperties httpServerConfig,
             ExporterOpenTelemetryProperties otelConfig) {
+        this(defaultMetricsProperties, metricProperties, exemplarProperties, exporterProperties, exporterFilterProperties, httpServerConfig, otelConfig, ClockProperties.builder().build(), SchedulerProperties.builder().build());
+    }
+
+    public PrometheusProperties(
+            MetricsProperties defaultMetricsProperties,
+            Map<String, MetricsProperties> metricProperties,
+            ExemplarsProperties exemplarProperties,
+            ExporterProperties exporterProperties,
+            ExporterFilterProperties exporterFilterProperties,
+            ExporterHttpServerProperties httpServerConfig,
+            ExporterOpenTelemetryProperties otelConfig,
+            ClockProperties clockProperties,
+            SchedulerProperties schedulerProperties) {
         this.defaultMetricsProperties = defaultMetricsProperties;
         this.metricProperties.putAll(metricProperties);
         this.exemplarProperties = exemplarProperties;
@@ -47,6 +62,8 @@ public class PrometheusProperties {
         this.exporterFilterProperties = exporterFilterProperties;
         this.exporterHttpServerProperties = httpServerConfig;
         this.exporterOpenTelemetryProperties = otelConfig;
+        this.clockProperties = clockProperties;
+        this.schedulerProperties = schedulerProperties;
     }
 
     /**
@@ -83,4 +100,12 @@ public class PrometheusProperties {
     public ExporterOpenTelemetryProperties getExporterOpenTelemetryProperties() {
         return exporterOpenTelemetryProperties;
     }
+
+    public ClockProperties getClockProperties() {
+        return clockProperties;
+    }
+
+    public SchedulerProperties getSchedulerProperties() {
+        return schedulerProperties;
+    }
 }
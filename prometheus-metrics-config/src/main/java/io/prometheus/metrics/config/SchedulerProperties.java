@@ -0,0 +1,83 @@
+package io.prometheus.metrics.config;
+
+import java.util.Map;
+
+/**
+ * Properties starting with io.prometheus.scheduler
+ */
+public class SchedulerProperties {
+
+    private static final String THREADS = "threads";
+    private static final String VIRTUAL_THREADS = "virtualThreads";
+
+    private final Integer threads;
+    private final Boolean virtualThreads;
+
+    private SchedulerProperties(Integer threads, Boolean virtualThreads) {
+        this.threads = threads;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Number of threads for maintenance tasks like rotating summary time windows, resetting native histograms,
+     * or removing idle data points. Default is {@code 1}.
+     */
+    public int getThreads() {
+        return threads != null ? threads : 1;
+    }
+
+    /**
+     * Run maintenance tasks on virtual threads? Default is {@code false}.
+     * This requires Java 21 or newer. On older Java versions, platform daemon threads are used regardless.
+     */
+    public boolean getVirtualThreads() {
+        return virtualThreads != null && virtualThreads;
+    }
+
+    /**
+     * Note that this will remove entries from {@code properties}.
+     * This is because we want to know if there are unused properties remaining after all properties have been loaded.
+     */
+    static SchedulerProperties load(String prefix, Map<Object, Object> properties) throws PrometheusPropertiesException {
+        Integer threads = Util.loadInteger(prefix + "." + THREADS, properties);
+        Boolean virtualThreads = Util.loadBoolean(prefix + "." + VIRTUAL_THREADS, properties);
+        Util.assertValue(threads, t -> t > 0, "Expecting value > 0.", prefix, THREADS);
+        return new SchedulerProperties(threads, virtualThreads);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Integer threads;
+        private Boolean virtualThreads;
+
+        private Builder() {
+        }
+
+        /**
+         * See {@link #getThreads()}
+         */
+        public Builder threads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException(threads + ": Expecting threads > 0.");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * See {@link #getVirtualThreads()}
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public SchedulerProperties build() {
+            return new SchedulerProperties(threads, virtualThreads);
+        }
+    }
+}
@@ -26,4 +26,94 @@ public class PrometheusPropertiesTest {
         MetricsProperties.load("io.prometheus.metrics", properties);
         Assert.assertEquals(0, properties.size());
     }
+
+    @Test
+    public void testCardinalityLimit() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.metrics.cardinalityLimit", "1000");
+        Assert.assertEquals(Integer.valueOf(1000), MetricsProperties.load("io.prometheus.metrics", properties).getCardinalityLimit());
+    }
+
+    @Test(expected = PrometheusPropertiesException.class)
+    public void testNegativeCardinalityLimit() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.metrics.cardinalityLimit", "-1");
+        MetricsProperties.load("io.prometheus.metrics", properties);
+    }
+
+    @Test
+    public void testClockResolution() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.clock.resolutionMillis", "10");
+        Assert.assertEquals(10, ClockProperties.load("io.prometheus.clock", properties).getResolutionMillis());
+        Assert.assertEquals(0, properties.size());
+        Assert.assertEquals(0, ClockProperties.builder().build().getResolutionMillis());
+    }
+
+    @Test(expected = PrometheusPropertiesException.class)
+    public void testNegativeClockResolution() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.clock.resolutionMillis", "-1");
+        ClockProperties.load("io.prometheus.clock", properties);
+    }
+
+    @Test
+    public void testSchedulerProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.scheduler.threads", "4");
+        properties.setProperty("io.prometheus.scheduler.virtualThreads", "true");
+        SchedulerProperties result = SchedulerProperties.load("io.prometheus.scheduler", properties);
+        Assert.assertEquals(4, result.getThreads());
+        Assert.assertTrue(result.getVirtualThreads());
+        Assert.assertEquals(0, properties.size());
+        Assert.assertEquals(1, SchedulerProperties.builder().build().getThreads());
+    }
+
+    @Test(expected = PrometheusPropertiesException.class)
+    public void testZeroSchedulerThreads() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.scheduler.threads", "0");
+        SchedulerProperties.load("io.prometheus.scheduler", properties);
+    }
+
+    @Test
+    public void testExemplarsReservoir() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.exemplars.reservoir", "top_k");
+        Assert.assertEquals("top_k", ExemplarsProperties.load("io.prometheus.exemplars", properties).getReservoir());
+        Assert.assertEquals(0, properties.size());
+        Assert.assertNull(ExemplarsProperties.builder().builder().getReservoir());
+    }
+
+    @Test(expected = PrometheusPropertiesException.class)
+    public void testUnsupportedExemplarsReservoir() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.exemplars.reservoir", "random");
+        ExemplarsProperties.load("io.prometheus.exemplars", properties);
+    }
+
+    @Test
+    public void testStreamResponse() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.exporter.streamResponse", "true");
+        Assert.assertTrue(ExporterProperties.load("io.prometheus.exporter", properties).getStreamResponse());
+        Assert.assertEquals(0, properties.size());
+        Assert.assertFalse(ExporterProperties.builder().build().getStreamResponse());
+    }
+
+    @Test
+    public void testResponsePoolSize() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.exporter.responsePoolSize", "0");
+        Assert.assertEquals(0, ExporterProperties.load("io.prometheus.exporter", properties).getResponsePoolSize());
+        Assert.assertEquals(0, properties.size());
+        Assert.assertEquals(2, ExporterProperties.builder().build().getResponsePoolSize());
+    }
+
+    @Test(expected = PrometheusPropertiesException.class)
+    public void testNegativeResponsePoolSize() {
+        Properties properties = new Properties();
+        properties.setProperty("io.prometheus.exporter.responsePoolSize", "-1");
+        ExporterProperties.load("io.prometheus.exporter", properties);
+    }
 }
@@ -1,5 +1,6 @@
 package io.prometheus.metrics.core.datapoints;
 
+import io.prometheus.metrics.core.util.Clock;
 import io.prometheus.metrics.model.snapshots.Unit;
 
 import java.io.Closeable;
@@ -11,7 +12,8 @@ import java.util.function.DoubleConsumer;
 public class Timer implements Closeable {
 
     private final DoubleConsumer observeFunction;
-    private final long startTimeNanos = System.nanoTime();
+    private final Clock clock = Clock.get();
+    private final long startTimeNanos = clock.nanoTime();
 
     /**
      * Constructor is package private. Use the {@link TimerApi} provided by the implementation of the {@link DataPoint}.
@@ -25,7 +27,7 @@ public class Timer implements Closeable {
      * @return the observed duration in seconds.
      */
     public double observeDuration() {
-        double elapsed = Unit.nanosToSeconds(System.nanoTime() - startTimeNanos);
+        double elapsed = Unit.nanosToSeconds(clock.nanoTime() - startTimeNanos);
         observeFunction.accept(elapsed);
         return elapsed;
     }
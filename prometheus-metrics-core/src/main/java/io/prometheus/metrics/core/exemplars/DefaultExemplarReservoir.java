@@ -0,0 +1,210 @@
+package io.prometheus.metrics.core.exemplars;
+
+import io.prometheus.metrics.config.ExemplarsProperties;
+import io.prometheus.metrics.core.util.Clock;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The {@link ExemplarsProperties#RESERVOIR_DEFAULT} reservoir: Classic histograms keep one exemplar per bucket.
+ * Other metrics keep {@link ExemplarSamplerConfig#getNumberOfExemplars()} exemplars, preferring the smallest and
+ * the largest value, and replacing the oldest of the others.
+ * <p>
+ * Sampling is rate limited by a timestamp: The thread that wins the compare-and-set on
+ * {@code nextTimestampMillis} samples, and then sets the time when the next exemplar may be sampled.
+ * In the meantime the timestamp is {@link Long#MAX_VALUE}, so only one thread at a time updates the exemplars array.
+ * The timestamp is a field rather than a separate object, so that a data point that never sees a sampled span
+ * only pays for this object. The array is allocated when the first exemplar is sampled.
+ */
+final class DefaultExemplarReservoir implements ExemplarReservoir {
+
+    private static final AtomicLongFieldUpdater<DefaultExemplarReservoir> NEXT_TIMESTAMP =
+            AtomicLongFieldUpdater.newUpdater(DefaultExemplarReservoir.class, "nextTimestampMillis");
+
+    private final ExemplarSamplerConfig config;
+    // Earliest time when the next exemplar may be sampled, Long.MAX_VALUE while a thread is sampling.
+    private volatile long nextTimestampMillis = 0;
+    // Allocated lazily. Volatile because collect() may run in parallel with observe().
+    private volatile Exemplar[] exemplars;
+
+    DefaultExemplarReservoir(ExemplarSamplerConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void observe(double value) {
+        if (Double.isNaN(value) || SpanContextSupplier.getSpanContext() == null) {
+            return; // No tracer, so there is nothing to sample. No need to read the clock.
+        }
+        long now = Clock.get().currentTimeMillis();
+        long next = nextTimestampMillis;
+        if (now < next || !NEXT_TIMESTAMP.compareAndSet(this, next, Long.MAX_VALUE)) {
+            return; // This is the hot path in a high-throughput application and should be as efficient as possible.
+        }
+        long timestamp = 0;
+        try {
+            timestamp = doObserve(value, now);
+        } finally {
+            // Always reset the timestamp, otherwise an Exception would disable sampling forever.
+            nextTimestampMillis = ExemplarSampler.nextSampleTimestamp(config, exemplars, now, timestamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return exemplars == null;
+    }
+
+    @Override
+    public void collect(List<Exemplar> result, long now, int limit) {
+        Exemplar[] exemplars = this.exemplars;
+        for (int i = 0; exemplars != null && i < exemplars.length && result.size() < limit; i++) {
+            Exemplar exemplar = exemplars[i];
+            if (exemplar != null) {
+                if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
+                    exemplars[i] = null;
+                } else {
+                    result.add(exemplar);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        Exemplar[] exemplars = this.exemplars;
+        for (int i = 0; exemplars != null && i < exemplars.length; i++) {
+            exemplars[i] = null;
+        }
+    }
+
+    // Returns the timestamp of the newly added Exemplar (which is the current time)
+    // or 0 if no Exemplar was added.
+    private long doObserve(double value, long now) {
+        if (exemplars == null) {
+            return doObserveFirstExemplar(value, now);
+        }
+        if (exemplars.length == 1) {
+            return doObserveSingleExemplar(value, now);
+        } else if (config.getHistogramClassicUpperBounds() != null) {
+            return doObserveWithUpperBounds(value, now);
+        } else {
+            return doObserveWithoutUpperBounds(value, now);
+        }
+    }
+
+    // Allocates the exemplars array if the current span is sampled. As all slots are empty,
+    // the new exemplar goes to slot 0, or to the slot of its bucket if there are classic upper bounds.
+    private long doObserveFirstExemplar(double value, long now) {
+        Labels traceLabels = ExemplarSampler.doSampleExemplar();
+        if (traceLabels.isEmpty()) {
+            return 0;
+        }
+        Exemplar[] newExemplars = new Exemplar[config.getNumberOfExemplars()];
+        int index = 0;
+        double[] upperBounds = config.getHistogramClassicUpperBounds();
+        if (newExemplars.length > 1 && upperBounds != null) {
+            while (value > upperBounds[index]) {
+                index++; // terminates, as upperBounds contains +Inf
+            }
+        }
+        newExemplars[index] = Exemplar.builder()
+                .value(value)
+                .labels(traceLabels)
+                .timestampMillis(now)
+                .build();
+        exemplars = newExemplars;
+        return now;
+    }
+
+    private long doObserveSingleExemplar(double value, long now) {
+        Exemplar current = exemplars[0];
+        if (current == null || now - current.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
+            return updateExemplar(0, value, now);
+        }
+        return 0;
+    }
+
+    private long doObserveWithUpperBounds(double value, long now) {
+        double[] upperBounds = config.getHistogramClassicUpperBounds();
+        for (int i = 0; i < upperBounds.length; i++) {
+            if (value <= upperBounds[i]) {
+                Exemplar previous = exemplars[i];
+                if (previous == null || now - previous.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
+                    return updateExemplar(i, value, now);
+                } else {
+                    return 0;
+                }
+            }
+        }
+        return 0; // will never happen, as upperBounds contains +Inf
+    }
+
+    private long doObserveWithoutUpperBounds(double value, long now) {
+        Exemplar smallest = null;
+        int smallestIndex = -1;
+        Exemplar largest = null;
+        int largestIndex = -1;
+        int nullIndex = -1;
+        for (int i = exemplars.length - 1; i >= 0; i--) {
+            Exemplar exemplar = exemplars[i];
+            if (exemplar == null) {
+                nullIndex = i;
+            } else if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
+                exemplars[i] = null;
+                nullIndex = i;
+            } else {
+                if (smallest == null || exemplar.getValue() < smallest.getValue()) {
+                    smallest = exemplar;
+                    smallestIndex = i;
+                }
+                if (largest == null || exemplar.getValue() > largest.getValue()) {
+                    largest = exemplar;
+                    largestIndex = i;
+                }
+            }
+        }
+        if (nullIndex >= 0) {
+            return updateExemplar(nullIndex, value, now);
+        }
+        if (now - smallest.getTimestampMillis() > config.getMinRetentionPeriodMillis() && value < smallest.getValue()) {
+            return updateExemplar(smallestIndex, value, now);
+        }
+        if (now - largest.getTimestampMillis() > config.getMinRetentionPeriodMillis() && value > largest.getValue()) {
+            return updateExemplar(largestIndex, value, now);
+        }
+        long oldestTimestamp = 0;
+        int oldestIndex = -1;
+        for (int i = 0; i < exemplars.length; i++) {
+            Exemplar exemplar = exemplars[i];
+            if (exemplar != null && exemplar != smallest && exemplar != largest) {
+                if (oldestTimestamp == 0 || exemplar.getTimestampMillis() < oldestTimestamp) {
+                    oldestTimestamp = exemplar.getTimestampMillis();
+                    oldestIndex = i;
+                }
+            }
+        }
+        if (oldestIndex != -1 && now - oldestTimestamp > config.getMinRetentionPeriodMillis()) {
+            return updateExemplar(oldestIndex, value, now);
+        }
+        return 0;
+    }
+
+    private long updateExemplar(int index, double value, long now) {
+        Labels traceLabels = ExemplarSampler.doSampleExemplar();
+        if (!traceLabels.isEmpty()) {
+            exemplars[index] = Exemplar.builder()
+                    .value(value)
+                    .labels(traceLabels)
+                    .timestampMillis(now)
+                    .build();
+            return now;
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.prometheus.metrics.core.exemplars;
+
+import io.prometheus.metrics.config.ExemplarsProperties;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+
+import java.util.List;
+
+/**
+ * Holds the regular exemplars of an {@link ExemplarSampler}, i.e. the exemplars sampled from observations
+ * without explicit exemplar labels. Custom exemplars are kept by the {@link ExemplarSampler} itself.
+ * <p>
+ * Implementations are selected by {@link ExemplarsProperties#getReservoir()}, see {@link #create(ExemplarSamplerConfig)}.
+ * All methods must be thread-safe.
+ */
+interface ExemplarReservoir {
+
+    static ExemplarReservoir create(ExemplarSamplerConfig config) {
+        if (ExemplarsProperties.RESERVOIR_TOP_K.equals(config.getReservoir())) {
+            return new TopKExemplarReservoir(config);
+        } else {
+            return new DefaultExemplarReservoir(config);
+        }
+    }
+
+    /**
+     * Called for each observation. Implementations must be cheap if the observation is not sampled.
+     */
+    void observe(double value);
+
+    /**
+     * Returns {@code true} if no exemplar was sampled yet, so that {@link ExemplarSampler#collect()} does not
+     * need to allocate anything for data points that never see a sampled span.
+     */
+    boolean isEmpty();
+
+    /**
+     * Add the exemplars to {@code result} until {@code result} has {@code limit} elements.
+     * Exemplars older than the max retention period are dropped.
+     */
+    void collect(List<Exemplar> result, long now, int limit);
+
+    void reset();
+}
@@ -5,13 +5,12 @@ import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
 import io.prometheus.metrics.model.snapshots.Exemplar;
 import io.prometheus.metrics.model.snapshots.Exemplars;
 import io.prometheus.metrics.model.snapshots.Labels;
-import io.prometheus.metrics.core.util.Scheduler;
+import io.prometheus.metrics.core.util.Clock;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.LongSupplier;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The ExemplarSampler selects Spans as exemplars.
@@ -25,30 +24,62 @@ import java.util.function.LongSupplier;
  * This attribute can be used by a trace sampling algorithm to make sure traces with Exemplars are sampled.
  * <p>
  * The ExemplarSample is rate-limited, so only a small fraction of Spans will be marked as Exemplars in
- * an application with a large number of requests.
+ * an application with a large number of requests. If no tracer is present, an observation returns right away.
+ * Otherwise, the rate limit reads {@link Clock#currentTimeMillis()} on each observation, which is a field read
+ * if {@link Clock#get()} is a coarse clock, see {@code io.prometheus.clock.resolutionMillis}.
  * <p>
- * See {@link ExemplarSamplerConfig} for configuration options.
+ * See {@link ExemplarSamplerConfig} for configuration options. Regular exemplars are kept in an
+ * {@link ExemplarReservoir} selected by {@link ExemplarSamplerConfig#getReservoir()}.
+ * <p>
+ * The arrays holding the exemplars are allocated when the first exemplar is sampled, i.e. on the first observation
+ * with a sampled span, or on the first custom exemplar. In high-cardinality metrics most data points never see
+ * a sampled span, so most ExemplarSamplers never allocate them. The rate limits are {@code volatile long} fields
+ * updated with {@link AtomicLongFieldUpdater}, and the rate limit for custom exemplars is allocated together with
+ * the custom exemplars, so a data point without exemplars only holds the sampler and its reservoir
+ * (about 56 bytes with compressed oops).
  */
 public class ExemplarSampler {
 
+    private static final AtomicReferenceFieldUpdater<ExemplarSampler, CustomExemplars> CUSTOM =
+            AtomicReferenceFieldUpdater.newUpdater(ExemplarSampler.class, CustomExemplars.class, "custom");
+
     private final ExemplarSamplerConfig config;
-    private final Exemplar[] exemplars;
-    private final Exemplar[] customExemplars; // Separate from exemplars, because we don't want custom exemplars
-    // to be overwritten by automatic exemplar sampling. exemplars.lengt == customExemplars.length
-    private final AtomicBoolean acceptingNewExemplars = new AtomicBoolean(true);
-    private final AtomicBoolean acceptingNewCustomExemplars = new AtomicBoolean(true);
+    private final ExemplarReservoir reservoir; // regular exemplars
+    // Custom exemplars are separate from the reservoir, because we don't want custom exemplars
+    // to be overwritten by automatic exemplar sampling.
+    // Allocated lazily, see class comment. Volatile because collect() may run in parallel with observe().
+    private volatile CustomExemplars custom;
+
+    private static final class CustomExemplars {
+
+        private static final AtomicLongFieldUpdater<CustomExemplars> NEXT_TIMESTAMP =
+                AtomicLongFieldUpdater.newUpdater(CustomExemplars.class, "nextTimestampMillis");
+
+        private final Exemplar[] exemplars;
+        // Earliest time when the next custom exemplar may be sampled, Long.MAX_VALUE while a thread is sampling.
+        private volatile long nextTimestampMillis = 0;
+
+        private CustomExemplars(int numberOfExemplars) {
+            this.exemplars = new Exemplar[numberOfExemplars];
+        }
+    }
 
     public ExemplarSampler(ExemplarSamplerConfig config) {
         this.config = config;
-        this.exemplars = new Exemplar[config.getNumberOfExemplars()];
-        this.customExemplars = new Exemplar[exemplars.length];
+        this.reservoir = ExemplarReservoir.create(config);
     }
 
     public Exemplars collect() {
         // this may run in parallel with observe()
-        long now = System.currentTimeMillis();
-        List<Exemplar> result = new ArrayList<>(exemplars.length);
-        for (int i = 0; i < customExemplars.length; i++) {
+        CustomExemplars custom = this.custom;
+        Exemplar[] customExemplars = custom != null ? custom.exemplars : null;
+        if (customExemplars == null && reservoir.isEmpty()) {
+            return Exemplars.EMPTY;
+        }
+        long now = Clock.get().currentTimeMillis();
+        int numberOfExemplars = config.getNumberOfExemplars();
+        List<Exemplar> result = new ArrayList<>(numberOfExemplars);
+        for (int i = 0; customExemplars != null && i < customExemplars.length; i++) {
             Exemplar exemplar = customExemplars[i];
             if (exemplar != null) {
                 if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
@@ -58,155 +89,73 @@ public class ExemplarSampler {
                 }
             }
         }
-        for (int i = 0; i < exemplars.length && result.size() < exemplars.length; i++) {
-            Exemplar exemplar = exemplars[i];
-            if (exemplar != null) {
-                if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
-                    exemplars[i] = null;
-                } else {
-                    result.add(exemplar);
-                }
-            }
-        }
+        reservoir.collect(result, now, numberOfExemplars);
         return Exemplars.of(result);
     }
 
     public void reset() {
-        for (int i = 0; i < exemplars.length; i++) {
-            exemplars[i] = null;
+        CustomExemplars custom = this.custom;
+        Exemplar[] customExemplars = custom != null ? custom.exemplars : null;
+        for (int i = 0; customExemplars != null && i < customExemplars.length; i++) {
             customExemplars[i] = null;
         }
+        reservoir.reset();
     }
 
     public void observe(double value) {
-        if (!acceptingNewExemplars.get()) {
-            return; // This is the hot path in a high-throughput application and should be as efficient as possible.
-        }
-        rateLimitedObserve(acceptingNewExemplars, value, exemplars, () -> doObserve(value));
+        reservoir.observe(value);
     }
 
     public void observeWithExemplar(double value, Labels labels) {
-        if (!acceptingNewCustomExemplars.get()) {
-            return; // This is the hot path in a high-throughput application and should be as efficient as possible.
-        }
-        rateLimitedObserve(acceptingNewCustomExemplars, value, customExemplars, () -> doObserveWithExemplar(value, labels));
-    }
-
-    private long doObserve(double value) {
-        if (exemplars.length == 1) {
-            return doObserveSingleExemplar(value);
-        } else if (config.getHistogramClassicUpperBounds() != null) {
-            return doObserveWithUpperBounds(value);
-        } else {
-            return doObserveWithoutUpperBounds(value);
-        }
-    }
-
-    private long doObserveSingleExemplar(double value) {
-        long now = System.currentTimeMillis();
-        Exemplar current = exemplars[0];
-        if (current == null || now - current.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
-            return updateExemplar(0, value, now);
-        }
-        return 0;
-    }
-
-    private long doObserveWithUpperBounds(double value) {
-        long now = System.currentTimeMillis();
-        double[] upperBounds = config.getHistogramClassicUpperBounds();
-        for (int i = 0; i < upperBounds.length; i++) {
-            if (value <= upperBounds[i]) {
-                Exemplar previous = exemplars[i];
-                if (previous == null || now - previous.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
-                    return updateExemplar(i, value, now);
-                } else {
-                    return 0;
-                }
-            }
-        }
-        return 0; // will never happen, as upperBounds contains +Inf
-    }
-
-    private long doObserveWithoutUpperBounds(double value) {
-        final long now = System.currentTimeMillis();
-        Exemplar smallest = null;
-        int smallestIndex = -1;
-        Exemplar largest = null;
-        int largestIndex = -1;
-        int nullIndex = -1;
-        for (int i = exemplars.length - 1; i >= 0; i--) {
-            Exemplar exemplar = exemplars[i];
-            if (exemplar == null) {
-                nullIndex = i;
-            } else if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
-                exemplars[i] = null;
-                nullIndex = i;
-            } else {
-                if (smallest == null || exemplar.getValue() < smallest.getValue()) {
-                    smallest = exemplar;
-                    smallestIndex = i;
-                }
-                if (largest == null || exemplar.getValue() > largest.getValue()) {
-                    largest = exemplar;
-                    largestIndex = i;
-                }
-            }
-        }
-        if (nullIndex >= 0) {
-            return updateExemplar(nullIndex, value, now);
-        }
-        if (now - smallest.getTimestampMillis() > config.getMinRetentionPeriodMillis() && value < smallest.getValue()) {
-            return updateExemplar(smallestIndex, value, now);
+        if (Double.isNaN(value)) {
+            return;
         }
-        if (now - largest.getTimestampMillis() > config.getMinRetentionPeriodMillis() && value > largest.getValue()) {
-            return updateExemplar(largestIndex, value, now);
+        CustomExemplars custom = this.custom;
+        if (custom == null) {
+            CUSTOM.compareAndSet(this, null, new CustomExemplars(config.getNumberOfExemplars()));
+            custom = this.custom;
         }
-        long oldestTimestamp = 0;
-        int oldestIndex = -1;
-        for (int i = 0; i < exemplars.length; i++) {
-            Exemplar exemplar = exemplars[i];
-            if (exemplar != null && exemplar != smallest && exemplar != largest) {
-                if (oldestTimestamp == 0 || exemplar.getTimestampMillis() < oldestTimestamp) {
-                    oldestTimestamp = exemplar.getTimestampMillis();
-                    oldestIndex = i;
-                }
-            }
+        long now = Clock.get().currentTimeMillis();
+        long next = custom.nextTimestampMillis;
+        if (now < next || !CustomExemplars.NEXT_TIMESTAMP.compareAndSet(custom, next, Long.MAX_VALUE)) {
+            return;
         }
-        if (oldestIndex != -1 && now - oldestTimestamp > config.getMinRetentionPeriodMillis()) {
-            return updateExemplar(oldestIndex, value, now);
+        long timestamp = 0;
+        try {
+            timestamp = doObserveWithExemplar(custom.exemplars, value, labels, now);
+        } finally {
+            // Always reset the timestamp, otherwise an Exception would disable sampling forever.
+            custom.nextTimestampMillis = nextSampleTimestamp(config, custom.exemplars, now, timestamp);
         }
-        return 0;
     }
 
-    // Returns the timestamp of the newly added Exemplar (which is System.currentTimeMillis())
+    // Returns the timestamp of the newly added Exemplar (which is the current time)
     // or 0 if no Exemplar was added.
-    private long doObserveWithExemplar(double amount, Labels labels) {
+    private long doObserveWithExemplar(Exemplar[] customExemplars, double amount, Labels labels, long now) {
         if (customExemplars.length == 1) {
-            return doObserveSingleExemplar(amount, labels);
+            return doObserveSingleExemplar(customExemplars, amount, labels, now);
         } else if (config.getHistogramClassicUpperBounds() != null) {
-            return doObserveWithExemplarWithUpperBounds(amount, labels);
+            return doObserveWithExemplarWithUpperBounds(customExemplars, amount, labels, now);
         } else {
-            return doObserveWithExemplarWithoutUpperBounds(amount, labels);
+            return doObserveWithExemplarWithoutUpperBounds(customExemplars, amount, labels, now);
         }
     }
 
-    private long doObserveSingleExemplar(double amount, Labels labels) {
-        long now = System.currentTimeMillis();
+    private long doObserveSingleExemplar(Exemplar[] customExemplars, double amount, Labels labels, long now) {
         Exemplar current = customExemplars[0];
         if (current == null || now - current.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
-            return updateCustomExemplar(0, amount, labels, now);
+            return updateCustomExemplar(customExemplars, 0, amount, labels, now);
         }
         return 0;
     }
 
-    private long doObserveWithExemplarWithUpperBounds(double value, Labels labels) {
-        long now = System.currentTimeMillis();
+    private long doObserveWithExemplarWithUpperBounds(Exemplar[] customExemplars, double value, Labels labels, long now) {
         double[] upperBounds = config.getHistogramClassicUpperBounds();
         for (int i = 0; i < upperBounds.length; i++) {
             if (value <= upperBounds[i]) {
                 Exemplar previous = customExemplars[i];
                 if (previous == null || now - previous.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
-                    return updateCustomExemplar(i, value, labels, now);
+                    return updateCustomExemplar(customExemplars, i, value, labels, now);
                 } else {
                     return 0;
                 }
@@ -215,8 +164,7 @@ public class ExemplarSampler {
         return 0; // will never happen, as upperBounds contains +Inf
     }
 
-    private long doObserveWithExemplarWithoutUpperBounds(double amount, Labels labels) {
-        final long now = System.currentTimeMillis();
+    private long doObserveWithExemplarWithoutUpperBounds(Exemplar[] customExemplars, double amount, Labels labels, long now) {
         int nullPos = -1;
         int oldestPos = -1;
         Exemplar oldest = null;
@@ -235,52 +183,40 @@ public class ExemplarSampler {
             }
         }
         if (nullPos != -1) {
-            return updateCustomExemplar(nullPos, amount, labels, now);
+            return updateCustomExemplar(customExemplars, nullPos, amount, labels, now);
         } else if (now - oldest.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
-            return updateCustomExemplar(oldestPos, amount, labels, now);
+            return updateCustomExemplar(customExemplars, oldestPos, amount, labels, now);
         } else {
             return 0;
         }
     }
 
     /**
-     * Observing requires a system call to {@link System#currentTimeMillis()},
-     * and it requires iterating over the existing exemplars to check if one of the existing
-     * exemplars can be replaced.
-     * <p>
-     * To avoid performance issues, we rate limit observing exemplars to
-     * {@link ExemplarSamplerConfig#getSampleIntervalMillis()} milliseconds.
+     * The time when the next exemplar may be sampled, i.e. the new value of the rate limit timestamp.
+     * {@code timestamp} is the timestamp of the newly sampled exemplar, or 0 if no exemplar was sampled.
+     * If all exemplars are younger than the min retention period, none of them can be replaced before the
+     * oldest reaches it, so there is no need to try before that.
      */
-    private void rateLimitedObserve(AtomicBoolean accepting, double value, Exemplar[] exemplars, LongSupplier observeFunc) {
-        if (Double.isNaN(value)) {
-            return;
-        }
-        if (!accepting.compareAndSet(true, false)) {
-            return;
+    static long nextSampleTimestamp(ExemplarSamplerConfig config, Exemplar[] exemplars, long now, long timestamp) {
+        if (timestamp == 0 || exemplars == null) {
+            return now + config.getSampleIntervalMillis();
         }
-        // observeFunc returns the current timestamp or 0 if no Exemplar was added.
-        long now = observeFunc.getAsLong();
-        long sleepTime = now == 0 ? config.getSampleIntervalMillis() : durationUntilNextExemplarExpires(now);
-        Scheduler.schedule(() -> accepting.compareAndSet(false, true), sleepTime, TimeUnit.MILLISECONDS);
-    }
-
-    private long durationUntilNextExemplarExpires(long now) {
-        long oldestTimestamp = now;
+        long oldestTimestamp = timestamp;
         for (Exemplar exemplar : exemplars) {
             if (exemplar == null) {
-                return config.getSampleIntervalMillis();
+                return timestamp + config.getSampleIntervalMillis();
             } else if (exemplar.getTimestampMillis() < oldestTimestamp) {
                 oldestTimestamp = exemplar.getTimestampMillis();
             }
         }
-        long oldestAge = now - oldestTimestamp;
+        long oldestAge = timestamp - oldestTimestamp;
         if (oldestAge < config.getMinRetentionPeriodMillis()) {
-            return config.getMinRetentionPeriodMillis() - oldestAge;
+            return timestamp + config.getMinRetentionPeriodMillis() - oldestAge;
         }
-        return config.getSampleIntervalMillis();
+        return timestamp + config.getSampleIntervalMillis();
     }
 
-    private long updateCustomExemplar(int index, double value, Labels labels, long now) {
+    private long updateCustomExemplar(Exemplar[] customExemplars, int index, double value, Labels labels, long now) {
         if (!labels.contains(Exemplar.TRACE_ID) && !labels.contains(Exemplar.SPAN_ID)) {
             labels = labels.merge(doSampleExemplar());
         }
@@ -292,31 +228,13 @@ public class ExemplarSampler {
         return now;
     }
 
-    private long updateExemplar(int index, double value, long now) {
-        Labels traceLabels = doSampleExemplar();
-        if (!traceLabels.isEmpty()) {
-            exemplars[index] = Exemplar.builder()
-                    .value(value)
-                    .labels(traceLabels)
-                    .timestampMillis(now)
-                    .build();
-            return now;
-        } else {
-            return 0;
-        }
-    }
-
-    private Labels doSampleExemplar() {
+    static Labels doSampleExemplar() {
         try {
             SpanContext spanContext = SpanContextSupplier.getSpanContext();
             if (spanContext != null) {
-                if (spanContext.isCurrentSpanSampled()) {
-                    String spanId = spanContext.getCurrentSpanId();
-                    String traceId = spanContext.getCurrentTraceId();
-                    if (spanId != null && traceId != null) {
-                        spanContext.markCurrentSpanAsExemplar();
-                        return Labels.of(Exemplar.TRACE_ID, traceId, Exemplar.SPAN_ID, spanId);
-                    }
+                String[] ids = spanContext.markCurrentSpanAsExemplarIfSampled();
+                if (ids != null) {
+                    return Labels.ofTraceIdAndSpanId(ids[0], ids[1]);
                 }
             }
         } catch (NoClassDefFoundError ignored) {
@@ -27,6 +27,7 @@ public class ExemplarSamplerConfig {
     private final long sampleIntervalMillis;
     private final double[] histogramClassicUpperBounds; // null unless it's a classic histogram
     private final int numberOfExemplars; // if histogramClassicUpperBounds != null, then numberOfExemplars == histogramClassicUpperBounds.length
+    private final String reservoir;
 
     /**
      * Constructor for all metric types except classic histograms.
@@ -56,15 +57,21 @@ public class ExemplarSamplerConfig {
                 TimeUnit.SECONDS.toMillis(getOrDefault(properties.getMaxRetentionPeriodSeconds(), DEFAULT_MAX_RETENTION_PERIOD_SECONDS)),
                 getOrDefault(properties.getSampleIntervalMilliseconds(), DEFAULT_SAMPLE_INTERVAL_MILLISECONDS),
                 numberOfExemplars,
-                histogramClassicUpperBounds);
+                histogramClassicUpperBounds,
+                getOrDefault(properties.getReservoir(), ExemplarsProperties.RESERVOIR_DEFAULT));
     }
 
     ExemplarSamplerConfig(long minRetentionPeriodMillis, long maxRetentionPeriodMillis, long sampleIntervalMillis, int numberOfExemplars, double[] histogramClassicUpperBounds) {
+        this(minRetentionPeriodMillis, maxRetentionPeriodMillis, sampleIntervalMillis, numberOfExemplars, histogramClassicUpperBounds, ExemplarsProperties.RESERVOIR_DEFAULT);
+    }
+
+    ExemplarSamplerConfig(long minRetentionPeriodMillis, long maxRetentionPeriodMillis, long sampleIntervalMillis, int numberOfExemplars, double[] histogramClassicUpperBounds, String reservoir) {
         this.minRetentionPeriodMillis = minRetentionPeriodMillis;
         this.maxRetentionPeriodMillis = maxRetentionPeriodMillis;
         this.sampleIntervalMillis = sampleIntervalMillis;
         this.numberOfExemplars = numberOfExemplars;
         this.histogramClassicUpperBounds = histogramClassicUpperBounds;
+        this.reservoir = reservoir;
         validate();
     }
 
@@ -92,6 +99,9 @@ public class ExemplarSamplerConfig {
         if (numberOfExemplars <= 0) {
             throw new IllegalArgumentException(numberOfExemplars + ": numberOfExemplars must be > 0.");
         }
+        if (!ExemplarsProperties.RESERVOIR_DEFAULT.equals(reservoir) && !ExemplarsProperties.RESERVOIR_TOP_K.equals(reservoir)) {
+            throw new IllegalArgumentException(reservoir + ": unsupported reservoir.");
+        }
     }
 
     private static <T> T getOrDefault(T result, T defaultValue) {
@@ -132,4 +142,11 @@ public class ExemplarSamplerConfig {
     public int getNumberOfExemplars() {
         return numberOfExemplars;
     }
+
+    /**
+     * See {@link ExemplarsProperties#getReservoir()}
+     */
+    public String getReservoir() {
+        return reservoir;
+    }
 }
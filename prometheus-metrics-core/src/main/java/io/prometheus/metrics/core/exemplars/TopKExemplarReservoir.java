@@ -0,0 +1,203 @@
+package io.prometheus.metrics.core.exemplars;
+
+import io.prometheus.metrics.config.ExemplarsProperties;
+import io.prometheus.metrics.core.util.Clock;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.tracer.common.SpanContext;
+import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Keeps the sampled Exemplars with the highest values, see {@link ExemplarsProperties#RESERVOIR_TOP_K}.
+ * The number of Exemplars k is {@link ExemplarSamplerConfig#getNumberOfExemplars()}.
+ * <p>
+ * Observations are rate limited by the sample interval like in the default reservoir. Observations with a higher
+ * value than the smallest Exemplar in a full reservoir have their own rate limit, so that they are not held back
+ * by the longer wait for the min retention period below. They replace the smallest Exemplar.
+ * Exemplars older than the minimum retention period may be replaced by any value, so that each retention
+ * period gets its own top values. In any case, the span is only looked up if the observation passes the rate limit,
+ * and only marked as an Exemplar if it is actually stored.
+ * <p>
+ * The Exemplars are stored in a fixed size {@link AtomicReferenceArray} and replaced with compare-and-set,
+ * so concurrent observations never block each other. The array is allocated with the first sampled Exemplar.
+ */
+final class TopKExemplarReservoir implements ExemplarReservoir {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final AtomicLongFieldUpdater<TopKExemplarReservoir> NEXT_TIMESTAMP =
+            AtomicLongFieldUpdater.newUpdater(TopKExemplarReservoir.class, "nextTimestampMillis");
+    private static final AtomicLongFieldUpdater<TopKExemplarReservoir> NEXT_TOP_TIMESTAMP =
+            AtomicLongFieldUpdater.newUpdater(TopKExemplarReservoir.class, "nextTopTimestampMillis");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TopKExemplarReservoir, AtomicReferenceArray> SLOTS =
+            AtomicReferenceFieldUpdater.newUpdater(TopKExemplarReservoir.class, AtomicReferenceArray.class, "slots");
+
+    private final ExemplarSamplerConfig config;
+    private volatile AtomicReferenceArray<Exemplar> slots;
+    // Observations with value <= threshold are rate limited by nextTimestampMillis.
+    // +Inf if there are free slots, the smallest value otherwise.
+    private volatile double threshold = Double.POSITIVE_INFINITY;
+    private volatile long nextTimestampMillis = 0;
+    // Observations with value > threshold are rate limited by nextTopTimestampMillis.
+    private volatile long nextTopTimestampMillis = 0;
+
+    TopKExemplarReservoir(ExemplarSamplerConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void observe(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        SpanContext spanContext = SpanContextSupplier.getSpanContext();
+        if (spanContext == null) {
+            return; // No tracer, so there is nothing to sample. No need to read the clock.
+        }
+        long now = Clock.get().currentTimeMillis();
+        AtomicLongFieldUpdater<TopKExemplarReservoir> nextTimestamp = value > threshold ? NEXT_TOP_TIMESTAMP : NEXT_TIMESTAMP;
+        long next = nextTimestamp.get(this);
+        if (now < next || !nextTimestamp.compareAndSet(this, next, now + config.getSampleIntervalMillis())) {
+            return; // This is the hot path in a high-throughput application.
+        }
+        // Check the span before looking for a slot, and don't mark it as an Exemplar before we know it is kept.
+        if (!isCurrentSpanSampled(spanContext)) {
+            return;
+        }
+        offer(value, now);
+    }
+
+    private static boolean isCurrentSpanSampled(SpanContext spanContext) {
+        try {
+            return spanContext.isCurrentSpanSampled();
+        } catch (NoClassDefFoundError ignored) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void offer(double value, long now) {
+        AtomicReferenceArray<Exemplar> slots = this.slots;
+        Labels traceLabels = null;
+        if (slots == null) {
+            traceLabels = ExemplarSampler.doSampleExemplar();
+            if (traceLabels.isEmpty()) {
+                return;
+            }
+            slots = new AtomicReferenceArray<>(config.getNumberOfExemplars());
+            if (!SLOTS.compareAndSet(this, null, slots)) {
+                slots = this.slots;
+            }
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int index = -1;
+            Exemplar replaced = null;
+            int smallestIndex = -1;
+            Exemplar smallest = null;
+            int smallestAgedIndex = -1;
+            Exemplar smallestAged = null;
+            for (int i = 0; i < slots.length(); i++) {
+                Exemplar exemplar = slots.get(i);
+                if (exemplar == null || now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
+                    index = i;
+                    replaced = exemplar;
+                    break;
+                }
+                if (smallest == null || exemplar.getValue() < smallest.getValue()) {
+                    smallest = exemplar;
+                    smallestIndex = i;
+                }
+                if (now - exemplar.getTimestampMillis() > config.getMinRetentionPeriodMillis()) {
+                    if (smallestAged == null || exemplar.getValue() < smallestAged.getValue()) {
+                        smallestAged = exemplar;
+                        smallestAgedIndex = i;
+                    }
+                }
+            }
+            if (index == -1) {
+                if (smallestAged != null) {
+                    index = smallestAgedIndex;
+                    replaced = smallestAged;
+                } else if (value > smallest.getValue()) {
+                    index = smallestIndex;
+                    replaced = smallest;
+                } else {
+                    updateThreshold(slots, now);
+                    return;
+                }
+            }
+            if (traceLabels == null) {
+                traceLabels = ExemplarSampler.doSampleExemplar();
+                if (traceLabels.isEmpty()) {
+                    return;
+                }
+            }
+            Exemplar exemplar = Exemplar.builder()
+                    .value(value)
+                    .labels(traceLabels)
+                    .timestampMillis(now)
+                    .build();
+            if (slots.compareAndSet(index, replaced, exemplar)) {
+                updateThreshold(slots, now);
+                return;
+            }
+        }
+    }
+
+    // Races with concurrent updates are benign: A stale threshold lets a few more observations
+    // through to offer(), or rate limits a few observations that could have been Exemplars.
+    private void updateThreshold(AtomicReferenceArray<Exemplar> slots, long now) {
+        double smallestValue = Double.POSITIVE_INFINITY;
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (int i = 0; i < slots.length(); i++) {
+            Exemplar exemplar = slots.get(i);
+            if (exemplar == null || now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
+                threshold = Double.POSITIVE_INFINITY;
+                nextTimestampMillis = now + config.getSampleIntervalMillis();
+                return;
+            }
+            smallestValue = Math.min(smallestValue, exemplar.getValue());
+            oldestTimestamp = Math.min(oldestTimestamp, exemplar.getTimestampMillis());
+        }
+        threshold = smallestValue;
+        // No Exemplar can be replaced by a smaller value before the oldest Exemplar reaches the min retention period.
+        nextTimestampMillis = Math.max(now + config.getSampleIntervalMillis(), oldestTimestamp + config.getMinRetentionPeriodMillis() + 1);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return slots == null;
+    }
+
+    @Override
+    public void collect(List<Exemplar> result, long now, int limit) {
+        AtomicReferenceArray<Exemplar> slots = this.slots;
+        for (int i = 0; slots != null && i < slots.length() && result.size() < limit; i++) {
+            Exemplar exemplar = slots.get(i);
+            if (exemplar != null) {
+                if (now - exemplar.getTimestampMillis() > config.getMaxRetentionPeriodMillis()) {
+                    slots.compareAndSet(i, exemplar, null);
+                } else {
+                    result.add(exemplar);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        AtomicReferenceArray<Exemplar> slots = this.slots;
+        for (int i = 0; slots != null && i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        threshold = Double.POSITIVE_INFINITY;
+        nextTimestampMillis = 0;
+        nextTopTimestampMillis = 0;
+    }
+}
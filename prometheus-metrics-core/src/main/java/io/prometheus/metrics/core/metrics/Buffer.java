@@ -2,8 +2,10 @@ package io.prometheus.metrics.core.metrics;
 
 import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
 
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -13,17 +15,81 @@ import java.util.function.Supplier;
  * <p>
  * This is implemented by switching to a Buffer when the scrape starts,
  * and applying the values from the buffer after the scrape ends.
+ * <p>
+ * Appending to the buffer is lock-free: Observations are distributed over a number of stripes
+ * (selected by thread id), and each stripe reserves slots with a single atomic increment.
+ * Storage is organized in chunks of exponentially growing size. Chunks are allocated the first
+ * time they are needed. The first chunk of each stripe is re-used for subsequent scrapes, so in steady state
+ * appending to the buffer does not allocate as long as a stripe does not get more than
+ * 16 observations (the size of the first chunk) during a scrape.
+ * <p>
+ * Each Histogram and Summary data point has a Buffer, so it is kept small: The stripes are allocated on the first
+ * observation that arrives during a scrape, so a data point that is never observed while being scraped only pays
+ * for the Buffer's counters (about 80 bytes). Larger chunks are released after the buffered values are applied,
+ * so memory does not stay at the peak backlog. A stripe that was used once keeps its first chunk (about 350 bytes
+ * including the stripe itself).
  */
 class Buffer {
 
     private static final long signBit = 1L << 63;
+
+    // The first chunk has 2^INITIAL_CHUNK_SIZE_BITS slots, each subsequent chunk doubles the size.
+    private static final int INITIAL_CHUNK_SIZE_BITS = 4;
+    private static final int INITIAL_CHUNK_SIZE = 1 << INITIAL_CHUNK_SIZE_BITS;
+    // Enough chunks to address Integer.MAX_VALUE slots.
+    private static final int MAX_NUMBER_OF_CHUNKS = 32 - INITIAL_CHUNK_SIZE_BITS;
+    private static final int NUMBER_OF_STRIPES = numberOfStripes();
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Buffer, AtomicReferenceArray> STRIPES =
+            AtomicReferenceFieldUpdater.newUpdater(Buffer.class, AtomicReferenceArray.class, "stripes");
+
     private final AtomicLong observationCount = new AtomicLong(0);
-    private double[] observationBuffer = new double[0];
-    private int bufferPos = 0;
+    // Created on the first buffered append, and stripes are created lazily as well,
+    // so only stripes that are actually used allocate memory.
+    private volatile AtomicReferenceArray<Stripe> stripes;
     private boolean reset = false;
-    private final Object appendLock = new Object();
+    private long mergedObservations = 0; // observations added by the runnable, see addObservations()
     private final Object runLock = new Object();
 
+    private static class Stripe {
+
+        private final AtomicInteger reserved = new AtomicInteger(0); // number of slots handed out
+        private final AtomicInteger written = new AtomicInteger(0); // number of slots containing a value
+        private final AtomicReferenceArray<double[]> chunks = new AtomicReferenceArray<>(MAX_NUMBER_OF_CHUNKS);
+
+        private void append(double value) {
+            int pos = reserved.getAndIncrement();
+            // Slot pos is at offset (pos + INITIAL_CHUNK_SIZE) - (INITIAL_CHUNK_SIZE << chunkIndex) in chunk chunkIndex.
+            int p = pos + INITIAL_CHUNK_SIZE;
+            int chunkIndex = 31 - Integer.numberOfLeadingZeros(p) - INITIAL_CHUNK_SIZE_BITS;
+            double[] chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                chunks.compareAndSet(chunkIndex, null, new double[INITIAL_CHUNK_SIZE << chunkIndex]);
+                chunk = chunks.get(chunkIndex);
+            }
+            chunk[p - (INITIAL_CHUNK_SIZE << chunkIndex)] = value;
+            written.incrementAndGet(); // volatile write makes the value visible to the scraping thread
+        }
+
+        // Only called by run() after all pending appends have been written.
+        private void drain(Consumer<Double> observeFunction) {
+            int size = written.get();
+            int pos = 0;
+            for (int chunkIndex = 0; pos < size; chunkIndex++) {
+                double[] chunk = chunks.get(chunkIndex);
+                for (int i = 0; i < chunk.length && pos < size; i++, pos++) {
+                    observeFunction.accept(chunk[i]);
+                }
+            }
+            written.set(0);
+            reserved.set(0);
+            // Keep the first chunk for the next scrape, but don't hold on to the memory for a large backlog.
+            for (int chunkIndex = 1; chunkIndex < MAX_NUMBER_OF_CHUNKS && chunks.get(chunkIndex) != null; chunkIndex++) {
+                chunks.set(chunkIndex, null);
+            }
+        }
+    }
+
     boolean append(double value) {
         long count = observationCount.incrementAndGet();
         if ((count & signBit) == 0) {
@@ -35,13 +101,33 @@ class Buffer {
     }
 
     private void doAppend(double amount) {
-        synchronized (appendLock) {
-            if (bufferPos >= observationBuffer.length) {
-                observationBuffer = Arrays.copyOf(observationBuffer, observationBuffer.length + 128);
+        AtomicReferenceArray<Stripe> stripes = this.stripes;
+        if (stripes == null) {
+            STRIPES.compareAndSet(this, null, new AtomicReferenceArray<Stripe>(NUMBER_OF_STRIPES));
+            stripes = this.stripes;
+        }
+        int index = (int) Thread.currentThread().getId() & (NUMBER_OF_STRIPES - 1);
+        Stripe stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new Stripe());
+            stripe = stripes.get(index);
+        }
+        stripe.append(amount);
+    }
+
+    private int bufferSize() {
+        AtomicReferenceArray<Stripe> stripes = this.stripes;
+        if (stripes == null) {
+            return 0;
+        }
+        int result = 0;
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                result += stripe.written.get();
             }
-            observationBuffer[bufferPos] = amount;
-            bufferPos++;
         }
+        return result;
     }
 
     /**
@@ -51,9 +137,16 @@ class Buffer {
         reset = true;
     }
 
+    /**
+     * Must be called by the runnable in the run() method if it adds observations directly to the metric,
+     * i.e. observations that were not counted by {@link #append(double)}, like a batch merged from a local recorder.
+     * The metric's completion count includes these observations, so they must be added to the observation count as well.
+     */
+    void addObservations(long n) {
+        mergedObservations += n;
+    }
+
     <T extends DataPointSnapshot> T run(Function<Long, Boolean> complete, Supplier<T> runnable, Consumer<Double> observeFunction) {
-        double[] buffer;
-        int bufferSize;
         T result;
         synchronized (runLock) {
             Long count = observationCount.getAndAdd(signBit);
@@ -67,18 +160,45 @@ class Buffer {
                 reset = false;
             } else {
                 expectedBufferSize = (int) (observationCount.addAndGet(signBit) - count);
+                observationCount.addAndGet(mergedObservations);
             }
-            while (bufferPos != expectedBufferSize) {
+            mergedObservations = 0;
+            while (bufferSize() != expectedBufferSize) {
                 Thread.yield();
             }
-            buffer = observationBuffer;
-            bufferSize = bufferPos;
-            observationBuffer = new double[0];
-            bufferPos = 0;
+            // The buffer is no longer active and all buffered values are written,
+            // so we can apply them while holding the runLock and then re-use the chunks.
+            AtomicReferenceArray<Stripe> stripes = this.stripes;
+            if (stripes != null) {
+                for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+                    Stripe stripe = stripes.get(i);
+                    if (stripe != null) {
+                        stripe.drain(observeFunction);
+                    }
+                }
+            }
         }
-        for (int i = 0; i < bufferSize; i++) {
-            observeFunction.accept(buffer[i]);
+        return result;
+    }
+
+    // For testing.
+    int getNumberOfChunks() {
+        AtomicReferenceArray<Stripe> stripes = this.stripes;
+        int result = 0;
+        for (int i = 0; stripes != null && i < NUMBER_OF_STRIPES; i++) {
+            Stripe stripe = stripes.get(i);
+            for (int chunkIndex = 0; stripe != null && chunkIndex < MAX_NUMBER_OF_CHUNKS; chunkIndex++) {
+                if (stripe.chunks.get(chunkIndex) != null) {
+                    result++;
+                }
+            }
         }
         return result;
     }
+
+    private static int numberOfStripes() {
+        // power of two, so that we can use a bit mask for selecting the stripe
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(Math.max(1, processors) * 2 - 1);
+    }
 }
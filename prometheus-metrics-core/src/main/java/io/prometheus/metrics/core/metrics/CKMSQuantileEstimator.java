@@ -0,0 +1,28 @@
+package io.prometheus.metrics.core.metrics;
+
+/**
+ * {@link QuantileEstimator} with a {@link CKMSQuantiles} per age bucket of a {@link SlidingWindow}.
+ */
+class CKMSQuantileEstimator implements QuantileEstimator {
+
+    private final SlidingWindow<CKMSQuantiles> window;
+
+    CKMSQuantileEstimator(CKMSQuantiles.Quantile[] quantiles, long maxAgeSeconds, int ageBuckets) {
+        this.window = new SlidingWindow<>(CKMSQuantiles.class, () -> new CKMSQuantiles(quantiles), CKMSQuantiles::reset, CKMSQuantiles::insert, maxAgeSeconds, ageBuckets);
+    }
+
+    @Override
+    public void observe(double value) {
+        window.observe(value);
+    }
+
+    @Override
+    public double[] get(double[] quantiles) {
+        CKMSQuantiles current = window.current();
+        double[] result = new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            result[i] = current.get(quantiles[i]);
+        }
+        return result;
+    }
+}
@@ -86,6 +86,16 @@ final class CKMSQuantiles {
         }
     }
 
+    /**
+     * Remove all observed values, so that this instance can be re-used without allocating a new one.
+     */
+    public void reset() {
+        samples.clear();
+        n = 0;
+        bufferPos = 0;
+        insertsSinceLastCompress = 0;
+    }
+
     private void flush() {
         Arrays.sort(buffer, 0, bufferPos);
         insertBatch(buffer, bufferPos);
@@ -0,0 +1,86 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.model.registry.Collector;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics about metrics with a {@link StatefulMetric.Builder#cardinalityLimit(int) cardinality limit}.
+ * Register them like this:
+ * <pre>{@code
+ *   CardinalityLimitMetrics.builder().register();
+ * }</pre>
+ * Example metrics being exported:
+ * <pre>
+ * # HELP prometheus_cardinality_limit_overflow_calls_total Number of labelValues() calls that returned the overflow data point. Calls are counted, not distinct label values.
+ * # TYPE prometheus_cardinality_limit_overflow_calls_total counter
+ * prometheus_cardinality_limit_overflow_calls_total{metric="http_requests"} 17.0
+ * prometheus_cardinality_limit_overflow_calls_total{metric="jobs_processed"} 0.0
+ * </pre>
+ * Only metrics registered with the same registry as {@code CardinalityLimitMetrics} are exported.
+ * Each of them is exported if it has a cardinality limit, even if the limit was never reached.
+ * A counter that keeps increasing means a label is getting more values than expected.
+ * See {@link StatefulMetric#getOverflowRedirectCount()} for what is counted.
+ */
+public class CardinalityLimitMetrics {
+
+    private static final String PROMETHEUS_CARDINALITY_LIMIT_OVERFLOW_CALLS_TOTAL = "prometheus_cardinality_limit_overflow_calls_total";
+
+    private final PrometheusProperties config;
+
+    private CardinalityLimitMetrics(PrometheusProperties config) {
+        this.config = config;
+    }
+
+    private void register(PrometheusRegistry registry) {
+
+        CounterWithCallback.builder(config)
+                .name(PROMETHEUS_CARDINALITY_LIMIT_OVERFLOW_CALLS_TOTAL)
+                .help("Number of labelValues() calls that returned the overflow data point. Calls are counted, not distinct label values.")
+                .labelNames("metric")
+                .callback(callback -> {
+                    // Metric names are unique within a registry, the TreeMap is only for sorting by name.
+                    Map<String, Long> overflowCalls = new TreeMap<>();
+                    for (Collector collector : registry.getCollectors()) {
+                        if (collector instanceof StatefulMetric) {
+                            StatefulMetric<?, ?> metric = (StatefulMetric<?, ?>) collector;
+                            if (metric.getCardinalityLimit() > 0) {
+                                overflowCalls.put(metric.getMetadata().getName(), metric.getOverflowRedirectCount());
+                            }
+                        }
+                    }
+                    for (Map.Entry<String, Long> entry : overflowCalls.entrySet()) {
+                        callback.call(entry.getValue(), entry.getKey());
+                    }
+                })
+                .register(registry);
+    }
+
+    public static Builder builder() {
+        return new Builder(PrometheusProperties.get());
+    }
+
+    public static Builder builder(PrometheusProperties config) {
+        return new Builder(config);
+    }
+
+    public static class Builder {
+
+        private final PrometheusProperties config;
+
+        private Builder(PrometheusProperties config) {
+            this.config = config;
+        }
+
+        public void register() {
+            register(PrometheusRegistry.defaultRegistry);
+        }
+
+        public void register(PrometheusRegistry registry) {
+            new CardinalityLimitMetrics(config).register(registry);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.prometheus.metrics.core.metrics;
+
+/**
+ * Finds the classic histogram bucket for an observed value, i.e. the index of the first upper bound
+ * that is greater than or equal to the value.
+ * <p>
+ * The strategy is selected when the histogram is created:
+ * <ul>
+ *     <li>Bucket boundaries created with {@link Histogram.Builder#classicLinearUpperBounds(double, double, int)}
+ *         or {@link Histogram.Builder#classicExponentialUpperBounds(double, double, int)} compute the index directly.
+ *         Because of floating point rounding the computed index may be off by one, so it is corrected by
+ *         comparing with the neighboring bounds.</li>
+ *     <li>For all other bucket boundaries we use a binary search with a fixed number of iterations
+ *         and no data dependent branches.</li>
+ * </ul>
+ * The upper bounds may have been overwritten by a configuration property. Therefore, the linear and exponential
+ * strategies verify that the formula matches the actual upper bounds, and fall back to the binary search if it doesn't.
+ */
+abstract class ClassicBucketIndex {
+
+    // Sorted, last upper bound is +Inf.
+    final double[] upperBounds;
+
+    private ClassicBucketIndex(double[] upperBounds) {
+        this.upperBounds = upperBounds;
+    }
+
+    /**
+     * Precondition: {@code value} is not NaN.
+     */
+    abstract int indexOf(double value);
+
+    static ClassicBucketIndex binarySearch(double[] upperBounds) {
+        return new BinarySearch(upperBounds);
+    }
+
+    static ClassicBucketIndex linear(double[] upperBounds, double start, double width) {
+        return verify(new Linear(upperBounds, start, width));
+    }
+
+    static ClassicBucketIndex exponential(double[] upperBounds, double start, double factor) {
+        return verify(new Exponential(upperBounds, start, factor));
+    }
+
+    private static ClassicBucketIndex verify(Arithmetic index) {
+        double[] upperBounds = index.upperBounds;
+        for (int i = 0; i < upperBounds.length - 1; i++) {
+            if (Math.abs(index.estimate(upperBounds[i]) - i) > 1 || Math.abs(index.estimate(Math.nextUp(upperBounds[i])) - (i + 1)) > 1) {
+                return binarySearch(upperBounds);
+            }
+        }
+        return index;
+    }
+
+    private static class BinarySearch extends ClassicBucketIndex {
+
+        private BinarySearch(double[] upperBounds) {
+            super(upperBounds);
+        }
+
+        @Override
+        int indexOf(double value) {
+            // Branch-free lower bound search: The number of iterations depends on the number of
+            // upper bounds only, and the conditional expression compiles to a conditional move.
+            int base = 0;
+            int n = upperBounds.length;
+            while (n > 1) {
+                int half = n >>> 1;
+                base = upperBounds[base + half - 1] < value ? base + half : base;
+                n -= half;
+            }
+            // The last upper bound is +Inf, so this never exceeds the last index.
+            return upperBounds[base] < value ? base + 1 : base;
+        }
+    }
+
+    private static abstract class Arithmetic extends ClassicBucketIndex {
+
+        private Arithmetic(double[] upperBounds) {
+            super(upperBounds);
+        }
+
+        /**
+         * Estimated index, may be off by one because of rounding errors.
+         */
+        abstract int estimate(double value);
+
+        @Override
+        int indexOf(double value) {
+            int i = estimate(value);
+            if (i < 0) {
+                i = 0;
+            } else if (i > upperBounds.length - 1) {
+                i = upperBounds.length - 1;
+            }
+            while (i > 0 && value <= upperBounds[i - 1]) {
+                i--;
+            }
+            while (value > upperBounds[i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private static class Linear extends Arithmetic {
+
+        private final double start;
+        private final double width;
+
+        private Linear(double[] upperBounds, double start, double width) {
+            super(upperBounds);
+            this.start = start;
+            this.width = width;
+        }
+
+        @Override
+        int estimate(double value) {
+            // The cast saturates at Integer.MIN_VALUE / Integer.MAX_VALUE for infinite values.
+            return (int) Math.ceil((value - start) / width);
+        }
+    }
+
+    private static class Exponential extends Arithmetic {
+
+        private final double start;
+        private final double inverseLogFactor;
+
+        private Exponential(double[] upperBounds, double start, double factor) {
+            super(upperBounds);
+            this.start = start;
+            this.inverseLogFactor = 1.0 / Math.log(factor);
+        }
+
+        @Override
+        int estimate(double value) {
+            if (value <= 0) {
+                return 0;
+            }
+            return (int) Math.ceil(Math.log(value / start) * inverseLogFactor);
+        }
+    }
+}
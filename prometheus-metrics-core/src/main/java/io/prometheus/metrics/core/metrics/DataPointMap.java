@@ -0,0 +1,410 @@
+package io.prometheus.metrics.core.metrics;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Maps label values to data points.
+ * <p>
+ * This is used by {@link StatefulMetric} instead of a {@code ConcurrentHashMap<List<String>, T>}.
+ * Lookups are lock-free and do not allocate: The hash code is calculated directly from the label values
+ * (there is no {@code List} wrapper as key), and entries are compared with the label values one by one.
+ * Adding and removing entries is synchronized. This is optimized for the typical case that the set of
+ * label values is almost constant, while data points are looked up very frequently.
+ * <p>
+ * Most metrics have one, two, or three labels. For these, entries store the label values in fields
+ * rather than in an array, which saves the array indirection and the array object. The entry type
+ * is selected by the number of label names passed to the constructor.
+ */
+class DataPointMap<T> {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final int numberOfLabels;
+    private final int initialCapacity;
+    private final Object lock = new Object();
+    private volatile AtomicReferenceArray<Entry<T>> table;
+    private volatile int size = 0;
+
+    /**
+     * Entries are immutable. Buckets are linked lists, modifications replace the affected part of the list.
+     * <p>
+     * All entries in a map have the same number of label values, so only the {@code matches()} method
+     * for that number of label values will ever be called.
+     */
+    private static abstract class Entry<T> {
+
+        final int hash;
+        final T dataPoint;
+        final Entry<T> next;
+
+        Entry(int hash, T dataPoint, Entry<T> next) {
+            this.hash = hash;
+            this.dataPoint = dataPoint;
+            this.next = next;
+        }
+
+        abstract boolean matches(String[] labelValues);
+
+        boolean matches(String labelValue) {
+            return false;
+        }
+
+        boolean matches(String labelValue1, String labelValue2) {
+            return false;
+        }
+
+        boolean matches(String labelValue1, String labelValue2, String labelValue3) {
+            return false;
+        }
+
+        /**
+         * Returns a new array, so this should only be called in the scrape path.
+         */
+        abstract String[] labelValues();
+
+        /**
+         * Copy of this entry with a different successor.
+         */
+        abstract Entry<T> withNext(Entry<T> next);
+    }
+
+    private static class Entry1<T> extends Entry<T> {
+
+        private final String value1;
+
+        private Entry1(int hash, String value1, T dataPoint, Entry<T> next) {
+            super(hash, dataPoint, next);
+            this.value1 = value1;
+        }
+
+        @Override
+        boolean matches(String[] labelValues) {
+            return labelValues.length == 1 && Objects.equals(value1, labelValues[0]);
+        }
+
+        @Override
+        boolean matches(String labelValue) {
+            return Objects.equals(value1, labelValue);
+        }
+
+        @Override
+        String[] labelValues() {
+            return new String[]{value1};
+        }
+
+        @Override
+        Entry<T> withNext(Entry<T> next) {
+            return new Entry1<>(hash, value1, dataPoint, next);
+        }
+    }
+
+    private static class Entry2<T> extends Entry<T> {
+
+        private final String value1;
+        private final String value2;
+
+        private Entry2(int hash, String value1, String value2, T dataPoint, Entry<T> next) {
+            super(hash, dataPoint, next);
+            this.value1 = value1;
+            this.value2 = value2;
+        }
+
+        @Override
+        boolean matches(String[] labelValues) {
+            return labelValues.length == 2 && matches(labelValues[0], labelValues[1]);
+        }
+
+        @Override
+        boolean matches(String labelValue1, String labelValue2) {
+            return Objects.equals(value1, labelValue1) && Objects.equals(value2, labelValue2);
+        }
+
+        @Override
+        String[] labelValues() {
+            return new String[]{value1, value2};
+        }
+
+        @Override
+        Entry<T> withNext(Entry<T> next) {
+            return new Entry2<>(hash, value1, value2, dataPoint, next);
+        }
+    }
+
+    private static class Entry3<T> extends Entry<T> {
+
+        private final String value1;
+        private final String value2;
+        private final String value3;
+
+        private Entry3(int hash, String value1, String value2, String value3, T dataPoint, Entry<T> next) {
+            super(hash, dataPoint, next);
+            this.value1 = value1;
+            this.value2 = value2;
+            this.value3 = value3;
+        }
+
+        @Override
+        boolean matches(String[] labelValues) {
+            return labelValues.length == 3 && matches(labelValues[0], labelValues[1], labelValues[2]);
+        }
+
+        @Override
+        boolean matches(String labelValue1, String labelValue2, String labelValue3) {
+            return Objects.equals(value1, labelValue1) && Objects.equals(value2, labelValue2) && Objects.equals(value3, labelValue3);
+        }
+
+        @Override
+        String[] labelValues() {
+            return new String[]{value1, value2, value3};
+        }
+
+        @Override
+        Entry<T> withNext(Entry<T> next) {
+            return new Entry3<>(hash, value1, value2, value3, dataPoint, next);
+        }
+    }
+
+    /**
+     * Used for metrics without labels, and for metrics with more than three labels.
+     */
+    private static class EntryN<T> extends Entry<T> {
+
+        private final String[] values;
+
+        private EntryN(int hash, String[] values, T dataPoint, Entry<T> next) {
+            super(hash, dataPoint, next);
+            this.values = values;
+        }
+
+        @Override
+        boolean matches(String[] labelValues) {
+            return Arrays.equals(values, labelValues);
+        }
+
+        @Override
+        String[] labelValues() {
+            return Arrays.copyOf(values, values.length);
+        }
+
+        @Override
+        Entry<T> withNext(Entry<T> next) {
+            return new EntryN<>(hash, values, dataPoint, next);
+        }
+    }
+
+    /**
+     * @param numberOfLabels  number of label names of the metric. Each key in this map has this number of label values.
+     * @param initialCapacity will be rounded up to a power of two.
+     */
+    DataPointMap(int numberOfLabels, int initialCapacity) {
+        this.numberOfLabels = numberOfLabels;
+        this.initialCapacity = tableSizeFor(initialCapacity);
+        this.table = new AtomicReferenceArray<>(this.initialCapacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    T get(String... labelValues) {
+        int hash = hash(labelValues);
+        AtomicReferenceArray<Entry<T>> tab = table;
+        for (Entry<T> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.matches(labelValues)) {
+                return e.dataPoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #get(String...)} for a single label value, but without allocating a varargs array.
+     */
+    T get(String labelValue) {
+        int hash = hash(31 + Objects.hashCode(labelValue));
+        AtomicReferenceArray<Entry<T>> tab = table;
+        for (Entry<T> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.matches(labelValue)) {
+                return e.dataPoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #get(String...)} for two label values, but without allocating a varargs array.
+     */
+    T get(String labelValue1, String labelValue2) {
+        int hash = hash(31 * (31 + Objects.hashCode(labelValue1)) + Objects.hashCode(labelValue2));
+        AtomicReferenceArray<Entry<T>> tab = table;
+        for (Entry<T> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.matches(labelValue1, labelValue2)) {
+                return e.dataPoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #get(String...)} for three label values, but without allocating a varargs array.
+     */
+    T get(String labelValue1, String labelValue2, String labelValue3) {
+        int hash = hash(31 * (31 * (31 + Objects.hashCode(labelValue1)) + Objects.hashCode(labelValue2)) + Objects.hashCode(labelValue3));
+        AtomicReferenceArray<Entry<T>> tab = table;
+        for (Entry<T> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.matches(labelValue1, labelValue2, labelValue3)) {
+                return e.dataPoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Slow path if {@link #get(String...)} returned {@code null}.
+     * The {@code labelValues} array is copied, so the caller may re-use it.
+     */
+    T computeIfAbsent(String[] labelValues, Supplier<T> newDataPoint) {
+        return computeIfAbsent(labelValues, newDataPoint, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #computeIfAbsent(String[], Supplier)}, but returns {@code null} instead of adding
+     * a new entry if the map already contains {@code maxSize} entries.
+     */
+    T computeIfAbsent(String[] labelValues, Supplier<T> newDataPoint, int maxSize) {
+        synchronized (lock) {
+            T existing = get(labelValues);
+            if (existing != null) {
+                return existing;
+            }
+            if (size >= maxSize) {
+                return null;
+            }
+            T dataPoint = newDataPoint.get();
+            int hash = hash(labelValues);
+            AtomicReferenceArray<Entry<T>> tab = table;
+            int i = hash & (tab.length() - 1);
+            tab.set(i, newEntry(hash, labelValues, dataPoint, tab.get(i)));
+            size++;
+            if (size > tab.length() - (tab.length() >>> 2) && tab.length() < MAXIMUM_CAPACITY) {
+                resize(tab);
+            }
+            return dataPoint;
+        }
+    }
+
+    /**
+     * Returns the removed data point, or {@code null} if there was no data point for {@code labelValues}.
+     */
+    T remove(String... labelValues) {
+        return remove(labelValues, null);
+    }
+
+    /**
+     * Like {@link #remove(String...)}, but only removes the data point if {@code condition} is {@code true}.
+     * The condition is evaluated while holding the lock. {@code null} means no condition.
+     */
+    T remove(String[] labelValues, Predicate<T> condition) {
+        synchronized (lock) {
+            int hash = hash(labelValues);
+            AtomicReferenceArray<Entry<T>> tab = table;
+            int i = hash & (tab.length() - 1);
+            Entry<T> head = tab.get(i);
+            for (Entry<T> e = head; e != null; e = e.next) {
+                if (e.hash == hash && e.matches(labelValues)) {
+                    if (condition != null && !condition.test(e.dataPoint)) {
+                        return null;
+                    }
+                    // Entries are immutable, so we copy the entries in front of e.
+                    Entry<T> newHead = e.next;
+                    for (Entry<T> p = head; p != e; p = p.next) {
+                        newHead = p.withNext(newHead);
+                    }
+                    tab.set(i, newHead);
+                    size--;
+                    return e.dataPoint;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Remove all entries.
+     * <p>
+     * This replaces the table with an empty table rather than removing entries one by one, so the cost
+     * does not depend on the number of entries. Concurrent {@link #forEach(BiConsumer)} calls keep iterating
+     * over the old table, i.e. they see the state before {@code clear()}.
+     */
+    void clear() {
+        synchronized (lock) {
+            table = new AtomicReferenceArray<>(initialCapacity);
+            size = 0;
+        }
+    }
+
+    /**
+     * Iterate over all entries. This is weakly consistent, i.e. concurrent modifications may or may not be
+     * reflected, but iterating will never fail or yield {@code null}.
+     */
+    void forEach(BiConsumer<String[], T> action) {
+        AtomicReferenceArray<Entry<T>> tab = table;
+        for (int i = 0; i < tab.length(); i++) {
+            for (Entry<T> e = tab.get(i); e != null; e = e.next) {
+                action.accept(e.labelValues(), e.dataPoint);
+            }
+        }
+    }
+
+    private Entry<T> newEntry(int hash, String[] labelValues, T dataPoint, Entry<T> next) {
+        switch (numberOfLabels) {
+            case 1:
+                return new Entry1<>(hash, labelValues[0], dataPoint, next);
+            case 2:
+                return new Entry2<>(hash, labelValues[0], labelValues[1], dataPoint, next);
+            case 3:
+                return new Entry3<>(hash, labelValues[0], labelValues[1], labelValues[2], dataPoint, next);
+            default:
+                return new EntryN<>(hash, Arrays.copyOf(labelValues, labelValues.length), dataPoint, next);
+        }
+    }
+
+    // Called while holding the lock.
+    private void resize(AtomicReferenceArray<Entry<T>> oldTable) {
+        AtomicReferenceArray<Entry<T>> newTable = new AtomicReferenceArray<>(oldTable.length() * 2);
+        int mask = newTable.length() - 1;
+        for (int i = 0; i < oldTable.length(); i++) {
+            for (Entry<T> e = oldTable.get(i); e != null; e = e.next) {
+                int j = e.hash & mask;
+                newTable.set(j, e.withNext(newTable.get(j)));
+            }
+        }
+        table = newTable;
+    }
+
+    private static int hash(String[] labelValues) {
+        // same as Arrays.hashCode(labelValues), which is the same as List.hashCode()
+        int h = 1;
+        for (String labelValue : labelValues) {
+            h = 31 * h + Objects.hashCode(labelValue);
+        }
+        return hash(h);
+    }
+
+    private static int hash(int h) {
+        // spread higher bits to lower bits, like in HashMap
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        if (capacity <= 1) {
+            return 1;
+        }
+        return capacity >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : Integer.highestOneBit(capacity - 1) << 1;
+    }
+}
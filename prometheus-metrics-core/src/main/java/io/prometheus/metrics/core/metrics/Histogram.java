@@ -11,20 +11,23 @@ import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
 import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
 import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.util.Clock;
 import io.prometheus.metrics.core.util.Scheduler;
 
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Histogram metric. Example usage:
@@ -63,6 +66,13 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
     // NATIVE_BOUNDS is used to look up the native bucket index depending on the current schema.
     private static final double[][] NATIVE_BOUNDS;
 
+    // A Recorder merges its local observations into the data point when it has this many pending observations.
+    private static final int RECORDER_BATCH_SIZE = 1024;
+
+    // Bit masks for frexp(), see findBucketIndex().
+    private static final long EXPONENT_BITS = 0x7ff0000000000000L;
+    private static final long HALF_EXPONENT_BITS = Double.doubleToRawLongBits(0.5) & EXPONENT_BITS;
+
     private final boolean exemplarsEnabled;
     private final ExemplarSamplerConfig exemplarSamplerConfig;
 
@@ -70,6 +80,9 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
     // An empty array indicates that this is a native histogram only.
     private final double[] classicUpperBounds;
 
+    // Finds the classic bucket for an observation. null if this is a native histogram only.
+    private final ClassicBucketIndex classicBucketIndex;
+
     // The schema defines the resolution of the native histogram.
     // Schema is Prometheus terminology, in OpenTelemetry it's named "scale".
     // The formula for the bucket boundaries at position "index" is:
@@ -134,6 +147,13 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
                 return null;
             }
         });
+        if (classicUpperBounds.length == 0) {
+            classicBucketIndex = null;
+        } else if (builder.classicBucketIndex != null) {
+            classicBucketIndex = builder.classicBucketIndex.apply(classicUpperBounds);
+        } else {
+            classicBucketIndex = ClassicBucketIndex.binarySearch(classicUpperBounds);
+        }
         double max = getConfigProperty(properties, MetricsProperties::getHistogramNativeMaxZeroThreshold);
         double min = getConfigProperty(properties, MetricsProperties::getHistogramNativeMinZeroThreshold);
         nativeMaxZeroThreshold = max == builder.DEFAULT_NATIVE_MAX_ZERO_THRESHOLD && min > max ? min : max;
@@ -167,19 +187,34 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         return exemplarsEnabled;
     }
 
-    public class DataPoint implements DistributionDataPoint {
+    /**
+     * Create a new {@link Recorder} for the data point with the given label values.
+     * Call without arguments if the histogram doesn't have labels.
+     * <p>
+     * A recorder is not thread-safe. Each thread should use its own recorder,
+     * and call {@link Recorder#close()} when it's done.
+     * <p>
+     * Note that {@link Recorder#observe(double)} does not sample exemplars, even if exemplars are enabled.
+     * Use {@link Recorder#observeWithExemplar(double, Labels)} for observations that should be exemplars.
+     */
+    public Recorder newRecorder(String... labelValues) {
+        return new Recorder(labelValues.clone());
+    }
+
+    public class DataPoint extends IdleTrackingDataPoint implements DistributionDataPoint {
         private final LongAdder[] classicBuckets;
-        private final ConcurrentHashMap<Integer, LongAdder> nativeBucketsForPositiveValues = new ConcurrentHashMap<>();
-        private final ConcurrentHashMap<Integer, LongAdder> nativeBucketsForNegativeValues = new ConcurrentHashMap<>();
+        private final NativeBuckets nativeBucketsForPositiveValues = new NativeBuckets();
+        private final NativeBuckets nativeBucketsForNegativeValues = new NativeBuckets();
         private final LongAdder nativeZeroCount = new LongAdder();
         private final LongAdder count = new LongAdder();
         private final DoubleAdder sum = new DoubleAdder();
         private volatile int nativeSchema = nativeInitialSchema; // integer in [-4, 8] or CLASSIC_HISTOGRAM
         private volatile double nativeZeroThreshold = Histogram.this.nativeMinZeroThreshold;
-        private volatile long createdTimeMillis = System.currentTimeMillis();
+        private volatile long createdTimeMillis = Clock.get().currentTimeMillis();
         private final Buffer buffer = new Buffer();
         private volatile boolean resetDurationExpired = false;
         private final ExemplarSampler exemplarSampler;
+        private final List<RecorderState> recorders = new CopyOnWriteArrayList<>();
 
         private DataPoint() {
             if (exemplarsEnabled) {
@@ -206,6 +241,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             if (!buffer.append(value)) {
                 doObserve(value, false);
             }
+            touch();
             if (isExemplarsEnabled()) {
                 exemplarSampler.observe(value);
             }
@@ -223,19 +259,16 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             if (!buffer.append(value)) {
                 doObserve(value, false);
             }
+            touch();
             if (isExemplarsEnabled()) {
                 exemplarSampler.observeWithExemplar(value, labels);
             }
         }
 
         private void doObserve(double value, boolean fromBuffer) {
-            // classicUpperBounds is an empty array if this is a native histogram only.
-            for (int i = 0; i < classicUpperBounds.length; ++i) {
-                // The last bucket is +Inf, so we always increment.
-                if (value <= classicUpperBounds[i]) {
-                    classicBuckets[i].add(1);
-                    break;
-                }
+            // classicBucketIndex is null if this is a native histogram only.
+            if (classicBucketIndex != null) {
+                classicBuckets[classicBucketIndex.indexOf(value)].add(1);
             }
             boolean nativeBucketCreated = false;
             if (Histogram.this.nativeInitialSchema != CLASSIC_HISTOGRAM) {
@@ -264,14 +297,28 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             return buffer.run(
                     expectedCount -> count.sum() == expectedCount,
                     () -> {
+                        // Pending observations in Recorders must be included in the snapshot.
+                        boolean nativeBucketCreated = false;
+                        for (RecorderState recorder : recorders) {
+                            if (recorder.isAbandoned()) {
+                                // The Recorder was garbage collected without close(). Merge it a last time.
+                                recorders.remove(recorder);
+                            }
+                            if (recorder.merge()) {
+                                nativeBucketCreated = true;
+                            }
+                        }
+                        if (nativeBucketCreated) {
+                            limitNativeBuckets();
+                        }
                         if (classicUpperBounds.length == 0) {
                             // native only
                             return new HistogramSnapshot.HistogramDataPointSnapshot(
                                     nativeSchema,
                                     nativeZeroCount.sum(),
                                     nativeZeroThreshold,
-                                    toBucketList(nativeBucketsForPositiveValues),
-                                    toBucketList(nativeBucketsForNegativeValues),
+                                    nativeBucketsForPositiveValues.toBuckets(),
+                                    nativeBucketsForNegativeValues.toBuckets(),
                                     sum.sum(),
                                     labels,
                                     exemplars,
@@ -291,8 +338,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
                                     nativeSchema,
                                     nativeZeroCount.sum(),
                                     nativeZeroThreshold,
-                                    toBucketList(nativeBucketsForPositiveValues),
-                                    toBucketList(nativeBucketsForNegativeValues),
+                                    nativeBucketsForPositiveValues.toBuckets(),
+                                    nativeBucketsForNegativeValues.toBuckets(),
                                     sum.sum(),
                                     labels,
                                     exemplars,
@@ -303,61 +350,119 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             );
         }
 
-        private boolean addToNativeBucket(double value, ConcurrentHashMap<Integer, LongAdder> buckets) {
-            boolean newBucketCreated = false;
-            int bucketIndex;
+        /**
+         * Merge the pending observations of the recorder, see {@link Recorder#flush()}.
+         */
+        private void flush(RecorderState recorder) {
+            buffer.run(
+                    expectedCount -> count.sum() == expectedCount,
+                    () -> {
+                        if (recorder.merge()) {
+                            limitNativeBuckets();
+                        }
+                        return null;
+                    },
+                    v -> doObserve(v, true)
+            );
+        }
+
+        /**
+         * Add the observations of a data point that was removed, see {@link #addToOverflow(DataPoint, DataPoint)}.
+         */
+        private void add(LocalHistogram observations) {
+            buffer.run(
+                    expectedCount -> count.sum() == expectedCount,
+                    () -> {
+                        if (observations.mergeInto(this)) {
+                            limitNativeBuckets();
+                        }
+                        return null;
+                    },
+                    v -> doObserve(v, true)
+            );
+            touch();
+        }
+
+        // addNativeBuckets is called in the synchronized block while new observations go into the buffer.
+        // The bucket indexes are for the schema the recorder used, they are converted to the current nativeSchema.
+        // Returns true if a new bucket was created.
+        private boolean addNativeBuckets(LocalNativeBuckets local, int schema, double zeroThreshold, NativeBuckets buckets) {
+            boolean bucketCreated = false;
+            for (int bucketIndex = local.lowest; bucketIndex <= local.highest; bucketIndex++) {
+                long n = local.get(bucketIndex);
+                if (n == 0) {
+                    continue;
+                }
+                int index = bucketIndex;
+                if (schema > nativeSchema) {
+                    // Bucket i for schema n is part of bucket ceil(i/2) for schema n-1.
+                    index = -Math.floorDiv(-index, 1 << (schema - nativeSchema));
+                } else if (schema < nativeSchema) {
+                    // The histogram was reset since the recorder's last merge. Use the bucket with the same upper bound.
+                    index = index << (nativeSchema - schema);
+                }
+                if (zeroThreshold != nativeZeroThreshold && nativeBucketIndexToUpperBound(nativeSchema, index) <= nativeZeroThreshold) {
+                    // The zero bucket was widened since the recorder's last merge.
+                    nativeZeroCount.add(n);
+                } else if (buckets.add(index, n)) {
+                    bucketCreated = true;
+                }
+            }
+            return bucketCreated;
+        }
+
+        private boolean addToNativeBucket(double value, NativeBuckets buckets) {
+            return buckets.increment(nativeBucketIndex(value, nativeSchema));
+        }
+
+        private int nativeBucketIndex(double value, int schema) {
             if (Double.isInfinite(value)) {
-                bucketIndex = findBucketIndex(Double.MAX_VALUE) + 1;
+                return findBucketIndex(Double.MAX_VALUE, schema) + 1;
             } else {
-                bucketIndex = findBucketIndex(value);
-            }
-            LongAdder bucketCount = buckets.get(bucketIndex);
-            if (bucketCount == null) {
-                LongAdder newBucketCount = new LongAdder();
-                LongAdder existingBucketCount = buckets.putIfAbsent(bucketIndex, newBucketCount);
-                if (existingBucketCount == null) {
-                    newBucketCreated = true;
-                    bucketCount = newBucketCount;
-                } else {
-                    bucketCount = existingBucketCount;
-                }
+                return findBucketIndex(value, schema);
             }
-            bucketCount.increment();
-            return newBucketCreated;
         }
 
         private int findBucketIndex(double value) {
+            return findBucketIndex(value, nativeSchema);
+        }
+
+        private int findBucketIndex(double value, int schema) {
             // Preconditions:
             // Double.isNan(value) is false;
             // Double.isInfinite(value) is false;
             // value > 0
             // ---
-            // The following is a naive implementation of C's frexp() function.
-            // Performance can be improved by using the internal Bit representation of floating point numbers.
+            // The following is an implementation of C's frexp() function.
             // More info on the Bit representation of floating point numbers:
             // https://stackoverflow.com/questions/8341395/what-is-a-subnormal-floating-point-number
             // Result: value == frac * 2^exp where frac in [0.5, 1).
-            double frac = value;
-            int exp = 0;
-            while (frac < 0.5) {
-                frac *= 2.0;
-                exp--;
-            }
-            while (frac >= 1.0) {
-                frac /= 2.0;
-                exp++;
+            double frac;
+            int exp;
+            if (Math.getExponent(value) >= Double.MIN_EXPONENT) {
+                // Normal number: Keep the mantissa bits and set the exponent bits such that frac is in [0.5, 1).
+                exp = Math.getExponent(value) + 1;
+                frac = Double.longBitsToDouble((Double.doubleToRawLongBits(value) & ~EXPONENT_BITS) | HALF_EXPONENT_BITS);
+            } else {
+                // Subnormal number, this is rare so we don't care about performance.
+                frac = value;
+                exp = 0;
+                while (frac < 0.5) {
+                    frac *= 2.0;
+                    exp--;
+                }
             }
             // end of frexp()
 
-            if (nativeSchema >= 1) {
-                return findIndex(NATIVE_BOUNDS[nativeSchema - 1], frac) + (exp - 1) * NATIVE_BOUNDS[nativeSchema - 1].length;
+            if (schema >= 1) {
+                return findIndex(NATIVE_BOUNDS[schema - 1], frac) + (exp - 1) * NATIVE_BOUNDS[schema - 1].length;
             } else {
                 int bucketIndex = exp;
                 if (frac == 0.5) {
                     bucketIndex--;
                 }
-                int offset = (1 << -nativeSchema) - 1;
-                bucketIndex = (bucketIndex + offset) >> -nativeSchema;
+                int offset = (1 << -schema) - 1;
+                bucketIndex = (bucketIndex + offset) >> -schema;
                 return bucketIndex;
             }
         }
@@ -429,24 +534,36 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
                         // Now we are in the synchronized block while new observations go into the buffer.
                         // Check again if we need to limit the bucket size, because another thread might
                         // have limited it in the meantime.
-                        int nBuckets = nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
-                        if (nBuckets <= nativeMaxBuckets || nativeSchema == -4) {
-                            return null;
-                        }
-                        if (maybeReset()) {
+                        if (limitNativeBuckets()) {
                             wasReset.set(true);
-                            return null;
-                        }
-                        if (maybeWidenZeroBucket()) {
-                            return null;
                         }
-                        doubleBucketWidth();
                         return null;
                     },
                     v -> doObserve(v, true)
             );
         }
 
+        // limitNativeBuckets is called in the synchronized block while new observations go into the buffer.
+        // Returns true if the histogram was reset.
+        private boolean limitNativeBuckets() {
+            int nBuckets = nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
+            if (nativeMaxBuckets == 0 || nBuckets <= nativeMaxBuckets || nativeSchema == -4) {
+                return false;
+            }
+            if (maybeReset()) {
+                return true;
+            }
+            // A single observation creates at most one bucket, so one step is enough in that case.
+            // A batch merged from a Recorder may create many buckets, so we repeat until we are below the limit.
+            while (nBuckets > nativeMaxBuckets && nativeSchema > -4) {
+                if (!maybeWidenZeroBucket()) {
+                    doubleBucketWidth();
+                }
+                nBuckets = nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
+            }
+            return false;
+        }
+
         // maybeReset is called in the synchronized block while new observations go into the buffer.
         private boolean maybeReset() {
             if (!resetDurationExpired) {
@@ -464,7 +581,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             }
             nativeZeroThreshold = nativeMinZeroThreshold;
             nativeSchema = Histogram.this.nativeInitialSchema;
-            createdTimeMillis = System.currentTimeMillis();
+            createdTimeMillis = Clock.get().currentTimeMillis();
             if (exemplarSampler != null) {
                 exemplarSampler.reset();
             }
@@ -477,8 +594,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             if (nativeZeroThreshold >= nativeMaxZeroThreshold) {
                 return false;
             }
-            int smallestIndex = findSmallestIndex(nativeBucketsForPositiveValues);
-            int smallestNegativeIndex = findSmallestIndex(nativeBucketsForNegativeValues);
+            int smallestIndex = nativeBucketsForPositiveValues.smallestIndex();
+            int smallestNegativeIndex = nativeBucketsForNegativeValues.smallestIndex();
             if (smallestNegativeIndex < smallestIndex) {
                 smallestIndex = smallestNegativeIndex;
             }
@@ -495,11 +612,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             return true;
         }
 
-        private void mergeWithZeroBucket(int index, Map<Integer, LongAdder> buckets) {
-            LongAdder count = buckets.remove(index);
-            if (count != null) {
-                nativeZeroCount.add(count.sum());
-            }
+        private void mergeWithZeroBucket(int index, NativeBuckets buckets) {
+            nativeZeroCount.add(buckets.remove(index));
         }
 
         private double nativeBucketIndexToUpperBound(int schema, int index) {
@@ -538,61 +652,368 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             return factor * Math.pow(2, index * Math.pow(2, -schema));
         }
 
-        private int findSmallestIndex(Map<Integer, LongAdder> nativeBuckets) {
-            int result = Integer.MAX_VALUE;
-            for (int key : nativeBuckets.keySet()) {
-                if (key < result) {
-                    result = key;
+        // doubleBucketWidth is called in the synchronized block while new observations go into the buffer.
+        private void doubleBucketWidth() {
+            nativeBucketsForPositiveValues.doubleBucketWidth();
+            nativeBucketsForNegativeValues.doubleBucketWidth();
+            nativeSchema--;
+        }
+
+        private void maybeScheduleNextReset() {
+            if (nativeResetDurationSeconds > 0) {
+                Scheduler.schedule(() -> resetDurationExpired = true, nativeResetDurationSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Records observations for a single thread and merges them into the histogram in batches.
+     * Example usage:
+     * <pre>{@code
+     * Histogram.Recorder recorder = histogram.newRecorder("GET", "/");
+     * try {
+     *     while (running) {
+     *         // ...
+     *         recorder.observe(latencySeconds);
+     *     }
+     * } finally {
+     *     recorder.close();
+     * }
+     * }</pre>
+     * An observation updates plain fields in a local histogram, which is much cheaper than updating the shared
+     * {@link java.util.concurrent.atomic.LongAdder}s of the data point. The local histogram is merged into the
+     * data point when {@value #RECORDER_BATCH_SIZE} observations are pending, when {@link #flush()} or
+     * {@link #close()} is called, and when the histogram is collected. So a scrape always includes all observations,
+     * regardless of when the recorder merged for the last time.
+     * <p>
+     * A recorder must not be used by more than one thread at a time. Observing takes no lock and does not allocate.
+     * A scrape swaps the local histogram for a second one, so it only waits if an observation is in progress.
+     * <p>
+     * If the data point is removed, either with {@link #remove(String...)}, {@link #clear()}, or by idle expiry,
+     * the recorder continues with a new data point for the same label values, just like calling
+     * {@link #labelValues(String...)} again. Pending observations made before the removal are removed as well.
+     * <p>
+     * A recorder that is not closed stays registered with the data point until it is garbage collected.
+     * Observations made before that are not lost, they are merged with the next scrape.
+     * <p>
+     * Observations recorded with {@link #observe(double)} are not considered for exemplars.
+     * {@link #observeWithExemplar(double, Labels)} is passed on to the data point directly.
+     */
+    public class Recorder implements DistributionDataPoint {
+
+        private final String[] labelValues;
+        // The fields below are only accessed by the recorder's thread.
+        private DataPoint dataPoint;
+        private RecorderState state;
+        private long removalCount; // see StatefulMetric.getRemovalCount()
+        private boolean closed = false;
+
+        private Recorder(String[] labelValues) {
+            this.labelValues = labelValues;
+            this.removalCount = getRemovalCount();
+            this.dataPoint = (DataPoint) labelValues(labelValues);
+            this.state = new RecorderState(this, dataPoint);
+            dataPoint.recorders.add(state);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void observe(double value) {
+            if (Double.isNaN(value)) {
+                // See https://github.com/prometheus/client_golang/issues/1275 on ignoring NaN observations.
+                return;
+            }
+            if (removalCount != getRemovalCount()) {
+                reattach();
+            }
+            if (closed) {
+                dataPoint.observe(value);
+                return;
+            }
+            long pending = state.record(value);
+            dataPoint.touch();
+            if (pending >= RECORDER_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void observeWithExemplar(double value, Labels labels) {
+            if (removalCount != getRemovalCount()) {
+                reattach();
+            }
+            dataPoint.observeWithExemplar(value, labels);
+        }
+
+        /**
+         * Merge all pending observations into the histogram.
+         */
+        public void flush() {
+            if (!closed) {
+                dataPoint.flush(state);
+            }
+        }
+
+        /**
+         * Merge all pending observations into the histogram and stop tracking this recorder.
+         * Observations after {@code close()} go directly to the data point.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dataPoint.recorders.remove(state);
+            dataPoint.flush(state);
+        }
+
+        // Some data points were removed. If it was ours, continue with the current data point for our label values.
+        private void reattach() {
+            removalCount = getRemovalCount();
+            DataPoint current = (DataPoint) labelValues(labelValues);
+            if (current == dataPoint) {
+                return;
+            }
+            dataPoint.recorders.remove(state);
+            dataPoint = current;
+            if (!closed) {
+                // A new state, because a scrape of the removed data point may still be merging the old one.
+                state = new RecorderState(this, current);
+                current.recorders.add(state);
+            }
+        }
+    }
+
+    /**
+     * The pending observations of a {@link Recorder}. This is what the data point keeps in its list of recorders.
+     * <p>
+     * There are two local histograms. The recorder's thread writes to the active one with plain writes,
+     * and {@link #merge()} swaps them so that it can merge the inactive one without a lock.
+     * The recorder's thread makes {@code sequence} odd before it reads {@code active}, and even again when it is
+     * done. {@link #merge()} writes {@code active} before it reads {@code sequence}. As all of these are volatile,
+     * either the recorder's thread sees the new active histogram, or {@link #merge()} sees the odd sequence
+     * number and waits for this one observation to complete.
+     * <p>
+     * The {@link Recorder} is referenced weakly, so that a recorder which is never closed does not stay in the
+     * data point's list forever. Once it is garbage collected, the data point merges its state a last time
+     * and forgets it.
+     */
+    private class RecorderState {
+
+        private final WeakReference<Recorder> recorder;
+        private final DataPoint dataPoint;
+        private volatile LocalHistogram active;
+        private volatile long sequence; // odd while the recorder's thread is writing
+        private LocalHistogram inactive; // only accessed in merge()
+
+        private RecorderState(Recorder recorder, DataPoint dataPoint) {
+            this.recorder = new WeakReference<>(recorder);
+            this.dataPoint = dataPoint;
+            this.active = new LocalHistogram(dataPoint);
+            this.inactive = new LocalHistogram(dataPoint);
+        }
+
+        // Called by the recorder's thread only. Returns the number of pending observations.
+        private long record(double value) {
+            long seq = sequence;
+            sequence = seq + 1;
+            long pending = active.record(value, dataPoint);
+            sequence = seq + 2;
+            return pending;
+        }
+
+        private boolean isAbandoned() {
+            return recorder.get() == null;
+        }
+
+        // merge is called in the data point's synchronized block while new observations go into the buffer,
+        // so it never runs concurrently with itself.
+        // Returns true if a new native bucket was created.
+        private boolean merge() {
+            LocalHistogram previous = active;
+            active = inactive;
+            long seq = sequence;
+            if ((seq & 1) != 0) {
+                while (sequence == seq) {
+                    Thread.yield();
                 }
             }
-            return result;
+            inactive = previous;
+            return previous.mergeInto(dataPoint);
         }
+    }
 
-        // doubleBucketWidth is called in the synchronized block while new observations go into the buffer.
-        private void doubleBucketWidth() {
-            doubleBucketWidth(nativeBucketsForPositiveValues);
-            doubleBucketWidth(nativeBucketsForNegativeValues);
-            nativeSchema--;
+    /**
+     * Observations of a {@link Recorder} that are not merged into the data point yet. Not thread-safe.
+     */
+    private class LocalHistogram {
+
+        private final long[] classicCounts = new long[classicUpperBounds.length];
+        private final LocalNativeBuckets nativeBucketsForPositiveValues = new LocalNativeBuckets();
+        private final LocalNativeBuckets nativeBucketsForNegativeValues = new LocalNativeBuckets();
+        private long nativeZeroCount;
+        private long count;
+        private double sum;
+        // Schema and zero threshold of the data point at the time of the last merge.
+        private int nativeSchema;
+        private double nativeZeroThreshold;
+
+        private LocalHistogram(DataPoint dataPoint) {
+            this.nativeSchema = dataPoint.nativeSchema;
+            this.nativeZeroThreshold = dataPoint.nativeZeroThreshold;
         }
 
-        private void doubleBucketWidth(Map<Integer, LongAdder> buckets) {
-            int[] keys = new int[buckets.size()];
-            long[] values = new long[keys.length];
-            int i = 0;
-            for (Map.Entry<Integer, LongAdder> entry : buckets.entrySet()) {
-                keys[i] = entry.getKey();
-                values[i] = entry.getValue().sum();
-                i++;
-            }
-            buckets.clear();
-            for (i = 0; i < keys.length; i++) {
-                int index = (keys[i] + 1) / 2;
-                LongAdder count = buckets.get(index);
-                if (count == null) {
-                    count = new LongAdder();
-                    buckets.put(index, count);
+        // Observations of a data point that was removed, see addToOverflow().
+        private LocalHistogram(HistogramSnapshot.HistogramDataPointSnapshot snapshot) {
+            if (snapshot.hasClassicHistogramData()) {
+                for (int i = 0; i < classicCounts.length; i++) {
+                    classicCounts[i] = snapshot.getClassicBuckets().getCount(i);
                 }
-                count.add(values[i]);
             }
+            if (snapshot.hasNativeHistogramData()) {
+                this.nativeSchema = snapshot.getNativeSchema();
+                this.nativeZeroThreshold = snapshot.getNativeZeroThreshold();
+                this.nativeZeroCount = snapshot.getNativeZeroCount();
+                add(snapshot.getNativeBucketsForPositiveValues(), nativeBucketsForPositiveValues);
+                add(snapshot.getNativeBucketsForNegativeValues(), nativeBucketsForNegativeValues);
+            }
+            this.count = snapshot.getCount();
+            this.sum = snapshot.getSum();
         }
 
-        private NativeHistogramBuckets toBucketList(ConcurrentHashMap<Integer, LongAdder> map) {
-            int[] bucketIndexes = new int[map.size()];
-            long[] counts = new long[map.size()];
-            int i = 0;
-            for (Map.Entry<Integer, LongAdder> entry : map.entrySet()) {
-                bucketIndexes[i] = entry.getKey();
-                counts[i] = entry.getValue().sum();
-                i++;
+        private void add(NativeHistogramBuckets snapshot, LocalNativeBuckets buckets) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                buckets.add(snapshot.getBucketIndex(i), snapshot.getCount(i));
             }
-            return NativeHistogramBuckets.of(bucketIndexes, counts);
         }
 
-        private void maybeScheduleNextReset() {
-            if (nativeResetDurationSeconds > 0) {
-                Scheduler.schedule(() -> resetDurationExpired = true, nativeResetDurationSeconds, TimeUnit.SECONDS);
+        // Returns the number of pending observations.
+        private long record(double value, DataPoint dataPoint) {
+            // classicBucketIndex is null if this is a native histogram only.
+            if (classicBucketIndex != null) {
+                classicCounts[classicBucketIndex.indexOf(value)]++;
+            }
+            if (nativeInitialSchema != CLASSIC_HISTOGRAM) {
+                if (value > nativeZeroThreshold) {
+                    nativeBucketsForPositiveValues.increment(dataPoint.nativeBucketIndex(value, nativeSchema));
+                } else if (value < -nativeZeroThreshold) {
+                    nativeBucketsForNegativeValues.increment(dataPoint.nativeBucketIndex(-value, nativeSchema));
+                } else {
+                    nativeZeroCount++;
+                }
+            }
+            sum += value;
+            return ++count;
+        }
+
+        // Adds the observations to the data point and resets this local histogram.
+        // Returns true if a new native bucket was created.
+        private boolean mergeInto(DataPoint dp) {
+            if (count == 0) {
+                return false;
+            }
+            for (int i = 0; i < classicCounts.length; i++) {
+                if (classicCounts[i] != 0) {
+                    dp.classicBuckets[i].add(classicCounts[i]);
+                    classicCounts[i] = 0;
+                }
+            }
+            boolean nativeBucketCreated = false;
+            if (nativeInitialSchema != CLASSIC_HISTOGRAM) {
+                if (dp.addNativeBuckets(nativeBucketsForPositiveValues, nativeSchema, nativeZeroThreshold, dp.nativeBucketsForPositiveValues)) {
+                    nativeBucketCreated = true;
+                }
+                if (dp.addNativeBuckets(nativeBucketsForNegativeValues, nativeSchema, nativeZeroThreshold, dp.nativeBucketsForNegativeValues)) {
+                    nativeBucketCreated = true;
+                }
+                dp.nativeZeroCount.add(nativeZeroCount);
+                nativeBucketsForPositiveValues.clear();
+                nativeBucketsForNegativeValues.clear();
+                nativeZeroCount = 0;
+                nativeSchema = dp.nativeSchema;
+                nativeZeroThreshold = dp.nativeZeroThreshold;
+            }
+            dp.sum.add(sum);
+            dp.count.add(count);
+            dp.buffer.addObservations(count);
+            sum = 0;
+            count = 0;
+            return nativeBucketCreated;
+        }
+    }
+
+    /**
+     * Native histogram bucket counts of a {@link Recorder}. Not thread-safe.
+     * <p>
+     * Like {@link NativeBuckets} the counts are stored in an array covering the window of bucket indexes.
+     * The array is kept when the buckets are cleared, and the window is moved to the next observed bucket index,
+     * so in steady state this does not allocate.
+     */
+    private static class LocalNativeBuckets {
+
+        private static final int MIN_CAPACITY = 8;
+
+        private long[] counts = new long[0];
+        private int offset; // bucket index of counts[0]
+        // Range of bucket indexes with non-zero counts. lowest > highest if there are no counts.
+        private int lowest = Integer.MAX_VALUE;
+        private int highest = Integer.MIN_VALUE;
+
+        private long get(int bucketIndex) {
+            return counts[bucketIndex - offset];
+        }
+
+        private void increment(int bucketIndex) {
+            add(bucketIndex, 1);
+        }
+
+        private void add(int bucketIndex, long n) {
+            int i = bucketIndex - offset;
+            if (i < 0 || i >= counts.length) {
+                grow(bucketIndex);
+                i = bucketIndex - offset;
+            }
+            counts[i] += n;
+            if (bucketIndex < lowest) {
+                lowest = bucketIndex;
+            }
+            if (bucketIndex > highest) {
+                highest = bucketIndex;
             }
         }
+
+        private void grow(int bucketIndex) {
+            if (lowest > highest) {
+                // empty
+                if (counts.length == 0) {
+                    counts = new long[MIN_CAPACITY];
+                }
+                offset = bucketIndex - counts.length / 2;
+                return;
+            }
+            int low = Math.min(lowest, bucketIndex);
+            int high = Math.max(highest, bucketIndex);
+            int capacity = Math.max(high - low + 1, 2 * counts.length);
+            // Leave the free space on the side where the window grows.
+            int newOffset = bucketIndex < lowest ? high - capacity + 1 : low;
+            long[] newCounts = new long[capacity];
+            System.arraycopy(counts, lowest - offset, newCounts, lowest - newOffset, highest - lowest + 1);
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+        private void clear() {
+            if (lowest <= highest) {
+                Arrays.fill(counts, lowest - offset, highest - offset + 1, 0);
+            }
+            lowest = Integer.MAX_VALUE;
+            highest = Integer.MIN_VALUE;
+        }
     }
 
     /**
@@ -617,6 +1038,12 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         return new DataPoint();
     }
 
+    @Override
+    protected void addToOverflow(DataPoint dataPoint, DataPoint overflow) {
+        // The snapshot includes the data point's pending Recorder observations.
+        overflow.add(new LocalHistogram(dataPoint.collect(Labels.EMPTY)));
+    }
+
     static {
         // See bounds in client_golang's histogram implementation.
         NATIVE_BOUNDS = new double[8][];
@@ -656,6 +1083,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         private Boolean nativeOnly;
         private Boolean classicOnly;
         private double[] classicUpperBounds;
+        // null means binary search, see ClassicBucketIndex
+        private Function<double[], ClassicBucketIndex> classicBucketIndex;
         private Integer nativeInitialSchema;
         private Double nativeMaxZeroThreshold;
         private Double nativeMinZeroThreshold;
@@ -671,6 +1100,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         protected MetricsProperties toProperties() {
             return MetricsProperties.builder()
                     .exemplarsEnabled(exemplarsEnabled)
+                    .cardinalityLimit(cardinalityLimit)
+                    .idleExpirySeconds(idleExpirySeconds)
                     .histogramNativeOnly(nativeOnly)
                     .histogramClassicOnly(classicOnly)
                     .histogramClassicUpperBounds(classicUpperBounds)
@@ -689,6 +1120,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         public MetricsProperties getDefaultProperties() {
             return MetricsProperties.builder()
                     .exemplarsEnabled(true)
+                    .cardinalityLimit(0)
+                    .idleExpirySeconds(0L)
                     .histogramNativeOnly(false)
                     .histogramClassicOnly(false)
                     .histogramClassicUpperBounds(DEFAULT_CLASSIC_UPPER_BOUNDS)
@@ -737,6 +1170,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
          */
         public Builder classicUpperBounds(double... upperBounds) {
             this.classicUpperBounds = upperBounds;
+            this.classicBucketIndex = null;
             for (double bound : upperBounds) {
                 if (Double.isNaN(bound)) {
                     throw new IllegalArgumentException("Cannot use NaN as upper bound for a histogram");
@@ -763,6 +1197,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             for (int i = 0; i < count; i++) {
                 classicUpperBounds[i] = s.add(w.multiply(new BigDecimal(i))).doubleValue();
             }
+            classicBucketIndex = upperBounds -> ClassicBucketIndex.linear(upperBounds, start, width);
             return this;
         }
 
@@ -781,6 +1216,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
             for (int i = 0; i < count; i++) {
                 classicUpperBounds[i] = start * Math.pow(factor, i);
             }
+            classicBucketIndex = upperBounds -> ClassicBucketIndex.exponential(upperBounds, start, factor);
             return this;
         }
 
@@ -0,0 +1,57 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.core.util.Clock;
+
+/**
+ * Base class for the data points of {@link StatefulMetric}s. Keeps track of whether the data point was updated,
+ * so that idle data points can be removed, see {@link StatefulMetric.Builder#idleExpiry(long, java.util.concurrent.TimeUnit)}.
+ * <p>
+ * Data points call {@link #touch()} on each update. The state is only written if the data point wasn't touched
+ * since the last {@link StatefulMetric#collect()}, so in almost all cases this is a read of a field in an object
+ * that is already in the cache. New data points start as touched, and if idle expiry is disabled
+ * {@link StatefulMetric#collect()} never resets them, so there are no writes and no clock reads at all.
+ */
+abstract class IdleTrackingDataPoint {
+
+    private static final long TOUCHED = Long.MIN_VALUE;
+
+    // TOUCHED if the data point was updated since the last collect(), otherwise the last time collect()
+    // found it updated. Volatile so that the scheduler thread removing idle data points sees concurrent updates.
+    private volatile long lastUpdateMillis = TOUCHED;
+
+    final void touch() {
+        if (lastUpdateMillis != TOUCHED) {
+            lastUpdateMillis = TOUCHED;
+        }
+    }
+
+    /**
+     * Returns {@code true} if this data point has not been updated for {@code expiryMillis}.
+     * As a side effect this resets the touched state, so this should only be called once per collect().
+     */
+    final boolean isIdle(long nowMillis, long expiryMillis) {
+        long lastUpdate = lastUpdateMillis;
+        if (lastUpdate == TOUCHED) {
+            lastUpdateMillis = nowMillis;
+            return false;
+        }
+        return nowMillis - lastUpdate >= expiryMillis;
+    }
+
+    /**
+     * Like {@link #isIdle(long, long)} but without side effects.
+     * Used to double-check before an idle data point is removed.
+     */
+    final boolean isStillIdle(long nowMillis, long expiryMillis) {
+        long lastUpdate = lastUpdateMillis;
+        return lastUpdate != TOUCHED && nowMillis - lastUpdate >= expiryMillis;
+    }
+
+    /**
+     * Returns {@code true} if the data point was updated since the last collect().
+     * Used to detect updates that raced with the removal of an idle data point.
+     */
+    final boolean isTouched() {
+        return lastUpdateMillis == TOUCHED;
+    }
+}
@@ -0,0 +1,366 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Native histogram bucket counts, either for positive or for negative observations.
+ * <p>
+ * This is used by {@link Histogram} instead of a {@code ConcurrentHashMap<Integer, LongAdder>}.
+ * The counts are stored in an array indexed by {@code bucketIndex - offset}, where the array covers the
+ * window of bucket indexes observed so far. Incrementing an existing bucket is an array access and a
+ * {@link LongAdder#increment()}, i.e. there is no hashing and no boxing.
+ * <p>
+ * The window is at most a few times larger than the number of buckets. Buckets far away from the others,
+ * like the bucket for {@code +Inf} or for a tiny value like {@code 2^-128}, would need a window with tens of
+ * thousands of entries. They are stored in a map instead, which is slower but uses memory proportional
+ * to the number of buckets. The number of buckets is bounded by {@code nativeMaxNumberOfBuckets}.
+ * <p>
+ * Creating a new bucket and growing the window is synchronized. This happens rarely, because the number of
+ * buckets is bounded. Growing the window copies the references to the {@link LongAdder}s, so concurrent
+ * increments on the old window are not lost.
+ * <p>
+ * Methods other than {@link #increment(int)}, {@link #add(int, long)}, and {@link #size()} modify the structure. The {@link Histogram}
+ * calls them only while observations are redirected to the {@link Buffer} and all pending observations are done,
+ * so they never run concurrently with {@link #increment(int)} or {@link #add(int, long)}.
+ */
+class NativeBuckets {
+
+    private static final int MIN_CAPACITY = 8;
+    // Windows up to this size are always fine, even if they are sparse.
+    private static final int MAX_SPARSE_CAPACITY = 64;
+    private static final Window EMPTY = new Window(0, 0);
+
+    private volatile Window window = EMPTY;
+    // Buckets outside the window, null if there are none.
+    private volatile Map<Integer, LongAdder> outliers;
+    private volatile int size = 0;
+
+    private static class Window {
+
+        final int offset; // bucket index of counts[0]
+        final AtomicReferenceArray<LongAdder> counts; // null means the bucket does not exist
+
+        private Window(int offset, int capacity) {
+            this.offset = offset;
+            this.counts = new AtomicReferenceArray<>(capacity);
+        }
+
+        LongAdder get(int bucketIndex) {
+            int i = bucketIndex - offset;
+            return i >= 0 && i < counts.length() ? counts.get(i) : null;
+        }
+
+        boolean contains(int bucketIndex) {
+            return bucketIndex >= offset && bucketIndex < offset + counts.length();
+        }
+    }
+
+    /**
+     * Number of buckets.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if this created a new bucket.
+     */
+    boolean increment(int bucketIndex) {
+        return add(bucketIndex, 1);
+    }
+
+    /**
+     * Like {@link #increment(int)}, but adds {@code n} to the bucket.
+     */
+    boolean add(int bucketIndex, long n) {
+        LongAdder count = window.get(bucketIndex);
+        if (count == null) {
+            Map<Integer, LongAdder> o = outliers;
+            if (o != null) {
+                count = o.get(bucketIndex);
+            }
+        }
+        if (count != null) {
+            count.add(n);
+            return false;
+        }
+        return createAndAdd(bucketIndex, n);
+    }
+
+    private synchronized boolean createAndAdd(int bucketIndex, long n) {
+        LongAdder count = get(bucketIndex);
+        boolean created = false;
+        if (count == null) {
+            count = new LongAdder();
+            size++;
+            put(bucketIndex, count);
+            created = true;
+        }
+        count.add(n);
+        return created;
+    }
+
+    // Must be called while holding the lock.
+    private LongAdder get(int bucketIndex) {
+        LongAdder result = window.get(bucketIndex);
+        if (result == null && outliers != null) {
+            result = outliers.get(bucketIndex);
+        }
+        return result;
+    }
+
+    // Must be called while holding the lock, and there must not be a bucket for bucketIndex yet.
+    private void put(int bucketIndex, LongAdder count) {
+        Window w = window;
+        if (!w.contains(bucketIndex)) {
+            w = grow(w, bucketIndex);
+        }
+        if (w != null) {
+            w.counts.set(bucketIndex - w.offset, count);
+            return;
+        }
+        if (outliers == null) {
+            outliers = new ConcurrentHashMap<>();
+        }
+        outliers.put(bucketIndex, count);
+        if (2 * outliers.size() > size) {
+            // Most buckets are outside the window, for example because the first observation was +Inf.
+            relocate();
+        }
+    }
+
+    private static int maxCapacity(int numberOfBuckets) {
+        return Math.max(MAX_SPARSE_CAPACITY, 4 * (numberOfBuckets + 1));
+    }
+
+    /**
+     * Returns the new window, or {@code null} if the window would become too large for the number of buckets.
+     */
+    private Window grow(Window w, int bucketIndex) {
+        Window result;
+        if (w.counts.length() == 0) {
+            result = new Window(bucketIndex - MIN_CAPACITY / 2, MIN_CAPACITY);
+        } else {
+            int lowest = Math.min(w.offset, bucketIndex);
+            int highest = Math.max(w.offset + w.counts.length() - 1, bucketIndex);
+            int maxCapacity = maxCapacity(size);
+            if ((long) highest - lowest + 1 > maxCapacity) {
+                return null;
+            }
+            int capacity = Math.min(Math.max(highest - lowest + 1, 2 * w.counts.length()), maxCapacity);
+            // Leave the free space on the side where the window grows.
+            int offset = bucketIndex < w.offset ? highest - capacity + 1 : lowest;
+            result = new Window(offset, capacity);
+            for (int i = 0; i < w.counts.length(); i++) {
+                result.counts.set(w.offset + i - offset, w.counts.get(i));
+            }
+        }
+        window = result;
+        Map<Integer, LongAdder> o = outliers;
+        if (o != null) {
+            // Outliers that are covered by the new window.
+            o.entrySet().removeIf(entry -> {
+                if (result.contains(entry.getKey())) {
+                    result.counts.set(entry.getKey() - result.offset, entry.getValue());
+                    return true;
+                }
+                return false;
+            });
+            if (o.isEmpty()) {
+                outliers = null;
+            }
+        }
+        return result;
+    }
+
+    // Move the window to where most of the buckets are.
+    private void relocate() {
+        int[] bucketIndexes = new int[size];
+        LongAdder[] counts = new LongAdder[size];
+        int n = collect(bucketIndexes, counts);
+        build(bucketIndexes, counts, n);
+    }
+
+    /**
+     * Replace the window and the outliers with the given buckets, which are sorted by bucket index.
+     * The window covers the range with the most buckets.
+     * <p>
+     * This may run concurrently with {@link #add(int, long)}: Each bucket is always found either in the window
+     * or in the outliers, because buckets leaving the window are added to the outliers before the new window is
+     * published, and buckets entering the window are removed from the outliers after it is published.
+     */
+    private void build(int[] bucketIndexes, LongAdder[] counts, int n) {
+        int maxCapacity = maxCapacity(n);
+        int bestFirst = 0, bestLast = 0;
+        for (int first = 0, last = 0; last < n; last++) {
+            while ((long) bucketIndexes[last] - bucketIndexes[first] + 1 > maxCapacity) {
+                first++;
+            }
+            if (last - first > bestLast - bestFirst) {
+                bestFirst = first;
+                bestLast = last;
+            }
+        }
+        int span = bucketIndexes[bestLast] - bucketIndexes[bestFirst] + 1;
+        int capacity = Math.min(maxCapacity, Math.max(MIN_CAPACITY, 2 * span));
+        Window result = new Window(bucketIndexes[bestFirst] - (capacity - span) / 2, capacity);
+        Map<Integer, LongAdder> o = outliers;
+        for (int i = 0; i < n; i++) {
+            if (result.contains(bucketIndexes[i])) {
+                result.counts.set(bucketIndexes[i] - result.offset, counts[i]);
+            } else {
+                if (o == null) {
+                    o = new ConcurrentHashMap<>();
+                }
+                o.put(bucketIndexes[i], counts[i]);
+            }
+        }
+        outliers = o;
+        window = result;
+        if (o != null) {
+            o.keySet().removeIf(result::contains);
+            if (o.isEmpty()) {
+                outliers = null;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        window = EMPTY;
+        outliers = null;
+        size = 0;
+    }
+
+    /**
+     * Returns {@link Integer#MAX_VALUE} if there are no buckets.
+     */
+    synchronized int smallestIndex() {
+        int result = Integer.MAX_VALUE;
+        Window w = window;
+        for (int i = 0; i < w.counts.length(); i++) {
+            if (w.counts.get(i) != null) {
+                result = w.offset + i;
+                break;
+            }
+        }
+        if (outliers != null) {
+            for (int bucketIndex : outliers.keySet()) {
+                result = Math.min(result, bucketIndex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the bucket and return its count. Returns 0 if the bucket does not exist.
+     */
+    synchronized long remove(int bucketIndex) {
+        Window w = window;
+        LongAdder count = w.get(bucketIndex);
+        if (count != null) {
+            w.counts.set(bucketIndex - w.offset, null);
+        } else if (outliers != null) {
+            count = outliers.remove(bucketIndex);
+            if (outliers.isEmpty()) {
+                outliers = null;
+            }
+        }
+        if (count == null) {
+            return 0;
+        }
+        size--;
+        return count.sum();
+    }
+
+    /**
+     * Merge pairs of neighboring buckets, i.e. the buckets for schema {@code n - 1} from the buckets for schema {@code n}.
+     */
+    synchronized void doubleBucketWidth() {
+        if (size == 0) {
+            return;
+        }
+        int[] bucketIndexes = new int[size];
+        LongAdder[] counts = new LongAdder[size];
+        int n = collect(bucketIndexes, counts);
+        int newSize = 0;
+        for (int i = 0; i < n; i++) {
+            // Bucket (index-1, index] for schema n is part of bucket ceil(index/2) for schema n-1.
+            int bucketIndex = Math.floorDiv(bucketIndexes[i] + 1, 2);
+            if (newSize > 0 && bucketIndexes[newSize - 1] == bucketIndex) {
+                counts[newSize - 1].add(counts[i].sum());
+            } else {
+                LongAdder merged = new LongAdder();
+                merged.add(counts[i].sum());
+                bucketIndexes[newSize] = bucketIndex;
+                counts[newSize] = merged;
+                newSize++;
+            }
+        }
+        window = EMPTY;
+        outliers = null;
+        size = newSize;
+        build(bucketIndexes, counts, newSize);
+    }
+
+    synchronized NativeHistogramBuckets toBuckets() {
+        int[] bucketIndexes = new int[size];
+        LongAdder[] counts = new LongAdder[size];
+        int n = collect(bucketIndexes, counts);
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = counts[i].sum();
+        }
+        return NativeHistogramBuckets.of(n < bucketIndexes.length ? Arrays.copyOf(bucketIndexes, n) : bucketIndexes, values);
+    }
+
+    /**
+     * Copy the buckets sorted by bucket index, and return the number of buckets copied.
+     */
+    private int collect(int[] bucketIndexes, LongAdder[] counts) {
+        Window w = window;
+        int n = 0;
+        for (int i = 0; i < w.counts.length() && n < bucketIndexes.length; i++) {
+            LongAdder count = w.counts.get(i);
+            if (count != null) {
+                bucketIndexes[n] = w.offset + i;
+                counts[n] = count;
+                n++;
+            }
+        }
+        Map<Integer, LongAdder> o = outliers;
+        if (o != null) {
+            for (Map.Entry<Integer, LongAdder> entry : o.entrySet()) {
+                if (n == bucketIndexes.length) {
+                    break;
+                }
+                bucketIndexes[n] = entry.getKey();
+                counts[n] = entry.getValue();
+                n++;
+            }
+            sort(bucketIndexes, counts, n);
+        }
+        return n;
+    }
+
+    // Insertion sort, there are only a few outliers and the window part is already sorted.
+    private static void sort(int[] bucketIndexes, LongAdder[] counts, int n) {
+        for (int i = 1; i < n; i++) {
+            int bucketIndex = bucketIndexes[i];
+            LongAdder count = counts[i];
+            int j = i - 1;
+            while (j >= 0 && bucketIndexes[j] > bucketIndex) {
+                bucketIndexes[j + 1] = bucketIndexes[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            bucketIndexes[j + 1] = bucketIndex;
+            counts[j + 1] = count;
+        }
+    }
+}
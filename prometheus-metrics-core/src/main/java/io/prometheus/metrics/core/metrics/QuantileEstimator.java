@@ -0,0 +1,44 @@
+package io.prometheus.metrics.core.metrics;
+
+/**
+ * Estimates the quantiles of the values observed by a {@link Summary} data point in a sliding time window.
+ * <p>
+ * There are two built-in implementations:
+ * <ul>
+ *     <li>CKMS, the default: Each observation is inserted into a CKMS summary per age bucket of a
+ *         {@link SlidingWindow}. The error is relative to the rank, i.e. the 0.95 quantile with error 0.01 is
+ *         a value between the 0.94 and the 0.96 quantile.</li>
+ *     <li>{@link Summary.Builder#relativeError(double)}: Each observation is inserted once into a mergeable
+ *         sketch, and the age buckets are merged only when quantiles are requested.
+ *         The error is relative to the value, i.e. with relative error 0.01 the 0.95 quantile is within
+ *         1% of the actual value. The same sketch serves all quantiles.</li>
+ * </ul>
+ * Other implementations can be used with {@link Summary.Builder#quantileEstimator(Factory)}.
+ * <p>
+ * {@link #observe(double)} must be thread-safe. {@link #get(double[])} will not be called concurrently with
+ * {@link #observe(double)}, because {@link Summary} calls it while observations are held back in a buffer.
+ * {@link #get(double[])} is not called concurrently with itself.
+ */
+public interface QuantileEstimator {
+
+    void observe(double value);
+
+    /**
+     * Returns the values of the given quantiles, in the same order.
+     * Values are {@link Double#NaN} if there are no observations in the current time window.
+     */
+    double[] get(double[] quantiles);
+
+    /**
+     * Creates the {@link QuantileEstimator} for a new {@link Summary} data point.
+     */
+    @FunctionalInterface
+    interface Factory {
+
+        /**
+         * See {@link Summary.Builder#maxAgeSeconds(long)} and {@link Summary.Builder#numberOfAgeBuckets(int)}
+         * for {@code maxAgeSeconds} and {@code ageBuckets}.
+         */
+        QuantileEstimator create(long maxAgeSeconds, int ageBuckets);
+    }
+}
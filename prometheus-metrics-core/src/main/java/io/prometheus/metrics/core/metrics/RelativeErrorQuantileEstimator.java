@@ -0,0 +1,177 @@
+package io.prometheus.metrics.core.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link QuantileEstimator} based on {@link RelativeErrorSketch}.
+ * <p>
+ * Observations are inserted into the sketch of a stripe (selected by thread id). Each stripe only holds the
+ * observations of the epoch it was last used in. When a stripe moves on to a new epoch, its sketch is merged into
+ * the shared sketch for that epoch's age bucket and cleared in place. Rotation is based on epochs like in
+ * {@link SlidingWindow}: Each age bucket is tagged with the epoch it was last used in, and cleared in place when
+ * it is reused. So observing does not allocate once the sketches have grown to the range of observed values.
+ * When quantiles are requested, the age buckets in the time window and the stripes are merged.
+ * <p>
+ * There is a single stripe at first. The number of stripes is doubled each time a thread finds its stripe's lock
+ * taken, up to the number of processors rounded up to a power of two (at most 64). So a data point that is only
+ * updated by one thread at a time keeps a single stripe.
+ * <p>
+ * Memory: A sketch has at most {@value #MAX_BUCKETS} buckets for positive and {@value #MAX_BUCKETS} for
+ * negative values, i.e. at most 32 KiB, but typically much less because the arrays only cover the range
+ * of observed values. There is one sketch per age bucket, one per stripe, and one for merging,
+ * so the memory per data point is bounded by {@code (ageBuckets + stripes + 1) * 32 KiB}.
+ */
+class RelativeErrorQuantileEstimator implements QuantileEstimator {
+
+    private static final int MAX_BUCKETS = 2048;
+    private static final int MAX_STRIPES = maxStripes();
+
+    private final double relativeError;
+    private final int ageBuckets;
+    private final long startTimeMillis;
+    private final long durationBetweenRotatesMillis;
+    private final LongSupplier currentTimeMillis;
+    private volatile Stripe[] stripes; // length is a power of two
+    // Observations flushed by the stripes, by age bucket. Guarded by synchronized(ageBucketSketches).
+    private final RelativeErrorSketch[] ageBucketSketches;
+    private final long[] ageBucketEpochs;
+    private final RelativeErrorSketch merged; // guarded by synchronized(merged)
+
+    private class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final RelativeErrorSketch sketch = new RelativeErrorSketch(relativeError, MAX_BUCKETS);
+        private long epoch = -1; // -1 means the sketch is empty
+
+        // Must hold the lock.
+        private void observe(long currentEpoch, double value) {
+            if (epoch != currentEpoch) {
+                flush();
+                epoch = currentEpoch;
+            }
+            sketch.add(value);
+        }
+
+        // Must hold the lock.
+        private void flush() {
+            if (epoch >= 0) {
+                addToAgeBucket(epoch, sketch);
+                sketch.clear();
+                epoch = -1;
+            }
+        }
+    }
+
+    /**
+     * See {@link SlidingWindow#SlidingWindow(Class, java.util.function.Supplier, java.util.function.ObjDoubleConsumer, long, int)}
+     * for {@code maxAgeSeconds} and {@code ageBuckets}.
+     */
+    RelativeErrorQuantileEstimator(double relativeError, long maxAgeSeconds, int ageBuckets, LongSupplier currentTimeMillis) {
+        this.relativeError = relativeError;
+        this.ageBuckets = ageBuckets;
+        this.merged = new RelativeErrorSketch(relativeError, MAX_BUCKETS);
+        this.ageBucketSketches = new RelativeErrorSketch[ageBuckets];
+        this.ageBucketEpochs = new long[ageBuckets];
+        for (int i = 0; i < ageBuckets; i++) {
+            ageBucketSketches[i] = new RelativeErrorSketch(relativeError, MAX_BUCKETS);
+            ageBucketEpochs[i] = -1;
+        }
+        this.stripes = new Stripe[]{new Stripe()};
+        this.currentTimeMillis = currentTimeMillis;
+        this.startTimeMillis = currentTimeMillis.getAsLong();
+        this.durationBetweenRotatesMillis = Math.max(1, TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets);
+    }
+
+    @Override
+    public void observe(double value) {
+        long epoch = currentEpoch();
+        Stripe[] s = stripes;
+        Stripe stripe = s[(int) Thread.currentThread().getId() & (s.length - 1)];
+        if (!stripe.lock.tryLock()) {
+            if (s.length < MAX_STRIPES) {
+                addStripes(s);
+            }
+            stripe.lock.lock();
+        }
+        try {
+            stripe.observe(epoch, value);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private synchronized void addStripes(Stripe[] expected) {
+        if (stripes != expected) {
+            return; // another thread was faster
+        }
+        Stripe[] result = Arrays.copyOf(expected, 2 * expected.length);
+        for (int i = expected.length; i < result.length; i++) {
+            result[i] = new Stripe();
+        }
+        stripes = result;
+    }
+
+    private void addToAgeBucket(long epoch, RelativeErrorSketch sketch) {
+        synchronized (ageBucketSketches) {
+            int i = (int) (epoch % ageBuckets);
+            if (ageBucketEpochs[i] < epoch) {
+                ageBucketSketches[i].clear();
+                ageBucketEpochs[i] = epoch;
+            }
+            // If the age bucket was already reused for a newer epoch the observations are out of the time window.
+            if (ageBucketEpochs[i] == epoch) {
+                ageBucketSketches[i].merge(sketch);
+            }
+        }
+    }
+
+    @Override
+    public double[] get(double[] quantiles) {
+        synchronized (merged) {
+            long epoch = currentEpoch();
+            merged.clear();
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    if (stripe.epoch == epoch) {
+                        merged.merge(stripe.sketch);
+                    } else {
+                        stripe.flush();
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            synchronized (ageBucketSketches) {
+                for (int i = 0; i < ageBuckets; i++) {
+                    if (ageBucketEpochs[i] > epoch - ageBuckets && ageBucketEpochs[i] <= epoch) {
+                        merged.merge(ageBucketSketches[i]);
+                    }
+                }
+            }
+            double[] result = new double[quantiles.length];
+            for (int i = 0; i < quantiles.length; i++) {
+                result[i] = merged.get(quantiles[i]);
+            }
+            return result;
+        }
+    }
+
+    // For testing.
+    int getNumberOfStripes() {
+        return stripes.length;
+    }
+
+    private long currentEpoch() {
+        return (currentTimeMillis.getAsLong() - startTimeMillis) / durationBetweenRotatesMillis;
+    }
+
+    private static int maxStripes() {
+        // power of two, so that we can use a bit mask for selecting the stripe
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(Math.max(1, processors) * 2 - 1);
+    }
+}
@@ -0,0 +1,264 @@
+package io.prometheus.metrics.core.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Quantile sketch with relative error guarantees, as described in
+ * "DDSketch: A Fast and Fully-Mergeable Quantile Sketch with Relative-Error Guarantees"
+ * by Masson, Rim, and Lee.
+ * <p>
+ * Values are counted in logarithmic buckets: With {@code gamma = (1 + relativeError) / (1 - relativeError)}
+ * bucket {@code i} counts the values in {@code (gamma^(i-1), gamma^i]}. Any value in that bucket is within
+ * {@code relativeError} of the bucket's representative value {@code 2 * gamma^i / (gamma + 1)}.
+ * <p>
+ * Unlike {@link CKMSQuantiles} this is mergeable: Merging two sketches yields the same result as observing all
+ * values in a single sketch. The bucket counts are stored in arrays, so {@link #add(double)} does not allocate
+ * unless the range of observed values grows. If the number of buckets exceeds {@code maxBuckets},
+ * the buckets closest to zero are merged, so that the relative error guarantee holds for high quantiles.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class RelativeErrorSketch {
+
+    // Values with an absolute value below this are counted as zero.
+    private static final double MIN_INDEXABLE_VALUE = Double.MIN_NORMAL;
+
+    private final double gamma;
+    private final double inverseLogGamma;
+    private final Store positiveValues;
+    private final Store negativeValues; // indexed by the absolute value
+    private long zeroCount;
+    private long positiveInfinityCount;
+    private long negativeInfinityCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    RelativeErrorSketch(double relativeError, int maxBuckets) {
+        if (relativeError <= 0 || relativeError >= 1) {
+            throw new IllegalArgumentException(relativeError + ": Expecting 0 < relativeError < 1.");
+        }
+        this.gamma = (1 + relativeError) / (1 - relativeError);
+        this.inverseLogGamma = 1.0 / Math.log(gamma);
+        this.positiveValues = new Store(maxBuckets);
+        this.negativeValues = new Store(maxBuckets);
+    }
+
+    /**
+     * Precondition: {@code value} is not NaN.
+     */
+    void add(double value) {
+        if (value > MIN_INDEXABLE_VALUE) {
+            if (value == Double.POSITIVE_INFINITY) {
+                positiveInfinityCount++;
+            } else {
+                positiveValues.add(index(value), 1);
+            }
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            if (value == Double.NEGATIVE_INFINITY) {
+                negativeInfinityCount++;
+            } else {
+                negativeValues.add(index(-value), 1);
+            }
+        } else {
+            zeroCount++;
+        }
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Add all values observed by {@code other}. Both sketches must have the same relative error.
+     */
+    void merge(RelativeErrorSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        positiveValues.addAll(other.positiveValues);
+        negativeValues.addAll(other.negativeValues);
+        zeroCount += other.zeroCount;
+        positiveInfinityCount += other.positiveInfinityCount;
+        negativeInfinityCount += other.negativeInfinityCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Reset to the initial state, but keep the allocated arrays.
+     */
+    void clear() {
+        positiveValues.clear();
+        negativeValues.clear();
+        zeroCount = 0;
+        positiveInfinityCount = 0;
+        negativeInfinityCount = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns {@link Double#NaN} if no values were observed.
+     * Quantile {@code 0.0} is the minimum and quantile {@code 1.0} is the maximum observed value.
+     */
+    double get(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (quantile <= 0.0) {
+            return min;
+        }
+        if (quantile >= 1.0) {
+            return max;
+        }
+        double rank = quantile * (count - 1);
+        long n = negativeInfinityCount;
+        if (n > rank) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        for (int i = negativeValues.highest; i >= negativeValues.lowest; i--) {
+            n += negativeValues.get(i);
+            if (n > rank) {
+                return clamp(-value(i));
+            }
+        }
+        n += zeroCount;
+        if (n > rank) {
+            return clamp(0.0);
+        }
+        for (int i = positiveValues.lowest; i <= positiveValues.highest; i++) {
+            n += positiveValues.get(i);
+            if (n > rank) {
+                return clamp(value(i));
+            }
+        }
+        return max;
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) * inverseLogGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Bucket counts in an array covering the window of bucket indexes {@code [lowest, highest]}.
+     * All counts outside of that window are zero.
+     */
+    private static final class Store {
+
+        private static final int MIN_CAPACITY = 16;
+
+        private final int maxBuckets;
+        private long[] counts = new long[0];
+        private int offset; // bucket index of counts[0]
+        // lowest > highest if the store is empty
+        private int lowest = Integer.MAX_VALUE;
+        private int highest = Integer.MIN_VALUE;
+
+        private Store(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        private long get(int index) {
+            return counts[index - offset];
+        }
+
+        private void add(int index, long n) {
+            if (lowest > highest) {
+                // empty
+                if (counts.length == 0) {
+                    counts = new long[Math.min(MIN_CAPACITY, maxBuckets)];
+                }
+                offset = index - counts.length / 2;
+                lowest = highest = index;
+            } else if (index < lowest) {
+                if (highest - index + 1 > maxBuckets) {
+                    // The value is too close to zero, count it in the lowest bucket.
+                    index = highest - maxBuckets + 1;
+                }
+                if (index < lowest) {
+                    extend(index, highest);
+                    lowest = index;
+                }
+            } else if (index > highest) {
+                if (index - lowest + 1 > maxBuckets) {
+                    collapseBelow(index - maxBuckets + 1);
+                }
+                extend(lowest, index);
+                highest = index;
+            }
+            counts[index - offset] += n;
+        }
+
+        private void addAll(Store other) {
+            for (int i = other.lowest; i <= other.highest; i++) {
+                long n = other.get(i);
+                if (n != 0) {
+                    add(i, n);
+                }
+            }
+        }
+
+        // Merge all buckets below newLowest into newLowest.
+        private void collapseBelow(int newLowest) {
+            long collapsed = 0;
+            for (int i = lowest; i <= highest && i < newLowest; i++) {
+                collapsed += counts[i - offset];
+                counts[i - offset] = 0;
+            }
+            if (highest < newLowest) {
+                lowest = Integer.MAX_VALUE;
+                highest = Integer.MIN_VALUE;
+                add(newLowest, collapsed);
+            } else {
+                lowest = newLowest;
+                counts[newLowest - offset] += collapsed;
+            }
+        }
+
+        // Make sure the array covers [low, high]. Either [low, highest] or [lowest, high].
+        private void extend(int low, int high) {
+            if (low >= offset && high < offset + counts.length) {
+                return;
+            }
+            int range = high - low + 1;
+            long[] newCounts = range <= counts.length ? counts : new long[Math.max(range, Math.min(2 * counts.length, maxBuckets))];
+            // Leave the free space on the side where the window grows.
+            int newOffset = low < lowest ? high - newCounts.length + 1 : low;
+            int n = highest - lowest + 1;
+            System.arraycopy(counts, lowest - offset, newCounts, lowest - newOffset, n);
+            if (newCounts == counts) {
+                // shifted in place, zero the remaining slots
+                Arrays.fill(counts, 0, lowest - newOffset, 0);
+                Arrays.fill(counts, lowest - newOffset + n, counts.length, 0);
+            }
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+        private void clear() {
+            if (lowest <= highest) {
+                Arrays.fill(counts, lowest - offset, highest - offset + 1, 0);
+            }
+            lowest = Integer.MAX_VALUE;
+            highest = Integer.MIN_VALUE;
+        }
+    }
+}
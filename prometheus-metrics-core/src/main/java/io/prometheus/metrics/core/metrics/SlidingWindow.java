@@ -1,7 +1,12 @@
 package io.prometheus.metrics.core.metrics;
 
+import io.prometheus.metrics.core.util.Clock;
+
 import java.lang.reflect.Array;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.LongSupplier;
 import java.util.function.ObjDoubleConsumer;
 import java.util.function.Supplier;
@@ -13,17 +18,64 @@ import java.util.function.Supplier;
  * <p>
  * It is implemented in a generic way so that 3rd party libraries can use it for implementing sliding windows.
  * <p>
- * TODO: The current implementation is {@code synchronized}. There is likely room for optimization.
+ * {@link #observe(double)} does not take a lock that is shared by all threads. Observations are appended to
+ * one of a number of stripes (selected by thread id), and each stripe has its own lock that is held for storing
+ * a single value only. The instances of {@code T} are not thread-safe, so they are guarded by a separate lock.
+ * If a stripe is full, the observing thread takes that lock and applies the stripe's values to all instances
+ * of {@code T} in one batch. {@link #current()} applies all pending values before returning.
+ * <p>
+ * Rotation is based on epochs: The epoch is the number of rotation intervals since the window was created,
+ * and the ring buffer position is the epoch modulo the number of age buckets. Pending values are applied before
+ * the window rotates, so that they are not missing in the instances of {@code T} that are still active.
+ * <p>
+ * The window is rotated by {@link #observe(double)} and {@link #current()} when they find that the current epoch
+ * is over. For observations that is a clock read and a comparison with a volatile field, only the first observation
+ * after the end of an epoch takes the lock and rotates. If a {@code reset} function is provided, evicted instances
+ * of {@code T} are reset and re-used rather than replaced with new instances.
  */
 public class SlidingWindow<T> {
 
+    private static final int STRIPE_SIZE = 64;
+    private static final int NUMBER_OF_STRIPES = numberOfStripes();
+
     private final Supplier<T> constructor;
+    private final Consumer<T> reset; // may be null
     private final ObjDoubleConsumer<T> observeFunction;
     private final T[] ringBuffer;
-    private int currentBucket;
-    private long lastRotateTimestampMillis;
+    private final long startTimeMillis;
     private final long durationBetweenRotatesMillis;
-    LongSupplier currentTimeMillis = System::currentTimeMillis; // to be replaced in unit tests
+    private final LongSupplier currentTimeMillis;
+    // Stripes are created lazily, only stripes that are actually used allocate memory.
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(NUMBER_OF_STRIPES);
+
+    // The following fields are guarded by lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final double[] batch = new double[STRIPE_SIZE];
+    private long epoch = 0;
+    private volatile long nextRotateTimestampMillis; // written while holding the lock
+
+    private static class Stripe {
+
+        private final double[] values = new double[STRIPE_SIZE];
+        private int size = 0; // guarded by synchronized(this)
+
+        // Returns false if the stripe is full, i.e. if the value was not appended.
+        private synchronized boolean append(double value) {
+            if (size == values.length) {
+                return false;
+            }
+            values[size++] = value;
+            return true;
+        }
+
+        // Copies the values to the batch and empties the stripe. Returns the number of values.
+        private synchronized int drainTo(double[] batch) {
+            int n = size;
+            System.arraycopy(values, 0, batch, 0, n);
+            size = 0;
+            return n;
+        }
+    }
 
     /**
      * Example: If the {@code maxAgeSeconds} is 60 and {@code ageBuckets} is 3, then 3 instances of {@code T}
@@ -36,44 +88,129 @@ public class SlidingWindow<T> {
      * @param ageBuckets number of age buckets.
      */
     public SlidingWindow(Class<T> clazz, Supplier<T> constructor, ObjDoubleConsumer<T> observeFunction, long maxAgeSeconds, int ageBuckets) {
+        this(clazz, constructor, null, observeFunction, maxAgeSeconds, ageBuckets);
+    }
+
+    /**
+     * Like {@link #SlidingWindow(Class, Supplier, ObjDoubleConsumer, long, int)}, but evicted instances of {@code T}
+     * are reset in place with the {@code reset} function (e.g. calling {@code t.reset()}) instead of being replaced
+     * with new instances.
+     */
+    public SlidingWindow(Class<T> clazz, Supplier<T> constructor, Consumer<T> reset, ObjDoubleConsumer<T> observeFunction, long maxAgeSeconds, int ageBuckets) {
+        this(clazz, constructor, reset, observeFunction, maxAgeSeconds, ageBuckets, () -> Clock.get().currentTimeMillis());
+    }
+
+    // currentTimeMillis is replaced in unit tests
+    SlidingWindow(Class<T> clazz, Supplier<T> constructor, Consumer<T> reset, ObjDoubleConsumer<T> observeFunction, long maxAgeSeconds, int ageBuckets, LongSupplier currentTimeMillis) {
         this.constructor = constructor;
+        this.reset = reset;
         this.observeFunction = observeFunction;
         this.ringBuffer = (T[]) Array.newInstance(clazz, ageBuckets);
         for (int i = 0; i < ringBuffer.length; i++) {
             this.ringBuffer[i] = constructor.get();
         }
-        this.currentBucket = 0;
-        this.lastRotateTimestampMillis = System.currentTimeMillis();
-        this.durationBetweenRotatesMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets;
+        this.currentTimeMillis = currentTimeMillis;
+        this.startTimeMillis = currentTimeMillis.getAsLong();
+        this.durationBetweenRotatesMillis = Math.max(1, TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets);
+        this.nextRotateTimestampMillis = startTimeMillis + durationBetweenRotatesMillis;
     }
 
     /**
      * Get the currently active instance of {@code T}.
+     * <p>
+     * All values observed before this call are applied to the returned instance.
+     * The returned instance is not thread-safe, so the caller must make sure that there are no concurrent
+     * calls to {@link #observe(double)} while using it.
      */
-    public synchronized T current() {
-        return rotate();
+    public T current() {
+        lock.lock();
+        try {
+            drainAll();
+            rotate(currentTimeMillis.getAsLong());
+            return ringBuffer[(int) (epoch % ringBuffer.length)];
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Observe a value.
      */
-    public synchronized void observe(double value) {
-        rotate();
+    public void observe(double value) {
+        if (currentTimeMillis.getAsLong() >= nextRotateTimestampMillis) {
+            rotate();
+        }
+        int index = (int) Thread.currentThread().getId() & (NUMBER_OF_STRIPES - 1);
+        Stripe stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new Stripe());
+            stripe = stripes.get(index);
+        }
+        while (!stripe.append(value)) {
+            lock.lock();
+            try {
+                drain(stripe);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Called while holding the lock.
+    private void drainAll() {
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                drain(stripe);
+            }
+        }
+    }
+
+    // Called while holding the lock.
+    private void drain(Stripe stripe) {
+        int n = stripe.drainTo(batch);
         for (T t : ringBuffer) {
-            observeFunction.accept(t, value);
+            for (int i = 0; i < n; i++) {
+                observeFunction.accept(t, batch[i]);
+            }
         }
     }
 
-    private T rotate() {
-        long timeSinceLastRotateMillis = currentTimeMillis.getAsLong() - lastRotateTimestampMillis;
-        while (timeSinceLastRotateMillis > durationBetweenRotatesMillis) {
-            ringBuffer[currentBucket] = constructor.get();
-            if (++currentBucket >= ringBuffer.length) {
-                currentBucket = 0;
+    // Rotate the window if the current epoch is over.
+    private void rotate() {
+        lock.lock();
+        try {
+            // Values that are still pending were observed before the rotation, so apply them first.
+            drainAll();
+            rotate(currentTimeMillis.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called while holding the lock.
+    private void rotate(long nowMillis) {
+        long currentEpoch = (nowMillis - startTimeMillis) / durationBetweenRotatesMillis;
+        if (currentEpoch <= epoch) {
+            return;
+        }
+        // Reset the instances for the epochs that are over, at most all of them.
+        long rotations = Math.min(currentEpoch - epoch, ringBuffer.length);
+        for (long e = epoch; e < epoch + rotations; e++) {
+            int i = (int) (e % ringBuffer.length);
+            if (reset != null) {
+                reset.accept(ringBuffer[i]);
+            } else {
+                ringBuffer[i] = constructor.get();
             }
-            timeSinceLastRotateMillis -= durationBetweenRotatesMillis;
-            lastRotateTimestampMillis += durationBetweenRotatesMillis;
         }
-        return ringBuffer[currentBucket];
+        epoch = currentEpoch;
+        nextRotateTimestampMillis = startTimeMillis + (currentEpoch + 1) * durationBetweenRotatesMillis;
+    }
+
+    private static int numberOfStripes() {
+        // power of two, so that we can use a bit mask for selecting the stripe
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(Math.max(1, processors) * 2 - 1);
     }
 }
@@ -104,12 +104,19 @@ public class StateSet extends StatefulMetric<StateSetDataPoint, StateSet.DataPoi
         return new DataPoint();
     }
 
+    @Override
+    protected void addToOverflow(DataPoint dataPoint, DataPoint overflow) {
+        // Like any update of the overflow data point, the last update wins.
+        System.arraycopy(dataPoint.values, 0, overflow.values, 0, names.length);
+        overflow.touch();
+    }
+
     @Override
     protected boolean isExemplarsEnabled() {
         return exemplarsEnabled;
     }
 
-    class DataPoint implements StateSetDataPoint {
+    class DataPoint extends IdleTrackingDataPoint implements StateSetDataPoint {
 
         private final boolean[] values = new boolean[names.length];
 
@@ -136,6 +143,7 @@ public class StateSet extends StatefulMetric<StateSetDataPoint, StateSet.DataPoi
             for (int i = 0; i < names.length; i++) {
                 if (names[i].equals(name)) {
                     values[i] = value;
+                    touch();
                     return;
                 }
             }
@@ -5,12 +5,15 @@ import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.core.datapoints.DataPoint;
+import io.prometheus.metrics.core.util.Clock;
+import io.prometheus.metrics.core.util.Scheduler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static java.lang.Boolean.FALSE;
@@ -28,18 +31,73 @@ import static java.lang.Boolean.TRUE;
  */
 abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWithFixedMetadata {
 
+    /**
+     * Label value used for all labels of the overflow data point, see {@link Builder#cardinalityLimit(int)}.
+     */
+    public static final String OVERFLOW_LABEL_VALUE = "__overflow__";
+
+    private static final String[] NO_LABEL_VALUES = new String[0];
+
     /**
      * Map label values to data points.
      */
-    private final ConcurrentHashMap<List<String>, T> data = new ConcurrentHashMap<>();
+    private final DataPointMap<T> data;
 
     /**
      * Shortcut for data.get(Collections.emptyList())
      */
     private volatile T noLabels;
 
+    /**
+     * Maximum number of label value combinations, 0 means no limit.
+     */
+    private final int cardinalityLimit;
+
+    /**
+     * All label values are {@link #OVERFLOW_LABEL_VALUE}. {@code null} if the metric has no labels.
+     */
+    private final String[] overflowLabelValues;
+
+    /**
+     * Data point for label values that were rejected because the cardinality limit was reached.
+     * This is not stored in {@link #data}, so it does not count towards the limit.
+     */
+    private volatile T overflow;
+
+    private final LongAdder overflowRedirects = new LongAdder();
+
+    /**
+     * Incremented each time data points are removed, so that objects holding on to a data point can cheaply
+     * check whether they need to call {@code labelValues(...)} again, see {@link #getRemovalCount()}.
+     */
+    private final AtomicLong removals = new AtomicLong();
+
+    /**
+     * Data points that have not been updated for this time are removed, 0 means no expiry.
+     */
+    private final long idleExpiryMillis;
+
     protected StatefulMetric(Builder<?, ?> builder) {
         super(builder);
+        this.data = new DataPointMap<>(labelNames.length, labelNames.length == 0 ? 1 : 16);
+        if (labelNames.length == 0) {
+            this.cardinalityLimit = 0;
+            this.idleExpiryMillis = 0;
+            this.overflowLabelValues = null;
+        } else {
+            MetricsProperties[] properties = getMetricProperties(builder, builder.properties);
+            this.cardinalityLimit = getConfigProperty(properties, MetricsProperties::getCardinalityLimit);
+            this.idleExpiryMillis = TimeUnit.SECONDS.toMillis(getConfigProperty(properties, MetricsProperties::getIdleExpirySeconds));
+            this.overflowLabelValues = new String[labelNames.length];
+            Arrays.fill(overflowLabelValues, OVERFLOW_LABEL_VALUE);
+        }
+    }
+
+    /**
+     * Maximum number of label value combinations, 0 means no limit.
+     */
+    int getCardinalityLimit() {
+        return cardinalityLimit;
     }
 
     /**
@@ -54,10 +112,24 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
         }
         List<Labels> labels = new ArrayList<>(data.size());
         List<T> metricData = new ArrayList<>(data.size());
-        for (Map.Entry<List<String>, T> entry : data.entrySet()) {
-            String[] labelValues = entry.getKey().toArray(new String[labelNames.length]);
-            labels.add(constLabels.merge(labelNames, labelValues));
-            metricData.add(entry.getValue());
+        List<String[]> idle = idleExpiryMillis > 0 ? new ArrayList<>() : null;
+        long nowMillis = idleExpiryMillis > 0 ? Clock.get().currentTimeMillis() : 0;
+        data.forEach((labelValues, dataPoint) -> {
+            if (idle != null && ((IdleTrackingDataPoint) dataPoint).isIdle(nowMillis, idleExpiryMillis)) {
+                idle.add(labelValues);
+            } else {
+                labels.add(constLabels.merge(labelNames, labelValues));
+                metricData.add(dataPoint);
+            }
+        });
+        if (idle != null && !idle.isEmpty()) {
+            // Removing is done by the scheduler thread so that it doesn't add to the scrape duration.
+            Scheduler.schedule(() -> removeIdle(idle, nowMillis), 0, TimeUnit.MILLISECONDS);
+        }
+        T overflow = this.overflow;
+        if (overflow != null) {
+            labels.add(constLabels.merge(labelNames, overflowLabelValues));
+            metricData.add(overflow);
         }
         return collect(labels, metricData);
     }
@@ -90,15 +162,123 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
         labelValues(labelValues);
     }
 
+    /**
+     * Get the data point for the given label values.
+     * <p>
+     * The data point for a combination of label values is created when this is called for the first time.
+     * Subsequent calls return the same data point, and do not allocate any objects.
+     * For the hottest code paths you can bind the data point once and keep the reference:
+     * <pre>{@code
+     * CounterDataPoint paypalTransactions = counter.labelValues("paypal");
+     * // ...
+     * paypalTransactions.inc();
+     * }</pre>
+     * Metrics with one, two, or three labels should be used via {@link #labelValues(String)},
+     * {@link #labelValues(String, String)}, and {@link #labelValues(String, String, String)}, which
+     * the Java compiler selects automatically. These avoid allocating the varargs array.
+     */
     public D labelValues(String... labelValues) {
-        if (labelValues.length != labelNames.length) {
-            if (labelValues.length == 0) {
+        validateNumberOfLabelValues(labelValues.length);
+        T dataPoint = data.get(labelValues);
+        if (dataPoint == null) {
+            dataPoint = computeIfAbsent(labelValues);
+        }
+        return dataPoint;
+    }
+
+    /**
+     * Same as {@link #labelValues(String...)} for metrics with exactly one label.
+     */
+    public D labelValues(String labelValue) {
+        validateNumberOfLabelValues(1);
+        T dataPoint = data.get(labelValue);
+        if (dataPoint == null) {
+            dataPoint = computeIfAbsent(new String[]{labelValue});
+        }
+        return dataPoint;
+    }
+
+    /**
+     * Same as {@link #labelValues(String...)} for metrics with exactly two labels.
+     */
+    public D labelValues(String labelValue1, String labelValue2) {
+        validateNumberOfLabelValues(2);
+        T dataPoint = data.get(labelValue1, labelValue2);
+        if (dataPoint == null) {
+            dataPoint = computeIfAbsent(new String[]{labelValue1, labelValue2});
+        }
+        return dataPoint;
+    }
+
+    /**
+     * Same as {@link #labelValues(String...)} for metrics with exactly three labels.
+     */
+    public D labelValues(String labelValue1, String labelValue2, String labelValue3) {
+        validateNumberOfLabelValues(3);
+        T dataPoint = data.get(labelValue1, labelValue2, labelValue3);
+        if (dataPoint == null) {
+            dataPoint = computeIfAbsent(new String[]{labelValue1, labelValue2, labelValue3});
+        }
+        return dataPoint;
+    }
+
+    /**
+     * Slow path of {@code labelValues(...)} if there is no data point for the label values yet.
+     */
+    private T computeIfAbsent(String[] labelValues) {
+        if (cardinalityLimit == 0) {
+            return data.computeIfAbsent(labelValues, this::newDataPoint);
+        }
+        if (Arrays.equals(overflowLabelValues, labelValues)) {
+            return getOverflow();
+        }
+        T dataPoint = null;
+        if (data.size() < cardinalityLimit) {
+            dataPoint = data.computeIfAbsent(labelValues, this::newDataPoint, cardinalityLimit);
+        }
+        if (dataPoint == null) {
+            overflowRedirects.increment();
+            dataPoint = getOverflow();
+        }
+        return dataPoint;
+    }
+
+    private T getOverflow() {
+        T result = overflow;
+        if (result == null) {
+            synchronized (this) {
+                result = overflow;
+                if (result == null) {
+                    result = overflow = newOverflowDataPoint();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of {@code labelValues(...)} calls that returned the overflow data point
+     * because the {@link Builder#cardinalityLimit(int) cardinality limit} was reached.
+     * <p>
+     * This counts calls, not distinct label values: If the same new combination of label values is used
+     * over and over again after the limit was reached, each call is counted. Keep the data point returned
+     * by {@code labelValues(...)} if you need to update it often.
+     * <p>
+     * Register {@link CardinalityLimitMetrics} to export this for all metrics with a cardinality limit
+     * that are registered with the same registry.
+     */
+    public long getOverflowRedirectCount() {
+        return overflowRedirects.sum();
+    }
+
+    private void validateNumberOfLabelValues(int numberOfLabelValues) {
+        if (numberOfLabelValues != labelNames.length) {
+            if (numberOfLabelValues == 0) {
                 throw new IllegalArgumentException(getClass().getSimpleName() + " " + getMetadata().getName() + " was created with label names, so you must call labelValues(...) when using it.");
             } else {
-                throw new IllegalArgumentException("Expected " + labelNames.length + " label values, but got " + labelValues.length + ".");
+                throw new IllegalArgumentException("Expected " + labelNames.length + " label values, but got " + numberOfLabelValues + ".");
             }
         }
-        return data.computeIfAbsent(Arrays.asList(labelValues), l -> newDataPoint());
     }
 
     /**
@@ -106,20 +286,95 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
      * See <a href="https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels">https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels</a>.
      */
     public void remove(String... labelValues) {
-        data.remove(Arrays.asList(labelValues));
+        removals.incrementAndGet();
+        if (data.remove(labelValues) == null && overflowLabelValues != null && Arrays.equals(overflowLabelValues, labelValues)) {
+            overflow = null;
+        }
     }
 
-    // TODO: Write a clear() method that resets the metric (removes all data points),
-    // see https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels
+    private void removeIdle(List<String[]> idle, long nowMillis) {
+        for (String[] labelValues : idle) {
+            // The data point may have been updated in the meantime.
+            T removed = data.remove(labelValues, dataPoint -> ((IdleTrackingDataPoint) dataPoint).isStillIdle(nowMillis, idleExpiryMillis));
+            if (removed != null) {
+                removals.incrementAndGet();
+            }
+            if (removed != null && ((IdleTrackingDataPoint) removed).isTouched()) {
+                // Updated by a thread that got the data point before it was removed.
+                putBack(labelValues, removed);
+            }
+        }
+    }
+
+    /**
+     * Put back a removed data point so that concurrent updates are not lost, unless {@code labelValues(...)}
+     * already created a new data point in the meantime. If the cardinality limit was reached in the meantime,
+     * the data point's values are added to the overflow data point instead.
+     */
+    void putBack(String[] labelValues, T removed) {
+        if (cardinalityLimit == 0) {
+            data.computeIfAbsent(labelValues, () -> removed);
+        } else if (data.computeIfAbsent(labelValues, () -> removed, cardinalityLimit) == null) {
+            addToOverflow(removed, getOverflow());
+        }
+    }
+
+    /**
+     * Remove all data points.
+     * See <a href="https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels">https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels</a>.
+     * <p>
+     * This is cheap even for metrics with a lot of data points, because the data points are not removed one by one.
+     * A concurrent {@code collect()} will either see all data points or none. Data points returned by
+     * {@code labelValues(...)} before {@code clear()} are no longer part of the metric, so if you keep a reference
+     * you need to call {@code labelValues(...)} again. Updates racing with {@code clear()} may get lost,
+     * just like updates racing with {@link #remove(String...)}.
+     * <p>
+     * For metrics without labels, this resets the metric to its initial state.
+     */
+    public void clear() {
+        removals.incrementAndGet();
+        data.clear();
+        overflow = null;
+        noLabels = null;
+    }
+
+    /**
+     * Changes whenever data points are removed by {@link #remove(String...)}, {@link #clear()}, or idle expiry.
+     * If the value did not change, data points returned by {@code labelValues(...)} in the meantime were not removed.
+     */
+    long getRemovalCount() {
+        return removals.get();
+    }
 
     protected abstract T newDataPoint();
 
+    /**
+     * Add the values of a data point that can't be put back after idle expiry to the overflow data point,
+     * see {@link Builder#cardinalityLimit(int)}. The data point is no longer part of the metric.
+     */
+    protected abstract void addToOverflow(T dataPoint, T overflow);
+
+    /**
+     * Create the data point for {@link #OVERFLOW_LABEL_VALUE}, see {@link Builder#cardinalityLimit(int)}.
+     * <p>
+     * All label values exceeding the cardinality limit share this data point, so it is updated by many threads
+     * even if the metric's data points are single-writer. Metrics with single-writer data points must override this.
+     */
+    protected T newOverflowDataPoint() {
+        return newDataPoint();
+    }
+
     protected T getNoLabels() {
-        if (noLabels == null) {
-            // Note that this will throw an IllegalArgumentException if labelNames is not empty.
-            noLabels = (T) labelValues();
+        T result = noLabels;
+        if (result == null) {
+            do {
+                // Note that this will throw an IllegalArgumentException if labelNames is not empty.
+                result = (T) labelValues();
+                noLabels = result;
+                // If clear() was called concurrently, result might be the data point that was just removed.
+            } while (data.get(NO_LABEL_VALUES) != result);
         }
-        return noLabels;
+        return result;
     }
 
     protected MetricsProperties[] getMetricProperties(Builder builder, PrometheusProperties prometheusProperties) {
@@ -156,6 +411,8 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
     static abstract class Builder<B extends Builder<B, M>, M extends StatefulMetric<?, ?>> extends MetricWithFixedMetadata.Builder<B, M> {
 
         protected Boolean exemplarsEnabled;
+        protected Integer cardinalityLimit;
+        protected Long idleExpirySeconds;
 
         protected Builder(List<String> illegalLabelNames, PrometheusProperties config) {
             super(illegalLabelNames, config);
@@ -177,12 +434,64 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
             return self();
         }
 
+        /**
+         * Maximum number of label value combinations for this metric.
+         * <p>
+         * Once the limit is reached, {@code labelValues(...)} with a new combination of label values
+         * returns a single shared overflow data point where all labels have the value
+         * {@link #OVERFLOW_LABEL_VALUE}. This protects memory and scrape duration if a label accidentally
+         * gets unbounded values like user IDs. The number of redirected calls is available via
+         * {@link StatefulMetric#getOverflowRedirectCount()} and {@link CardinalityLimitMetrics}.
+         * <p>
+         * The overflow data point is not counted, so a metric has at most {@code cardinalityLimit + 1}
+         * data points. Default is {@code 0}, which means no limit. This has no effect for metrics without labels.
+         */
+        public B cardinalityLimit(int cardinalityLimit) {
+            if (cardinalityLimit < 0) {
+                throw new IllegalArgumentException(cardinalityLimit + ": cardinalityLimit cannot be negative.");
+            }
+            this.cardinalityLimit = cardinalityLimit;
+            return self();
+        }
+
+        /**
+         * Remove data points that have not been updated for the given duration.
+         * <p>
+         * This is useful if label values are short-lived, like pod names or tenants, so that data points
+         * for label values that are no longer used don't accumulate over the lifetime of the application.
+         * <p>
+         * Idle data points are detected in {@code collect()}: A data point is idle if it was not updated
+         * since {@code collect()} saw it updated for the last time, and that's longer ago than the expiry duration.
+         * Idle data points are no longer exposed, and they are removed asynchronously by the scheduler thread.
+         * Note that idle data points are only detected when the metric is collected, and the precision is
+         * limited by the scrape interval.
+         * <p>
+         * If you keep a reference to a data point (like {@code counter.labelValues("paypal")}), make sure that
+         * it is updated more often than the expiry duration. Otherwise, the data point will be removed and
+         * further updates will not be exposed. Call {@code labelValues(...)} again to get a new data point.
+         * <p>
+         * An update that races with the removal is usually not lost: If the data point is updated while it is being
+         * removed, it is put back. However, if another thread calls {@code labelValues(...)} for the same label values
+         * in that moment, a new data point is created, and the update to the removed data point is lost.
+         * <p>
+         * Default is no expiry. This has no effect for metrics without labels.
+         */
+        public B idleExpiry(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException(duration + ": value > 0 expected");
+            }
+            this.idleExpirySeconds = Math.max(1, unit.toSeconds(duration));
+            return self();
+        }
+
         /**
          * Override if there are more properties than just exemplars enabled.
          */
         protected MetricsProperties toProperties() {
             return MetricsProperties.builder()
                     .exemplarsEnabled(exemplarsEnabled)
+                    .cardinalityLimit(cardinalityLimit)
+                    .idleExpirySeconds(idleExpirySeconds)
                     .build();
         }
 
@@ -192,6 +501,8 @@ abstract class StatefulMetric<D extends DataPoint, T extends D> extends MetricWi
         public MetricsProperties getDefaultProperties() {
             return MetricsProperties.builder()
                     .exemplarsEnabled(true)
+                    .cardinalityLimit(0)
+                    .idleExpirySeconds(0L)
                     .build();
         }
     }
@@ -10,6 +10,7 @@ import io.prometheus.metrics.model.snapshots.Quantile;
 import io.prometheus.metrics.model.snapshots.Quantiles;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.util.Clock;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -42,6 +43,8 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     private final List<CKMSQuantiles.Quantile> quantiles; // May be empty, but cannot be null.
     private final long maxAgeSeconds;
     private final int ageBuckets;
+    private final Double relativeError; // null means CKMS
+    private final QuantileEstimator.Factory quantileEstimatorFactory; // null means built-in
     private final boolean exemplarsEnabled;
     private final ExemplarSamplerConfig exemplarSamplerConfig;
 
@@ -52,6 +55,8 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         this.quantiles = Collections.unmodifiableList(makeQuantiles(properties));
         this.maxAgeSeconds = getConfigProperty(properties, MetricsProperties::getSummaryMaxAgeSeconds);
         this.ageBuckets = getConfigProperty(properties, MetricsProperties::getSummaryNumberOfAgeBuckets);
+        this.relativeError = getRelativeError(properties);
+        this.quantileEstimatorFactory = builder.quantileEstimatorFactory;
         this.exemplarSamplerConfig = new ExemplarSamplerConfig(prometheusProperties.getExemplarProperties(), 4);
     }
 
@@ -71,6 +76,16 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         return result;
     }
 
+    // Like getConfigProperty(), but null is a valid value.
+    private Double getRelativeError(MetricsProperties[] properties) {
+        for (MetricsProperties props : properties) {
+            if (props.getSummaryRelativeError() != null) {
+                return props.getSummaryRelativeError();
+            }
+        }
+        return null;
+    }
+
     @Override
     protected boolean isExemplarsEnabled() {
         return exemplarsEnabled;
@@ -114,21 +129,33 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         return new DataPoint();
     }
 
+    @Override
+    protected void addToOverflow(DataPoint dataPoint, DataPoint overflow) {
+        // Quantiles can't be merged, so only the count and sum are added.
+        SummarySnapshot.SummaryDataPointSnapshot snapshot = dataPoint.collect(Labels.EMPTY);
+        overflow.add(snapshot.getCount(), snapshot.getSum());
+    }
 
-    public class DataPoint implements DistributionDataPoint {
+
+    public class DataPoint extends IdleTrackingDataPoint implements DistributionDataPoint {
 
         private final LongAdder count = new LongAdder();
         private final DoubleAdder sum = new DoubleAdder();
-        private final SlidingWindow<CKMSQuantiles> quantileValues;
+        private final QuantileEstimator quantileValues;
         private final Buffer buffer = new Buffer();
         private final ExemplarSampler exemplarSampler;
 
-        private final long createdTimeMillis = System.currentTimeMillis();
+        private final long createdTimeMillis = Clock.get().currentTimeMillis();
 
         private DataPoint() {
             if (quantiles.size() > 0) {
-                CKMSQuantiles.Quantile[] quantilesArray = quantiles.toArray(new CKMSQuantiles.Quantile[0]);
-                quantileValues = new SlidingWindow<>(CKMSQuantiles.class, () -> new CKMSQuantiles(quantilesArray), CKMSQuantiles::insert, maxAgeSeconds, ageBuckets);
+                if (quantileEstimatorFactory != null) {
+                    quantileValues = quantileEstimatorFactory.create(maxAgeSeconds, ageBuckets);
+                } else if (relativeError != null) {
+                    quantileValues = new RelativeErrorQuantileEstimator(relativeError, maxAgeSeconds, ageBuckets, () -> Clock.get().currentTimeMillis());
+                } else {
+                    quantileValues = new CKMSQuantileEstimator(quantiles.toArray(new CKMSQuantiles.Quantile[0]), maxAgeSeconds, ageBuckets);
+                }
             } else {
                 quantileValues = null;
             }
@@ -150,6 +177,7 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
             if (!buffer.append(value)) {
                 doObserve(value);
             }
+            touch();
             if (isExemplarsEnabled()) {
                 exemplarSampler.observe(value);
             }
@@ -166,6 +194,7 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
             if (!buffer.append(value)) {
                 doObserve(value);
             }
+            touch();
             if (isExemplarsEnabled()) {
                 exemplarSampler.observeWithExemplar(value, labels);
             }
@@ -181,11 +210,28 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
             count.increment();
         }
 
+        // Adds observations that were not recorded by this data point, see addToOverflow().
+        private void add(long n, double amount) {
+            buffer.run(
+                    expectedCount -> count.sum() == expectedCount,
+                    () -> {
+                        sum.add(amount);
+                        count.add(n);
+                        buffer.addObservations(n);
+                        return null;
+                    },
+                    this::doObserve
+            );
+            touch();
+        }
+
         private SummarySnapshot.SummaryDataPointSnapshot collect(Labels labels) {
             return buffer.run(
                     expectedCount -> count.sum() == expectedCount,
-                    // TODO Exemplars (are hard-coded as empty in the line below)
-                    () -> new SummarySnapshot.SummaryDataPointSnapshot(count.sum(), sum.sum(), makeQuantiles(), labels, Exemplars.EMPTY, createdTimeMillis),
+                    () -> {
+                        Exemplars exemplars = exemplarSampler != null ? exemplarSampler.collect() : Exemplars.EMPTY;
+                        return new SummarySnapshot.SummaryDataPointSnapshot(count.sum(), sum.sum(), makeQuantiles(), labels, exemplars, createdTimeMillis);
+                    },
                     this::doObserve
             );
         }
@@ -195,10 +241,17 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         }
 
         private Quantiles makeQuantiles() {
-            Quantile[] quantiles = new Quantile[getQuantiles().size()];
-            for (int i = 0; i < getQuantiles().size(); i++) {
-                CKMSQuantiles.Quantile quantile = getQuantiles().get(i);
-                quantiles[i] = new Quantile(quantile.quantile, quantileValues.current().get(quantile.quantile));
+            if (getQuantiles().isEmpty()) {
+                return Quantiles.EMPTY;
+            }
+            double[] qs = new double[getQuantiles().size()];
+            for (int i = 0; i < qs.length; i++) {
+                qs[i] = getQuantiles().get(i).quantile;
+            }
+            double[] values = quantileValues.get(qs);
+            Quantile[] quantiles = new Quantile[qs.length];
+            for (int i = 0; i < qs.length; i++) {
+                quantiles[i] = new Quantile(qs[i], values[i]);
             }
             return Quantiles.of(quantiles);
         }
@@ -226,6 +279,8 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         private final List<CKMSQuantiles.Quantile> quantiles = new ArrayList<>();
         private Long maxAgeSeconds;
         private Integer ageBuckets;
+        private Double relativeError;
+        private QuantileEstimator.Factory quantileEstimatorFactory;
 
         private Builder(PrometheusProperties properties) {
             super(Collections.singletonList("quantile"), properties);
@@ -310,6 +365,43 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
             return this;
         }
 
+        /**
+         * Estimate quantiles with a mergeable sketch that guarantees the given relative error, like {@code 0.01} for
+         * 1%, instead of the CKMS algorithm. The error margins passed to {@link #quantile(double, double)} are
+         * ignored in that case.
+         * <p>
+         * Each observation is inserted once into a sketch shared by all quantiles, and the age buckets are merged
+         * only when the summary is scraped. This makes observations cheaper than with CKMS, in particular with
+         * many quantiles or age buckets.
+         * <p>
+         * The relative error is an error of the value, not of the rank: With relative error 0.01 a reported
+         * 0.95 quantile of 100ms means the actual 0.95 quantile is between 99ms and 101ms.
+         * <p>
+         * Each data point uses up to 32 KiB per age bucket, plus 32 KiB for each thread that updates it
+         * concurrently (bounded by the number of processors). In practice it is much less, because the sketches
+         * only grow to the range of observed values.
+         */
+        public Builder relativeError(double relativeError) {
+            if (relativeError <= 0.0 || relativeError >= 1.0) {
+                throw new IllegalArgumentException("Relative error " + relativeError + " invalid: Expected number between 0.0 and 1.0.");
+            }
+            this.relativeError = relativeError;
+            return this;
+        }
+
+        /**
+         * Use a custom {@link QuantileEstimator} instead of the built-in ones. The factory is called once for each
+         * data point. The quantiles passed to {@link #quantile(double, double)} are still the quantiles that are
+         * exposed, but the error margins as well as {@link #relativeError(double)} are ignored.
+         */
+        public Builder quantileEstimator(QuantileEstimator.Factory factory) {
+            if (factory == null) {
+                throw new IllegalArgumentException("factory cannot be null");
+            }
+            this.quantileEstimatorFactory = factory;
+            return this;
+        }
+
         @Override
         protected MetricsProperties toProperties() {
             double[] quantiles = null;
@@ -324,10 +416,13 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
             }
             return MetricsProperties.builder()
                     .exemplarsEnabled(exemplarsEnabled)
+                    .cardinalityLimit(cardinalityLimit)
+                    .idleExpirySeconds(idleExpirySeconds)
                     .summaryQuantiles(quantiles)
                     .summaryQuantileErrors(quantileErrors)
                     .summaryNumberOfAgeBuckets(ageBuckets)
                     .summaryMaxAgeSeconds(maxAgeSeconds)
+                    .summaryRelativeError(relativeError)
                     .build();
         }
 
@@ -338,6 +433,8 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
         public MetricsProperties getDefaultProperties() {
             return MetricsProperties.builder()
                     .exemplarsEnabled(true)
+                    .cardinalityLimit(0)
+                    .idleExpirySeconds(0L)
                     .summaryQuantiles()
                     .summaryNumberOfAgeBuckets(DEFAULT_NUMBER_OF_AGE_BUCKETS)
                     .summaryMaxAgeSeconds(DEFAULT_MAX_AGE_SECONDS)
@@ -0,0 +1,140 @@
+package io.prometheus.metrics.core.util;
+
+import io.prometheus.metrics.config.ClockProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of the current time for metrics.
+ * <p>
+ * {@link #currentTimeMillis()} is the wall clock, used for timestamps like exemplar timestamps, created timestamps,
+ * or the time window of summary quantiles. {@link #nanoTime()} is the monotonic clock, used for measuring durations
+ * with {@link io.prometheus.metrics.core.datapoints.Timer Timer}.
+ * <p>
+ * There are two implementations:
+ * <ul>
+ *     <li>{@link #system()}: Calls {@link System#currentTimeMillis()} and {@link System#nanoTime()}.</li>
+ *     <li>{@link #coarse(long)}: Returns a cached wall clock time that is updated by a background thread.
+ *         {@link #nanoTime()} is not cached, as durations need to be precise.</li>
+ * </ul>
+ * The clock used by all metrics is {@link #get()}. By default, this is configured with
+ * {@link ClockProperties#getResolutionMillis()}. It can be replaced with {@link #set(Clock)}, for example
+ * with a manually advanced clock in unit tests.
+ */
+public abstract class Clock {
+
+    private static volatile Clock instance = fromProperties(PrometheusProperties.get().getClockProperties());
+
+    /**
+     * The clock used by all metrics.
+     */
+    public static Clock get() {
+        return instance;
+    }
+
+    /**
+     * Replace the clock used by all metrics. Metrics that already used the previous clock may have stored
+     * timestamps from the previous clock.
+     */
+    public static void set(Clock clock) {
+        if (clock == null) {
+            throw new NullPointerException("clock");
+        }
+        instance = clock;
+    }
+
+    public static Clock system() {
+        return SystemClock.INSTANCE;
+    }
+
+    /**
+     * A clock that caches the wall clock time and updates it every {@code resolutionMillis} milliseconds
+     * in a daemon thread. The thread terminates when the clock is garbage collected.
+     */
+    public static Clock coarse(long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException(resolutionMillis + ": Expecting resolutionMillis > 0.");
+        }
+        return new CoarseClock(resolutionMillis);
+    }
+
+    static Clock fromProperties(ClockProperties properties) {
+        if (properties.getResolutionMillis() > 0) {
+            return coarse(properties.getResolutionMillis());
+        } else {
+            return system();
+        }
+    }
+
+    /**
+     * Current time in milliseconds since the epoch, like {@link System#currentTimeMillis()}.
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Current value of a monotonic clock in nanoseconds, like {@link System#nanoTime()}.
+     * Only meaningful for computing durations.
+     */
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private static class SystemClock extends Clock {
+
+        private static final SystemClock INSTANCE = new SystemClock();
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static class CoarseClock extends Clock {
+
+        private volatile long currentTimeMillis = System.currentTimeMillis();
+
+        private CoarseClock(long resolutionMillis) {
+            Thread thread = new Thread(new Updater(this, resolutionMillis), "prometheus-coarse-clock");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+    }
+
+    // Only holds a weak reference to the clock, so that the thread terminates if the clock is no longer used.
+    private static class Updater implements Runnable {
+
+        private final WeakReference<CoarseClock> clock;
+        private final long resolutionMillis;
+
+        private Updater(CoarseClock clock, long resolutionMillis) {
+            this.clock = new WeakReference<>(clock);
+            this.resolutionMillis = resolutionMillis;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (update()) {
+                    TimeUnit.MILLISECONDS.sleep(resolutionMillis);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        private boolean update() {
+            CoarseClock coarseClock = clock.get();
+            if (coarseClock == null) {
+                return false;
+            }
+            coarseClock.currentTimeMillis = System.currentTimeMillis();
+            return true;
+        }
+    }
+}
@@ -1,37 +1,165 @@
 package io.prometheus.metrics.core.util;
 
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.config.SchedulerProperties;
+
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Used for scheduling maintenance tasks like purging outdated Exemplars or resetting native histograms.
+ * <p>
+ * The number of threads is configured with {@link SchedulerProperties}. Alternatively, the executor can be replaced
+ * with {@link #setExecutor(ScheduledExecutorService)}, for example with an executor managed by the application.
+ * <p>
+ * The scheduler keeps track of how many tasks were run and how late they started. These statistics are exposed
+ * by {@link SchedulerMetrics}.
  */
 public class Scheduler {
 
     private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
         public Thread newThread(Runnable runnable) {
-            Thread thread = new Thread(runnable);
+            Thread thread = new Thread(runnable, "prometheus-scheduler-" + threadNumber.getAndIncrement());
             thread.setDaemon(true);
             return thread;
         }
     }
 
-    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+    // The executor created by the Scheduler itself. It is shut down when it is replaced with setExecutor().
+    private static final ScheduledExecutorService defaultExecutor = newExecutor(PrometheusProperties.get().getSchedulerProperties());
+    private static volatile ScheduledExecutorService executor = defaultExecutor;
+
+    private static final LongAdder tasksStarted = new LongAdder();
+    private static final LongAdder lagNanos = new LongAdder();
 
     public static ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
-        return executor.schedule(command, delay, unit);
+        long scheduledNanos = System.nanoTime() + unit.toNanos(delay);
+        return executor.schedule(() -> {
+            lagNanos.add(Math.max(0, System.nanoTime() - scheduledNanos));
+            tasksStarted.increment();
+            command.run();
+        }, delay, unit);
+    }
+
+    /**
+     * Replace the executor for maintenance tasks. Tasks that are already scheduled remain with the previous
+     * executor. If the previous executor was created by the Scheduler it is shut down, i.e. its threads terminate
+     * after the tasks that are already scheduled have run. Executors passed to this method are never shut down
+     * by the Scheduler, they are managed by the caller.
+     */
+    public static synchronized void setExecutor(ScheduledExecutorService executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        ScheduledExecutorService previous = Scheduler.executor;
+        Scheduler.executor = executor;
+        if (previous == defaultExecutor && executor != defaultExecutor) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Create an executor as configured in the {@link SchedulerProperties}.
+     */
+    public static ScheduledExecutorService newExecutor(SchedulerProperties properties) {
+        ThreadFactory threadFactory = properties.getVirtualThreads() ? virtualThreadFactory() : null;
+        if (threadFactory == null) {
+            threadFactory = new DaemonThreadFactory();
+        }
+        ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(properties.getThreads(), threadFactory);
+        result.setRemoveOnCancelPolicy(true);
+        return result;
+    }
+
+    // Thread.ofVirtual().factory() if running on Java 21 or newer, null otherwise.
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Number of tasks waiting in the executor's queue, or -1 if unknown
+     * (i.e. if the executor was replaced with an executor that is not a {@link ScheduledThreadPoolExecutor}).
+     */
+    static int getQueueSize() {
+        ScheduledExecutorService current = executor;
+        if (current instanceof ScheduledThreadPoolExecutor) {
+            return ((ScheduledThreadPoolExecutor) current).getQueue().size();
+        }
+        return -1;
+    }
+
+    /**
+     * Number of threads of the executor, or -1 if unknown.
+     */
+    static int getPoolSize() {
+        ScheduledExecutorService current = executor;
+        if (current instanceof ScheduledThreadPoolExecutor) {
+            return ((ScheduledThreadPoolExecutor) current).getPoolSize();
+        }
+        return -1;
+    }
+
+    // For testing.
+    static ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    // For testing.
+    static ScheduledExecutorService getDefaultExecutor() {
+        return defaultExecutor;
+    }
+
+    static long getTasksStarted() {
+        return tasksStarted.sum();
+    }
+
+    /**
+     * Sum of the delays between the time a task was scheduled to run and the time it started.
+     */
+    static long getLagNanos() {
+        return lagNanos.sum();
     }
 
     /**
-     * For unit test. Wait until the executor Thread is running.
+     * For unit test. Wait until the executor threads are running and all tasks that were due before this call
+     * have completed.
+     * <p>
+     * This schedules one task per thread, and each of these tasks blocks until all of them have started.
+     * Once all threads are blocked, the tasks that were dequeued before have completed, regardless of which
+     * thread they ran on. If the executor is not a {@link ScheduledThreadPoolExecutor}, it is assumed to have
+     * a single thread.
      */
     public static void awaitInitialization() throws InterruptedException {
-        CountDownLatch latch = new CountDownLatch(1);
-        Scheduler.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
-        latch.await();
+        ScheduledExecutorService current = executor;
+        int threads = 1;
+        if (current instanceof ScheduledThreadPoolExecutor) {
+            threads = Math.max(1, ((ScheduledThreadPoolExecutor) current).getCorePoolSize());
+        }
+        CountDownLatch started = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Scheduler.schedule(() -> {
+                started.countDown();
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+        }
+        started.await();
     }
 }
@@ -0,0 +1,112 @@
+package io.prometheus.metrics.core.util;
+
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.core.metrics.CounterWithCallback;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.Unit;
+
+/**
+ * Metrics about the {@link Scheduler} that runs the Prometheus library's maintenance tasks. Register them like this:
+ * <pre>{@code
+ *   SchedulerMetrics.builder().register();
+ * }</pre>
+ * Example metrics being exported:
+ * <pre>
+ * # HELP prometheus_scheduler_queued_tasks Number of maintenance tasks waiting to be run
+ * # TYPE prometheus_scheduler_queued_tasks gauge
+ * prometheus_scheduler_queued_tasks 12.0
+ * # HELP prometheus_scheduler_task_lag_seconds_total Total time maintenance tasks started later than scheduled
+ * # TYPE prometheus_scheduler_task_lag_seconds_total counter
+ * prometheus_scheduler_task_lag_seconds_total 0.0312
+ * # HELP prometheus_scheduler_tasks_total Number of maintenance tasks started
+ * # TYPE prometheus_scheduler_tasks_total counter
+ * prometheus_scheduler_tasks_total 2301.0
+ * # HELP prometheus_scheduler_threads Number of threads running maintenance tasks
+ * # TYPE prometheus_scheduler_threads gauge
+ * prometheus_scheduler_threads 1.0
+ * </pre>
+ * The average lag is {@code rate(prometheus_scheduler_task_lag_seconds_total[5m]) / rate(prometheus_scheduler_tasks_total[5m])}.
+ * If it grows, maintenance work like exemplar sampling or native histogram resets is falling behind,
+ * and you may want to increase {@code io.prometheus.scheduler.threads}.
+ * <p>
+ * Queue size and threads are not exported if the executor was replaced with
+ * {@link Scheduler#setExecutor(java.util.concurrent.ScheduledExecutorService)} and is not a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+ */
+public class SchedulerMetrics {
+
+    private static final String PROMETHEUS_SCHEDULER_QUEUED_TASKS = "prometheus_scheduler_queued_tasks";
+    private static final String PROMETHEUS_SCHEDULER_THREADS = "prometheus_scheduler_threads";
+    private static final String PROMETHEUS_SCHEDULER_TASKS_TOTAL = "prometheus_scheduler_tasks_total";
+    private static final String PROMETHEUS_SCHEDULER_TASK_LAG_SECONDS_TOTAL = "prometheus_scheduler_task_lag_seconds_total";
+
+    private final PrometheusProperties config;
+
+    private SchedulerMetrics(PrometheusProperties config) {
+        this.config = config;
+    }
+
+    private void register(PrometheusRegistry registry) {
+
+        GaugeWithCallback.builder(config)
+                .name(PROMETHEUS_SCHEDULER_QUEUED_TASKS)
+                .help("Number of maintenance tasks waiting to be run")
+                .callback(callback -> {
+                    int queueSize = Scheduler.getQueueSize();
+                    if (queueSize >= 0) {
+                        callback.call(queueSize);
+                    }
+                })
+                .register(registry);
+
+        GaugeWithCallback.builder(config)
+                .name(PROMETHEUS_SCHEDULER_THREADS)
+                .help("Number of threads running maintenance tasks")
+                .callback(callback -> {
+                    int poolSize = Scheduler.getPoolSize();
+                    if (poolSize >= 0) {
+                        callback.call(poolSize);
+                    }
+                })
+                .register(registry);
+
+        CounterWithCallback.builder(config)
+                .name(PROMETHEUS_SCHEDULER_TASKS_TOTAL)
+                .help("Number of maintenance tasks started")
+                .callback(callback -> callback.call(Scheduler.getTasksStarted()))
+                .register(registry);
+
+        CounterWithCallback.builder(config)
+                .name(PROMETHEUS_SCHEDULER_TASK_LAG_SECONDS_TOTAL)
+                .help("Total time maintenance tasks started later than scheduled")
+                .unit(Unit.SECONDS)
+                .callback(callback -> callback.call(Unit.nanosToSeconds(Scheduler.getLagNanos())))
+                .register(registry);
+    }
+
+    public static Builder builder() {
+        return new Builder(PrometheusProperties.get());
+    }
+
+    public static Builder builder(PrometheusProperties config) {
+        return new Builder(config);
+    }
+
+    public static class Builder {
+
+        private final PrometheusProperties config;
+
+        private Builder(PrometheusProperties config) {
+            this.config = config;
+        }
+
+        public void register() {
+            register(PrometheusRegistry.defaultRegistry);
+        }
+
+        public void register(PrometheusRegistry registry) {
+            new SchedulerMetrics(config).register(registry);
+        }
+    }
+}
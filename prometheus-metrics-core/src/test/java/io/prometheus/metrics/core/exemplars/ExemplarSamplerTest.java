@@ -4,6 +4,8 @@ import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
 import io.prometheus.metrics.model.snapshots.Exemplar;
 import io.prometheus.metrics.model.snapshots.Exemplars;
 import io.prometheus.metrics.model.snapshots.Label;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.core.util.Clock;
 import io.prometheus.metrics.core.util.Scheduler;
 import org.junit.After;
 import org.junit.Assert;
@@ -33,6 +35,7 @@ public class ExemplarSamplerTest {
         int callCount = 0;
         boolean isSampled = true;
         boolean isExemplar = false;
+        boolean fail = false;
 
         @Override
         public String getCurrentTraceId() {
@@ -46,6 +49,9 @@ public class ExemplarSamplerTest {
 
         @Override
         public boolean isCurrentSpanSampled() {
+            if (fail) {
+                throw new IllegalStateException("tracer failure");
+            }
             return isSampled;
         }
 
@@ -83,6 +89,27 @@ public class ExemplarSamplerTest {
         assertExemplars(sampler); // empty
     }
 
+    @Test
+    public void testFirstSampledSpan() throws Exception {
+        SpanContext context = new SpanContext();
+        context.isSampled = false;
+        SpanContextSupplier.setSpanContext(context);
+        ExemplarSampler sampler = new ExemplarSampler(makeConfig(0.5, Double.POSITIVE_INFINITY));
+        Thread.sleep(tick); // t = 1 tick
+        sampler.observe(0.3); // not sampled, exemplars are not allocated yet
+        assertExemplars(sampler); // empty
+        Assert.assertFalse(context.isExemplar);
+        context.isSampled = true;
+        Thread.sleep(sampleInterval + tick); // t = 12 tick
+        sampler.observe(0.3); // first sampled span, exemplars are allocated
+        Assert.assertTrue(context.isExemplar);
+        Thread.sleep(sampleInterval + tick); // t = 23 tick
+        sampler.observe(0.8);
+        assertExemplars(sampler, 0.3, 0.8);
+        sampler.reset();
+        assertExemplars(sampler); // empty
+    }
+
     @Test
     public void testDefaultConfigHasFourExemplars() throws Exception {
         SpanContext context = new SpanContext();
@@ -191,6 +218,72 @@ public class ExemplarSamplerTest {
         print(sampler.collect());
     }
 
+    private static class ManualClock extends Clock {
+
+        long millis = 1_000_000;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+    }
+
+    @Test
+    public void testRateLimitUsesClock() {
+        SpanContextSupplier.setSpanContext(new SpanContext());
+        ManualClock clock = new ManualClock();
+        Clock origClock = Clock.get();
+        Clock.set(clock);
+        try {
+            ExemplarSampler sampler = new ExemplarSampler(makeConfig());
+            sampler.observe(1); // observed
+            clock.millis += sampleInterval - 1;
+            sampler.observe(2); // not observed, rate limited
+            assertExemplars(sampler, 1);
+            clock.millis += 1;
+            sampler.observe(3); // observed
+            assertExemplars(sampler, 1, 3);
+        } finally {
+            Clock.set(origClock);
+        }
+    }
+
+    @Test
+    public void testTracerExceptionDoesNotDisableSampling() {
+        SpanContext context = new SpanContext();
+        SpanContextSupplier.setSpanContext(context);
+        ManualClock clock = new ManualClock();
+        Clock origClock = Clock.get();
+        Clock.set(clock);
+        try {
+            ExemplarSampler sampler = new ExemplarSampler(makeConfig());
+            context.fail = true;
+            try {
+                sampler.observe(1);
+                Assert.fail("expected the tracer's exception");
+            } catch (IllegalStateException expected) {
+            }
+            context.fail = false;
+            sampler.observe(2); // not observed, rate limited like any other sample attempt
+            assertExemplars(sampler);
+            clock.millis += sampleInterval;
+            sampler.observe(3); // observed, the failure did not leave the rate limiter locked
+            assertExemplars(sampler, 3);
+        } finally {
+            Clock.set(origClock);
+        }
+    }
+
+    @Test
+    public void testNoTracer() {
+        SpanContextSupplier.setSpanContext(null);
+        ExemplarSampler sampler = new ExemplarSampler(makeConfig());
+        sampler.observe(1);
+        assertExemplars(sampler);
+        sampler.observeWithExemplar(2, Labels.of("key", "value"));
+        assertExemplars(sampler, 2);
+    }
+
     private void assertExemplars(ExemplarSampler sampler, double... values) {
         Exemplars exemplars = sampler.collect();
         Assert.assertEquals(values.length, exemplars.size());
@@ -0,0 +1,150 @@
+package io.prometheus.metrics.core.exemplars;
+
+import io.prometheus.metrics.config.ExemplarsProperties;
+import io.prometheus.metrics.core.util.Clock;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.Exemplars;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.tracer.common.SpanContext;
+import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TopKExemplarReservoirTest {
+
+    private final long sampleInterval = 100;
+    private final long minAge = 1000;
+    private final long maxAge = 5000;
+
+    private static class ManualClock extends Clock {
+
+        long millis = 1_000_000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+    }
+
+    private static class TestSpanContext implements SpanContext {
+
+        int spanId = 0;
+        boolean isSampled = true;
+
+        @Override
+        public String getCurrentTraceId() {
+            return "trace";
+        }
+
+        @Override
+        public String getCurrentSpanId() {
+            return "" + spanId;
+        }
+
+        @Override
+        public boolean isCurrentSpanSampled() {
+            return isSampled;
+        }
+
+        @Override
+        public void markCurrentSpanAsExemplar() {
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+    private final TestSpanContext spanContext = new TestSpanContext();
+    private Clock origClock;
+    private SpanContext origSpanContext;
+
+    @Before
+    public void setUp() {
+        origClock = Clock.get();
+        origSpanContext = SpanContextSupplier.getSpanContext();
+        Clock.set(clock);
+        SpanContextSupplier.setSpanContext(spanContext);
+    }
+
+    @After
+    public void tearDown() {
+        Clock.set(origClock);
+        SpanContextSupplier.setSpanContext(origSpanContext);
+    }
+
+    private ExemplarSampler newSampler() {
+        return new ExemplarSampler(new ExemplarSamplerConfig(minAge, maxAge, sampleInterval, 4, null, ExemplarsProperties.RESERVOIR_TOP_K));
+    }
+
+    @Test
+    public void testTopValues() {
+        ExemplarSampler sampler = newSampler();
+        sampler.observe(1.0);
+        sampler.observe(5.0); // rate limited, because the reservoir is not full yet
+        assertExemplars(sampler, 1.0);
+        for (double value : new double[]{2.0, 3.0, 4.0}) {
+            clock.millis += sampleInterval;
+            sampler.observe(value);
+        }
+        assertExemplars(sampler, 1.0, 2.0, 3.0, 4.0);
+        sampler.observe(0.5); // rate limited
+        sampler.observe(10.0); // not rate limited, because it's higher than the smallest Exemplar
+        sampler.observe(20.0); // rate limited, top values are sampled at most once per sample interval, too
+        assertExemplars(sampler, 2.0, 3.0, 4.0, 10.0);
+        clock.millis += sampleInterval;
+        sampler.observe(20.0);
+        assertExemplars(sampler, 3.0, 4.0, 10.0, 20.0);
+        clock.millis += sampleInterval;
+        sampler.observe(0.5); // smaller than all Exemplars, none of which reached the min retention period
+        assertExemplars(sampler, 3.0, 4.0, 10.0, 20.0);
+    }
+
+    @Test
+    public void testRetention() {
+        ExemplarSampler sampler = newSampler();
+        for (double value : new double[]{1.0, 2.0, 3.0, 4.0}) {
+            sampler.observe(value);
+            clock.millis += sampleInterval;
+        }
+        clock.millis += minAge;
+        sampler.observe(0.5); // replaces the smallest Exemplar that reached the min retention period
+        assertExemplars(sampler, 0.5, 2.0, 3.0, 4.0);
+        clock.millis += maxAge;
+        assertExemplars(sampler, 0.5);
+        sampler.reset();
+        assertExemplars(sampler);
+    }
+
+    @Test
+    public void testNotSampled() {
+        spanContext.isSampled = false;
+        ExemplarSampler sampler = newSampler();
+        sampler.observe(1.0);
+        assertExemplars(sampler);
+        spanContext.isSampled = true;
+        clock.millis += sampleInterval;
+        sampler.observe(2.0);
+        assertExemplars(sampler, 2.0);
+    }
+
+    @Test
+    public void testCustomExemplars() {
+        ExemplarSampler sampler = newSampler();
+        sampler.observeWithExemplar(1.0, Labels.of("key", "value"));
+        sampler.observe(2.0);
+        assertExemplars(sampler, 1.0, 2.0);
+    }
+
+    private void assertExemplars(ExemplarSampler sampler, double... expected) {
+        Exemplars exemplars = sampler.collect();
+        double[] actual = new double[exemplars.size()];
+        for (int i = 0; i < actual.length; i++) {
+            Exemplar exemplar = exemplars.get(i);
+            actual[i] = exemplar.getValue();
+        }
+        Arrays.sort(actual);
+        Assert.assertArrayEquals(expected, actual, 0.0);
+    }
+}
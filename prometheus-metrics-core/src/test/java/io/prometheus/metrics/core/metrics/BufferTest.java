@@ -0,0 +1,106 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BufferTest {
+
+    @Test
+    public void testConcurrentObserveWhileCollecting() throws Exception {
+        Histogram histogram = Histogram.builder()
+                .name("test")
+                .classicOnly()
+                .build();
+        int nThreads = 8;
+        int nObservations = 100_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < nObservations; i++) {
+                    histogram.observe(1.0);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread scraper = new Thread(() -> {
+            while (!done.get()) {
+                histogram.collect();
+            }
+        });
+        scraper.start();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        scraper.join();
+        HistogramSnapshot.HistogramDataPointSnapshot snapshot = histogram.collect().getDataPoints().get(0);
+        Assert.assertEquals(nThreads * nObservations, snapshot.getCount());
+        Assert.assertEquals(nThreads * nObservations, snapshot.getSum(), 0.0);
+    }
+
+    @Test
+    public void testBufferIsReusedAcrossScrapes() {
+        Buffer buffer = new Buffer();
+        List<Double> applied = new ArrayList<>();
+        for (int scrape = 0; scrape < 3; scrape++) {
+            int observations = 1000 * (scrape + 1);
+            // Simulate observations arriving while the scrape is running.
+            buffer.run(
+                    expectedCount -> true,
+                    () -> {
+                        for (int i = 0; i < observations; i++) {
+                            Assert.assertTrue(buffer.append(i));
+                        }
+                        return null;
+                    },
+                    applied::add
+            );
+            Assert.assertEquals(observations, applied.size());
+            for (int i = 0; i < observations; i++) {
+                Assert.assertEquals(i, applied.get(i), 0.0);
+            }
+            applied.clear();
+            Assert.assertFalse(buffer.append(1.0));
+        }
+    }
+
+    @Test
+    public void testChunksAreAllocatedLazilyAndReleased() {
+        Buffer buffer = new Buffer();
+        Assert.assertFalse(buffer.append(1.0));
+        buffer.run(expectedCount -> true, () -> null, value -> Assert.fail());
+        Assert.assertEquals(0, buffer.getNumberOfChunks());
+
+        List<Double> applied = new ArrayList<>();
+        buffer.run(
+                expectedCount -> true,
+                () -> {
+                    // All appends are from this thread, so they go to the same stripe and need several chunks.
+                    for (int i = 0; i < 1000; i++) {
+                        Assert.assertTrue(buffer.append(i));
+                    }
+                    Assert.assertTrue(buffer.getNumberOfChunks() > 1);
+                    return null;
+                },
+                applied::add
+        );
+        Assert.assertEquals(1000, applied.size());
+        // Only the first chunk is kept for the next scrape.
+        Assert.assertEquals(1, buffer.getNumberOfChunks());
+    }
+}
@@ -0,0 +1,111 @@
+package io.prometheus.metrics.core.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+public class ClassicBucketIndexTest {
+
+    @Test
+    public void testBinarySearch() {
+        for (int n = 1; n <= 20; n++) {
+            double[] upperBounds = new double[n];
+            for (int i = 0; i < n - 1; i++) {
+                upperBounds[i] = i * i - 3;
+            }
+            upperBounds[n - 1] = Double.POSITIVE_INFINITY;
+            assertIndex(ClassicBucketIndex.binarySearch(upperBounds));
+        }
+    }
+
+    @Test
+    public void testLinear() {
+        assertArithmetic(ClassicBucketIndex.linear(linear(1.0, 0.5, 10), 1.0, 0.5));
+        assertArithmetic(ClassicBucketIndex.linear(linear(0.0, 0.1, 100), 0.0, 0.1));
+        assertArithmetic(ClassicBucketIndex.linear(linear(-5.0, 0.3, 40), -5.0, 0.3));
+    }
+
+    @Test
+    public void testExponential() {
+        assertArithmetic(ClassicBucketIndex.exponential(exponential(1.0, 2.0, 10), 1.0, 2.0));
+        assertArithmetic(ClassicBucketIndex.exponential(exponential(0.001, 1.2, 100), 0.001, 1.2));
+        assertArithmetic(ClassicBucketIndex.exponential(exponential(0.005, 1.5, 40), 0.005, 1.5));
+    }
+
+    @Test
+    public void testFormulaDoesNotMatchUpperBounds() {
+        // This happens if the upper bounds are overwritten with a config property.
+        double[] upperBounds = {0.1, 0.2, 0.7, 5.0, Double.POSITIVE_INFINITY};
+        assertIndex(ClassicBucketIndex.linear(upperBounds, 1.0, 0.5));
+        assertIndex(ClassicBucketIndex.exponential(upperBounds, 1.0, 2.0));
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram linear = Histogram.builder().name("linear").classicOnly().classicLinearUpperBounds(1.0, 1.0, 3).build();
+        Histogram exponential = Histogram.builder().name("exponential").classicOnly().classicExponentialUpperBounds(1.0, 2.0, 3).build();
+        Histogram custom = Histogram.builder().name("custom").classicOnly().classicUpperBounds(1.0, 2.0, 4.0).build();
+        for (Histogram histogram : new Histogram[]{linear, exponential, custom}) {
+            histogram.observe(1.0);
+            histogram.observe(1.5);
+            histogram.observe(2.0);
+            histogram.observe(Double.POSITIVE_INFINITY);
+            Assert.assertEquals(2, histogram.collect().getDataPoints().get(0).getClassicBuckets().getCount(1));
+            Assert.assertEquals(1, histogram.collect().getDataPoints().get(0).getClassicBuckets().getCount(3));
+        }
+    }
+
+    private void assertArithmetic(ClassicBucketIndex index) {
+        // The formula matches the upper bounds, so there should be no fallback to binary search.
+        Assert.assertNotEquals("BinarySearch", index.getClass().getSimpleName());
+        assertIndex(index);
+    }
+
+    private void assertIndex(ClassicBucketIndex index) {
+        double[] upperBounds = index.upperBounds;
+        Random random = new Random(0);
+        for (double upperBound : upperBounds) {
+            assertIndex(index, upperBound);
+            assertIndex(index, Math.nextUp(upperBound));
+            assertIndex(index, Math.nextDown(upperBound));
+        }
+        assertIndex(index, Double.NEGATIVE_INFINITY);
+        assertIndex(index, Double.POSITIVE_INFINITY);
+        assertIndex(index, 0.0);
+        double min = upperBounds[0];
+        double max = upperBounds.length > 1 ? upperBounds[upperBounds.length - 2] : 1.0;
+        for (int i = 0; i < 10_000; i++) {
+            assertIndex(index, min - 1.0 + random.nextDouble() * (max - min + 2.0));
+        }
+    }
+
+    private void assertIndex(ClassicBucketIndex index, double value) {
+        int expected = 0;
+        while (value > index.upperBounds[expected]) {
+            expected++;
+        }
+        Assert.assertEquals("value " + value, expected, index.indexOf(value));
+    }
+
+    // same as Histogram.Builder.classicLinearUpperBounds(), plus +Inf
+    private double[] linear(double start, double width, int count) {
+        double[] result = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            result[i] = new BigDecimal(Double.toString(start)).add(new BigDecimal(Double.toString(width)).multiply(new BigDecimal(i))).doubleValue();
+        }
+        result[count] = Double.POSITIVE_INFINITY;
+        return result;
+    }
+
+    // same as Histogram.Builder.classicExponentialUpperBounds(), plus +Inf
+    private double[] exponential(double start, double factor, int count) {
+        double[] result = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            result[i] = start * Math.pow(factor, i);
+        }
+        result[count] = Double.POSITIVE_INFINITY;
+        return result;
+    }
+}
@@ -82,6 +82,58 @@ public class CounterTest {
         assertEquals(8.0, getValue(noLabels), .001);
     }
 
+    @Test
+    public void testSingleWriter() throws InterruptedException {
+        Counter counter = Counter.builder()
+                .name("events")
+                .labelNames("thread")
+                .singleWriter()
+                .build();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String threadName = "thread-" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    counter.labelValues(threadName).inc();
+                    counter.labelValues(threadName).inc(0.5);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            assertEquals(15_000.0, getValue(counter, "thread", "thread-" + t), .001);
+        }
+    }
+
+    @Test
+    public void testSingleWriterOverflowIsThreadSafe() throws InterruptedException {
+        Counter counter = Counter.builder()
+                .name("events")
+                .labelNames("thread")
+                .singleWriter()
+                .cardinalityLimit(1)
+                .build();
+        counter.labelValues("main").inc();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String threadName = "thread-" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    counter.labelValues(threadName).inc();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1.0, getValue(counter, "thread", "main"), .001);
+        assertEquals(40_000.0, getValue(counter, "thread", StatefulMetric.OVERFLOW_LABEL_VALUE), .001);
+    }
+
     @Test
     public void testNegativeIncrementFails() {
         thrown.expect(IllegalArgumentException.class);
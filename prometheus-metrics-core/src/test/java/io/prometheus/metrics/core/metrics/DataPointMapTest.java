@@ -0,0 +1,127 @@
+package io.prometheus.metrics.core.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+public class DataPointMapTest {
+
+    @Test
+    public void testOneLabel() {
+        DataPointMap<String> map = new DataPointMap<>(1, 1);
+        for (int i = 0; i < 1000; i++) {
+            String value = "v" + i;
+            Assert.assertEquals(value, map.computeIfAbsent(new String[]{value}, () -> value));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("v" + i, map.get("v" + i));
+            Assert.assertEquals("v" + i, map.get(new String[]{"v" + i}));
+        }
+        Assert.assertNull(map.get("v1000"));
+        assertContent(map, 1000);
+    }
+
+    @Test
+    public void testTwoLabels() {
+        DataPointMap<String> map = new DataPointMap<>(2, 1);
+        for (int i = 0; i < 1000; i++) {
+            String value = "v" + i;
+            map.computeIfAbsent(new String[]{value, value}, () -> value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("v" + i, map.get("v" + i, "v" + i));
+            Assert.assertEquals("v" + i, map.get(new String[]{"v" + i, "v" + i}));
+            Assert.assertNull(map.get("v" + i, "x"));
+        }
+        assertContent(map, 1000);
+    }
+
+    @Test
+    public void testThreeLabels() {
+        DataPointMap<String> map = new DataPointMap<>(3, 1);
+        for (int i = 0; i < 1000; i++) {
+            String value = "v" + i;
+            map.computeIfAbsent(new String[]{value, value, value}, () -> value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("v" + i, map.get("v" + i, "v" + i, "v" + i));
+            Assert.assertEquals("v" + i, map.get(new String[]{"v" + i, "v" + i, "v" + i}));
+            Assert.assertNull(map.get("v" + i, "v" + i, "x"));
+        }
+        assertContent(map, 1000);
+    }
+
+    @Test
+    public void testManyLabels() {
+        DataPointMap<String> map = new DataPointMap<>(4, 1);
+        for (int i = 0; i < 1000; i++) {
+            String value = "v" + i;
+            map.computeIfAbsent(new String[]{value, value, value, value}, () -> value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("v" + i, map.get("v" + i, "v" + i, "v" + i, "v" + i));
+        }
+        assertContent(map, 1000);
+    }
+
+    @Test
+    public void testRemove() {
+        DataPointMap<String> map = new DataPointMap<>(2, 1);
+        for (int i = 0; i < 100; i++) {
+            String value = "v" + i;
+            map.computeIfAbsent(new String[]{value, value}, () -> value);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            Assert.assertEquals("v" + i, map.remove("v" + i, "v" + i));
+        }
+        Assert.assertNull(map.remove("v0", "v0"));
+        Assert.assertNull(map.remove("v1")); // wrong number of label values
+        Assert.assertEquals(50, map.size());
+        for (int i = 0; i < 100; i++) {
+            if (i % 2 == 0) {
+                Assert.assertNull(map.get("v" + i, "v" + i));
+            } else {
+                Assert.assertEquals("v" + i, map.get("v" + i, "v" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testComputeIfAbsentReturnsExisting() {
+        DataPointMap<String> map = new DataPointMap<>(1, 16);
+        Assert.assertEquals("first", map.computeIfAbsent(new String[]{"a"}, () -> "first"));
+        Assert.assertEquals("first", map.computeIfAbsent(new String[]{"a"}, () -> "second"));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testClear() {
+        DataPointMap<String> map = new DataPointMap<>(1, 4);
+        for (int i = 0; i < 100; i++) {
+            String value = "v" + i;
+            map.computeIfAbsent(new String[]{value}, () -> value);
+        }
+        map.clear();
+        assertContent(map, 0);
+        Assert.assertNull(map.get("v1"));
+        Assert.assertEquals("v1", map.computeIfAbsent(new String[]{"v1"}, () -> "v1"));
+        assertContent(map, 1);
+    }
+
+    private void assertContent(DataPointMap<String> map, int expectedSize) {
+        Map<List<String>, String> content = new HashMap<>();
+        map.forEach((labelValues, dataPoint) -> content.put(asList(labelValues), dataPoint));
+        Assert.assertEquals(expectedSize, content.size());
+        Assert.assertEquals(expectedSize, map.size());
+        for (Map.Entry<List<String>, String> entry : content.entrySet()) {
+            for (String labelValue : entry.getKey()) {
+                Assert.assertEquals(entry.getValue(), labelValue);
+            }
+        }
+    }
+}
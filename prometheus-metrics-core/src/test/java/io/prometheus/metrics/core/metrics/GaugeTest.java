@@ -59,6 +59,34 @@ public class GaugeTest {
         assertEquals(8.0, getValue(noLabels), .001);
     }
 
+    @Test
+    public void testSingleWriter() throws InterruptedException {
+        Gauge gauge = Gauge.builder()
+                .name("queue_size")
+                .labelNames("thread")
+                .singleWriter()
+                .build();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String threadName = "thread-" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    gauge.labelValues(threadName).inc(2);
+                    gauge.labelValues(threadName).dec();
+                }
+                gauge.labelValues(threadName + "-set").set(42.0);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            assertEquals(10_000.0, getValue(gauge, "thread", "thread-" + t), .001);
+            assertEquals(42.0, getValue(gauge, "thread", "thread-" + t + "-set"), .001);
+        }
+    }
+
     @Test
     public void testDecrement() {
         noLabels.dec();
@@ -21,6 +21,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -1299,6 +1300,181 @@ public class HistogramTest {
         Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testNativeBucketsFarApart() {
+        // Observations far apart don't need a huge bucket array, so there is no reason to scale down.
+        Histogram histogram = Histogram.builder().name("test").nativeOnly().nativeInitialSchema(5).build();
+        histogram.observe(Math.pow(2, -100)); // 2^-128 would be in the zero bucket
+        histogram.observe(1e300);
+        histogram.observe(Double.POSITIVE_INFINITY);
+        HistogramSnapshot.HistogramDataPointSnapshot data = histogram.collect().getDataPoints().get(0);
+        Assert.assertEquals(5, data.getNativeSchema());
+        Assert.assertEquals(3, data.getNativeBucketsForPositiveValues().size());
+    }
+
+    @Test
+    public void testRecorder() {
+        // A recorder should produce the same result as observing directly, including scaling down native buckets.
+        Random random = new Random(0);
+        for (int n : new int[]{10, 1000, 10_000}) {
+            Histogram direct = Histogram.builder().name("direct").labelNames("path").build();
+            Histogram batched = Histogram.builder().name("batched").labelNames("path").build();
+            Histogram.Recorder recorder = batched.newRecorder("/");
+            for (int i = 0; i < n; i++) {
+                double value = (random.nextDouble() - 0.2) * Math.pow(10, random.nextInt(6) - 3);
+                direct.labelValues("/").observe(value);
+                recorder.observe(value);
+            }
+            recorder.observe(0.0);
+            direct.labelValues("/").observe(0.0);
+            recorder.observe(Double.POSITIVE_INFINITY);
+            direct.labelValues("/").observe(Double.POSITIVE_INFINITY);
+            assertSameData(getData(direct, "path", "/"), getData(batched, "path", "/"));
+            recorder.close();
+            assertSameData(getData(direct, "path", "/"), getData(batched, "path", "/"));
+        }
+    }
+
+    @Test
+    public void testRecorderCollect() {
+        Histogram histogram = Histogram.builder().name("test").classicUpperBounds(1.0, 2.0).build();
+        Histogram.Recorder recorder = histogram.newRecorder();
+        recorder.observe(0.5);
+        recorder.observe(1.5);
+        // pending observations are merged by collect()
+        assertEquals(2, getData(histogram).getCount());
+        assertEquals(1, getBucket(histogram, 1.0).getCount());
+        // ... and not counted twice
+        assertEquals(2, getData(histogram).getCount());
+        histogram.observe(1.5);
+        recorder.observe(3.0);
+        recorder.flush();
+        assertEquals(4, getData(histogram).getCount());
+        assertEquals(1, getBucket(histogram, Double.POSITIVE_INFINITY).getCount());
+        recorder.close();
+        // observations after close() go directly to the histogram
+        recorder.observe(3.0);
+        assertEquals(5, getData(histogram).getCount());
+        assertEquals(9.5, getData(histogram).getSum(), 0.0000001);
+    }
+
+    @Test
+    public void testRecorderMultithreaded() throws InterruptedException {
+        Histogram histogram = Histogram.builder()
+                .name("test")
+                .nativeMaxNumberOfBuckets(20)
+                .build();
+        int nThreads = 4;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            threads[t] = new Thread(() -> {
+                Histogram.Recorder recorder = histogram.newRecorder();
+                Random random = new Random();
+                for (int i = 0; i < 50_000; i++) {
+                    recorder.observe(random.nextDouble() * 100);
+                }
+                recorder.close();
+            });
+            threads[t].start();
+        }
+        long lastCount = 0;
+        while (Arrays.stream(threads).anyMatch(Thread::isAlive)) {
+            HistogramSnapshot.HistogramDataPointSnapshot data = getData(histogram);
+            Assert.assertTrue(data.getCount() >= lastCount);
+            long classicCount = 0;
+            for (int i = 0; i < data.getClassicBuckets().size(); i++) {
+                classicCount += data.getClassicBuckets().getCount(i);
+            }
+            Assert.assertEquals(data.getCount(), classicCount);
+            lastCount = data.getCount();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        HistogramSnapshot.HistogramDataPointSnapshot data = getData(histogram);
+        assertEquals(nThreads * 50_000, data.getCount());
+        Assert.assertTrue(data.getNativeBucketsForPositiveValues().size() <= 20);
+        long nativeCount = data.getNativeZeroCount();
+        for (int i = 0; i < data.getNativeBucketsForPositiveValues().size(); i++) {
+            nativeCount += data.getNativeBucketsForPositiveValues().getCount(i);
+        }
+        assertEquals(nThreads * 50_000, nativeCount);
+    }
+
+    @Test
+    public void testRecorderAfterRemove() {
+        Histogram histogram = Histogram.builder().name("test").labelNames("path").build();
+        Histogram.Recorder recorder = histogram.newRecorder("/");
+        recorder.observe(1.0);
+        assertEquals(1, getData(histogram, "path", "/").getCount());
+        histogram.remove("/");
+        assertEquals(0, histogram.collect().getDataPoints().size());
+        // The recorder continues with a new data point rather than updating the removed one.
+        recorder.observe(2.0);
+        assertEquals(1, getData(histogram, "path", "/").getCount());
+        assertEquals(2.0, getData(histogram, "path", "/").getSum(), 0.0);
+        histogram.clear();
+        recorder.observe(3.0);
+        recorder.observe(4.0);
+        assertEquals(2, getData(histogram, "path", "/").getCount());
+        assertEquals(7.0, getData(histogram, "path", "/").getSum(), 0.0);
+        // Removing other data points does not affect the recorder.
+        histogram.labelValues("/other").observe(5.0);
+        histogram.remove("/other");
+        recorder.observe(5.0);
+        assertEquals(3, getData(histogram, "path", "/").getCount());
+        recorder.close();
+        histogram.remove("/");
+        recorder.observe(6.0);
+        assertEquals(1, getData(histogram, "path", "/").getCount());
+    }
+
+    @Test
+    public void testUnclosedRecorderIsReleased() throws Exception {
+        Histogram histogram = Histogram.builder().name("test").build();
+        WeakReference<Histogram.Recorder> recorder = observeWithoutClosing(histogram, 3);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (recorder.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(recorder.get());
+        // The observations are not lost, and the data point stops tracking the recorder.
+        assertEquals(3, getData(histogram).getCount());
+        Field recorders = Histogram.DataPoint.class.getDeclaredField("recorders");
+        recorders.setAccessible(true);
+        assertEquals(0, ((List<?>) recorders.get(histogram.labelValues())).size());
+        assertEquals(3, getData(histogram).getCount());
+    }
+
+    private WeakReference<Histogram.Recorder> observeWithoutClosing(Histogram histogram, int n) {
+        Histogram.Recorder recorder = histogram.newRecorder();
+        for (int i = 0; i < n; i++) {
+            recorder.observe(1.0);
+        }
+        return new WeakReference<>(recorder);
+    }
+
+    private void assertSameData(HistogramSnapshot.HistogramDataPointSnapshot expected, HistogramSnapshot.HistogramDataPointSnapshot actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum(), 0.0000001);
+        assertEquals(expected.getNativeSchema(), actual.getNativeSchema());
+        assertEquals(expected.getNativeZeroCount(), actual.getNativeZeroCount());
+        assertEquals(expected.getNativeZeroThreshold(), actual.getNativeZeroThreshold(), 0.0);
+        for (int i = 0; i < expected.getClassicBuckets().size(); i++) {
+            assertEquals(expected.getClassicBuckets().getCount(i), actual.getClassicBuckets().getCount(i));
+        }
+        assertEquals(expected.getNativeBucketsForPositiveValues().size(), actual.getNativeBucketsForPositiveValues().size());
+        for (int i = 0; i < expected.getNativeBucketsForPositiveValues().size(); i++) {
+            assertEquals(expected.getNativeBucketsForPositiveValues().getBucketIndex(i), actual.getNativeBucketsForPositiveValues().getBucketIndex(i));
+            assertEquals(expected.getNativeBucketsForPositiveValues().getCount(i), actual.getNativeBucketsForPositiveValues().getCount(i));
+        }
+        assertEquals(expected.getNativeBucketsForNegativeValues().size(), actual.getNativeBucketsForNegativeValues().size());
+        for (int i = 0; i < expected.getNativeBucketsForNegativeValues().size(); i++) {
+            assertEquals(expected.getNativeBucketsForNegativeValues().getBucketIndex(i), actual.getNativeBucketsForNegativeValues().getBucketIndex(i));
+            assertEquals(expected.getNativeBucketsForNegativeValues().getCount(i), actual.getNativeBucketsForNegativeValues().getCount(i));
+        }
+    }
 
     private HistogramSnapshot.HistogramDataPointSnapshot getData(Histogram histogram, String... labels) {
         return histogram.collect().getDataPoints().stream()
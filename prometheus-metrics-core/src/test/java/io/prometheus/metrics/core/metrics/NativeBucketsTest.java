@@ -0,0 +1,150 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.snapshots.NativeHistogramBucket;
+import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class NativeBucketsTest {
+
+    @Test
+    public void testGrowInBothDirections() {
+        NativeBuckets buckets = new NativeBuckets();
+        Assert.assertTrue(buckets.increment(0));
+        Assert.assertFalse(buckets.increment(0));
+        Assert.assertTrue(buckets.increment(100));
+        Assert.assertTrue(buckets.increment(-100));
+        Assert.assertTrue(buckets.increment(-101));
+        Assert.assertTrue(buckets.increment(1000));
+        Assert.assertFalse(buckets.increment(-100));
+        Assert.assertEquals(5, buckets.size());
+        assertBuckets(buckets, new int[]{-101, -100, 0, 100, 1000}, new long[]{1, 2, 2, 1, 1});
+        Assert.assertEquals(-101, buckets.smallestIndex());
+    }
+
+    @Test
+    public void testRemove() {
+        NativeBuckets buckets = new NativeBuckets();
+        Assert.assertEquals(Integer.MAX_VALUE, buckets.smallestIndex());
+        buckets.increment(3);
+        buckets.increment(3);
+        buckets.increment(5);
+        Assert.assertEquals(2, buckets.remove(3));
+        Assert.assertEquals(0, buckets.remove(3));
+        Assert.assertEquals(0, buckets.remove(-1000));
+        Assert.assertEquals(1, buckets.size());
+        Assert.assertEquals(5, buckets.smallestIndex());
+        Assert.assertTrue(buckets.increment(3));
+        buckets.clear();
+        Assert.assertEquals(0, buckets.size());
+        assertBuckets(buckets, new int[]{}, new long[]{});
+    }
+
+    @Test
+    public void testDoubleBucketWidth() {
+        // Bucket index i for schema n is part of bucket ceil(i/2) for schema n-1.
+        NativeBuckets buckets = new NativeBuckets();
+        for (int i = -4; i <= 4; i++) {
+            buckets.increment(i);
+        }
+        buckets.doubleBucketWidth();
+        assertBuckets(buckets, new int[]{-2, -1, 0, 1, 2}, new long[]{1, 2, 2, 2, 2});
+        buckets.doubleBucketWidth();
+        assertBuckets(buckets, new int[]{-1, 0, 1}, new long[]{1, 4, 4});
+        Assert.assertEquals(3, buckets.size());
+    }
+
+    @Test
+    public void testConcurrentIncrement() throws InterruptedException {
+        NativeBuckets buckets = new NativeBuckets();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int direction = t % 2 == 0 ? 1 : -1;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    buckets.increment(direction * (i % 500));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (NativeHistogramBucket bucket : buckets.toBuckets()) {
+            total += bucket.getCount();
+        }
+        Assert.assertEquals(80_000, total);
+        Assert.assertEquals(999, buckets.size());
+    }
+
+    @Test
+    public void testWindowSizeIsBounded() throws Exception {
+        // At schema 5, 2^-128 and 2^128 are more than 8000 bucket indexes apart.
+        NativeBuckets buckets = new NativeBuckets();
+        buckets.increment(-4096);
+        buckets.increment(1);
+        buckets.increment(4096);
+        Assert.assertFalse(buckets.increment(4096));
+        buckets.increment(2);
+        Assert.assertEquals(4, buckets.size());
+        Assert.assertTrue(windowCapacity(buckets) <= 64);
+        assertBuckets(buckets, new int[]{-4096, 1, 2, 4096}, new long[]{1, 1, 1, 2});
+        Assert.assertEquals(-4096, buckets.smallestIndex());
+
+        buckets.doubleBucketWidth();
+        Assert.assertTrue(windowCapacity(buckets) <= 64);
+        assertBuckets(buckets, new int[]{-2048, 1, 2048}, new long[]{1, 2, 2});
+
+        Assert.assertEquals(1, buckets.remove(-2048));
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(1, buckets.smallestIndex());
+        assertBuckets(buckets, new int[]{1, 2048}, new long[]{2, 2});
+    }
+
+    @Test
+    public void testWindowMovesToMostBuckets() throws Exception {
+        // If the first observation is far away from the others, the window moves to the others.
+        NativeBuckets buckets = new NativeBuckets();
+        buckets.increment(100_000);
+        for (int i = 0; i < 100; i++) {
+            buckets.increment(i);
+        }
+        Assert.assertEquals(101, buckets.size());
+        Assert.assertTrue(windowCapacity(buckets) <= 4 * (101 + 1));
+        Assert.assertTrue(windowCapacity(buckets) >= 100);
+        NativeHistogramBuckets result = buckets.toBuckets();
+        Assert.assertEquals(101, result.size());
+        Assert.assertEquals(0, result.getBucketIndex(0));
+        Assert.assertEquals(100_000, result.getBucketIndex(100));
+    }
+
+    private int windowCapacity(NativeBuckets buckets) throws Exception {
+        Field windowField = NativeBuckets.class.getDeclaredField("window");
+        windowField.setAccessible(true);
+        Object window = windowField.get(buckets);
+        Field countsField = window.getClass().getDeclaredField("counts");
+        countsField.setAccessible(true);
+        return ((AtomicReferenceArray<?>) countsField.get(window)).length();
+    }
+
+    private void assertBuckets(NativeBuckets buckets, int[] expectedIndexes, long[] expectedCounts) {
+        NativeHistogramBuckets result = buckets.toBuckets();
+        List<Integer> indexes = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        for (NativeHistogramBucket bucket : result) {
+            indexes.add(bucket.getBucketIndex());
+            counts.add(bucket.getCount());
+        }
+        Assert.assertEquals(expectedIndexes.length, indexes.size());
+        for (int i = 0; i < expectedIndexes.length; i++) {
+            Assert.assertEquals(expectedIndexes[i], indexes.get(i).intValue());
+            Assert.assertEquals(expectedCounts[i], counts.get(i).longValue());
+        }
+    }
+}
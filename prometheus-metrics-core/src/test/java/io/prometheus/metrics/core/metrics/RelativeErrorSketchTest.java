@@ -0,0 +1,211 @@
+package io.prometheus.metrics.core.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RelativeErrorSketchTest {
+
+    private final double[] quantiles = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999};
+
+    @Test
+    public void testEmpty() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 2048);
+        Assert.assertTrue(Double.isNaN(sketch.get(0.5)));
+    }
+
+    @Test
+    public void testRelativeError() {
+        Random random = new Random(0);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal, like latencies in seconds
+            values[i] = Math.exp(random.nextGaussian() - 3);
+        }
+        assertRelativeError(0.01, values);
+        assertRelativeError(0.05, values);
+    }
+
+    @Test
+    public void testNegativeValuesAndZero() {
+        Random random = new Random(1);
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 10 == 0 ? 0.0 : random.nextGaussian() * 100;
+        }
+        assertRelativeError(0.01, values);
+    }
+
+    @Test
+    public void testMinMax() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 2048);
+        sketch.add(3.0);
+        sketch.add(-7.0);
+        sketch.add(42.0);
+        Assert.assertEquals(-7.0, sketch.get(0.0), 0.0);
+        Assert.assertEquals(42.0, sketch.get(1.0), 0.0);
+        sketch.add(Double.POSITIVE_INFINITY);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, sketch.get(1.0), 0.0);
+        Assert.assertEquals(42.0, sketch.get(0.67), 42.0 * 0.01);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(2);
+        RelativeErrorSketch a = new RelativeErrorSketch(0.01, 2048);
+        RelativeErrorSketch b = new RelativeErrorSketch(0.01, 2048);
+        RelativeErrorSketch all = new RelativeErrorSketch(0.01, 2048);
+        for (int i = 0; i < 10_000; i++) {
+            // different ranges, so that merging needs to extend the bucket window
+            double value = i % 2 == 0 ? random.nextDouble() : 1000 * random.nextDouble();
+            (i % 2 == 0 ? a : b).add(value);
+            all.add(value);
+        }
+        RelativeErrorSketch merged = new RelativeErrorSketch(0.01, 2048);
+        merged.merge(a);
+        merged.merge(b);
+        Assert.assertEquals(all.getCount(), merged.getCount());
+        for (double q : quantiles) {
+            Assert.assertEquals(all.get(q), merged.get(q), 0.0);
+        }
+    }
+
+    @Test
+    public void testClear() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 2048);
+        for (int i = 1; i <= 100; i++) {
+            sketch.add(i);
+        }
+        sketch.clear();
+        Assert.assertTrue(Double.isNaN(sketch.get(0.5)));
+        sketch.add(1e6);
+        Assert.assertEquals(1e6, sketch.get(0.5), 0.0);
+        Assert.assertEquals(1, sketch.getCount());
+    }
+
+    @Test
+    public void testCollapseLowestBuckets() {
+        // With 300 buckets and 1% error the sketch covers values from x to about 400x.
+        RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 300);
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.pow(10, 8.0 * i / values.length - 4); // 1e-4 to 1e4
+        }
+        shuffle(values, new Random(3));
+        for (double value : values) {
+            sketch.add(value);
+        }
+        Arrays.sort(values);
+        // High quantiles are still accurate.
+        for (double q : new double[]{0.9, 0.95, 0.99}) {
+            double expected = values[(int) (q * (values.length - 1))];
+            Assert.assertEquals(expected, sketch.get(q), expected * 0.01 * 1.01);
+        }
+        // Low quantiles are collapsed into the lowest bucket, but never below the minimum.
+        Assert.assertTrue(sketch.get(0.01) >= values[0]);
+        Assert.assertTrue(sketch.get(0.01) < values[values.length * 3 / 4]);
+    }
+
+    @Test
+    public void testQuantileEstimatorRotation() {
+        AtomicLong currentTimeMillis = new AtomicLong(System.currentTimeMillis());
+        RelativeErrorQuantileEstimator estimator = new RelativeErrorQuantileEstimator(0.01, 30, 3, currentTimeMillis::get);
+        double[] median = {0.5};
+        estimator.observe(1.0);
+        currentTimeMillis.addAndGet(10_000);
+        estimator.observe(2.0);
+        estimator.observe(2.0);
+        Assert.assertEquals(2.0, estimator.get(median)[0], 0.02);
+        currentTimeMillis.addAndGet(10_000);
+        estimator.observe(1.0);
+        estimator.observe(1.0);
+        estimator.observe(1.0);
+        Assert.assertEquals(1.0, estimator.get(median)[0], 0.01);
+        currentTimeMillis.addAndGet(10_000); // the first observation is out of the time window
+        Assert.assertEquals(2.0, estimator.get(new double[]{1.0})[0], 0.0);
+        Assert.assertEquals(1.0, estimator.get(new double[]{0.0})[0], 0.0);
+        currentTimeMillis.addAndGet(10_000);
+        Assert.assertEquals(1.0, estimator.get(new double[]{1.0})[0], 0.0);
+        currentTimeMillis.addAndGet(10_000);
+        Assert.assertTrue(Double.isNaN(estimator.get(median)[0]));
+        // The age bucket is cleared in place when it is reused.
+        estimator.observe(5.0);
+        Assert.assertEquals(5.0, estimator.get(median)[0], 0.0);
+    }
+
+    @Test
+    public void testQuantileEstimatorStripes() throws InterruptedException {
+        RelativeErrorQuantileEstimator estimator = new RelativeErrorQuantileEstimator(0.01, 30, 3, System::currentTimeMillis);
+        for (int i = 1; i <= 1000; i++) {
+            estimator.observe(i);
+        }
+        // No contention, so there is no need for more than one stripe.
+        Assert.assertEquals(1, estimator.getNumberOfStripes());
+        int nThreads = 4;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    estimator.observe(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        Assert.assertTrue(estimator.getNumberOfStripes() <= Integer.highestOneBit(2 * processors - 1));
+        // Same distribution as single-threaded, regardless of how the observations were spread over the stripes.
+        Assert.assertEquals(500, estimator.get(new double[]{0.5})[0], 500 * 0.01);
+        Assert.assertEquals(990, estimator.get(new double[]{0.99})[0], 990 * 0.01);
+        Assert.assertEquals(1000, estimator.get(new double[]{1.0})[0], 0.0);
+    }
+
+    @Test
+    public void testSummary() {
+        Summary summary = Summary.builder()
+                .name("test")
+                .quantile(0.5)
+                .quantile(0.99)
+                .relativeError(0.01)
+                .build();
+        for (int i = 1; i <= 1000; i++) {
+            summary.observe(i);
+        }
+        io.prometheus.metrics.model.snapshots.Quantiles result = summary.collect().getDataPoints().get(0).getQuantiles();
+        Assert.assertEquals(500, result.get(0).getValue(), 500 * 0.01);
+        Assert.assertEquals(990, result.get(1).getValue(), 990 * 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRelativeError() {
+        Summary.builder().name("test").relativeError(1.0);
+    }
+
+    private void assertRelativeError(double relativeError, double[] values) {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(relativeError, 2048);
+        for (double value : values) {
+            sketch.add(value);
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : quantiles) {
+            double expected = sorted[(int) (q * (sorted.length - 1))];
+            // small tolerance for floating point rounding at bucket boundaries
+            Assert.assertEquals("quantile " + q, expected, sketch.get(q), Math.abs(expected) * relativeError * 1.0001);
+        }
+    }
+
+    private void shuffle(double[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
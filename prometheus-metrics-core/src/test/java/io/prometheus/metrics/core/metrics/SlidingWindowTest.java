@@ -18,6 +18,10 @@ public class SlidingWindowTest {
             values.add(value);
         }
 
+        void reset() {
+            values.clear();
+        }
+
         void assertValues(double... expectedValues) {
             ArrayList<Double> expectedList = new ArrayList<>();
             for (double expectedValue : expectedValues) {
@@ -36,8 +40,7 @@ public class SlidingWindowTest {
     @Before
     public void setUp() {
         currentTimeMillis.set(System.currentTimeMillis());
-        ringBuffer = new SlidingWindow<>(Observer.class, Observer::new, Observer::observe, maxAgeSeconds, ageBuckets);
-        ringBuffer.currentTimeMillis = currentTimeMillis::get;
+        ringBuffer = new SlidingWindow<>(Observer.class, Observer::new, null, Observer::observe, maxAgeSeconds, ageBuckets, currentTimeMillis::get);
     }
 
     @Test
@@ -74,4 +77,56 @@ public class SlidingWindowTest {
         currentTimeMillis.addAndGet(3 * timeBetweenRotateMillis); // 10/5 of max age
         ringBuffer.current().assertValues(); // empty
     }
+
+    @Test
+    public void testObserveRotates() {
+        ringBuffer.observe(1.0);
+        currentTimeMillis.addAndGet(ageBuckets * timeBetweenRotateMillis);
+        // The window rotates before the value is observed, so it is not lost in an expired instance.
+        ringBuffer.observe(2.0);
+        ringBuffer.current().assertValues(2.0);
+        currentTimeMillis.addAndGet(timeBetweenRotateMillis);
+        ringBuffer.observe(3.0);
+        ringBuffer.current().assertValues(2.0, 3.0);
+    }
+
+    @Test
+    public void testReset() {
+        List<Observer> instances = new ArrayList<>();
+        ringBuffer = new SlidingWindow<>(Observer.class, () -> {
+            Observer observer = new Observer();
+            instances.add(observer);
+            return observer;
+        }, Observer::reset, Observer::observe, maxAgeSeconds, ageBuckets, currentTimeMillis::get);
+        ringBuffer.observe(1.0);
+        currentTimeMillis.addAndGet(2 * timeBetweenRotateMillis);
+        ringBuffer.observe(2.0);
+        ringBuffer.current().assertValues(1.0, 2.0);
+        currentTimeMillis.addAndGet(7 * timeBetweenRotateMillis);
+        ringBuffer.current().assertValues();
+        ringBuffer.observe(3.0);
+        ringBuffer.current().assertValues(3.0);
+        // Expired instances were reset in place, no new instances were created.
+        Assert.assertEquals(ageBuckets, instances.size());
+    }
+
+    @Test
+    public void testConcurrentObserve() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    ringBuffer.observe(1.0);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // The window didn't rotate, so all age buckets have seen all observations.
+        Assert.assertEquals(80_000, ringBuffer.current().values.size());
+        currentTimeMillis.addAndGet(timeBetweenRotateMillis);
+        Assert.assertEquals(80_000, ringBuffer.current().values.size());
+    }
 }
@@ -1,10 +1,23 @@
 package io.prometheus.metrics.core.metrics;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.util.Clock;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StatefulMetricTest {
 
@@ -18,19 +31,360 @@ public class StatefulMetricTest {
         counter.labelValues("c", "d").inc(3.0);
         counter.labelValues("e", "f").inc(7.0);
 
-        // collect() iterates over data.entrySet().
+        // collect() iterates over data.forEach().
         // remove() removes entries from data.
         // Make sure iterating does not yield null while removing.
 
-        int i = 0;
-        for (Map.Entry<?, ?> entry : ((Map<?, ?>) data.get(counter)).entrySet()) {
-            i++;
-            if (i == 2) {
+        AtomicInteger i = new AtomicInteger(0);
+        ((DataPointMap<?>) data.get(counter)).forEach((labelValues, dataPoint) -> {
+            if (i.incrementAndGet() == 2) {
                 counter.remove("c", "d");
                 counter.remove("e", "f");
             }
-            Assert.assertNotNull(entry.getKey());
-            Assert.assertNotNull(entry.getValue());
+            Assert.assertNotNull(labelValues);
+            Assert.assertNotNull(dataPoint);
+        });
+    }
+
+    @Test
+    public void testLabelValuesFixedArity() {
+        Counter one = Counter.builder().name("one").labelNames("l1").build();
+        Counter two = Counter.builder().name("two").labelNames("l1", "l2").build();
+        Counter three = Counter.builder().name("three").labelNames("l1", "l2", "l3").build();
+        Counter four = Counter.builder().name("four").labelNames("l1", "l2", "l3", "l4").build();
+
+        CounterDataPoint a = one.labelValues("a");
+        Assert.assertSame(a, one.labelValues("a"));
+        Assert.assertSame(a, one.labelValues(new String[]{"a"}));
+        Assert.assertNotSame(a, one.labelValues("b"));
+
+        CounterDataPoint ab = two.labelValues("a", "b");
+        Assert.assertSame(ab, two.labelValues("a", "b"));
+        Assert.assertSame(ab, two.labelValues(new String[]{"a", "b"}));
+        Assert.assertNotSame(ab, two.labelValues("b", "a"));
+
+        CounterDataPoint abc = three.labelValues("a", "b", "c");
+        Assert.assertSame(abc, three.labelValues("a", "b", "c"));
+        Assert.assertSame(abc, three.labelValues(new String[]{"a", "b", "c"}));
+
+        CounterDataPoint abcd = four.labelValues("a", "b", "c", "d");
+        Assert.assertSame(abcd, four.labelValues("a", "b", "c", "d"));
+
+        // The label values array is copied, so modifying it later must not affect the metric.
+        String[] labelValues = new String[]{"x", "y"};
+        CounterDataPoint xy = two.labelValues(labelValues);
+        labelValues[0] = "z";
+        Assert.assertSame(xy, two.labelValues("x", "y"));
+
+        two.remove("a", "b");
+        Assert.assertNotSame(ab, two.labelValues("a", "b"));
+        Assert.assertEquals(3, two.collect().getDataPoints().size()); // (a, b), (b, a), (x, y)
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLabelValuesWrongArity() {
+        Counter.builder().name("test").labelNames("l1", "l2").build().labelValues("a");
+    }
+
+    @Test
+    public void testManyLabelValues() {
+        Counter counter = Counter.builder().name("test").labelNames("l").build();
+        for (int i = 0; i < 10_000; i++) {
+            counter.labelValues(Integer.toString(i)).inc(i);
+        }
+        for (int i = 0; i < 10_000; i += 2) {
+            counter.remove(Integer.toString(i));
+        }
+        CounterSnapshot snapshot = counter.collect();
+        Assert.assertEquals(5_000, snapshot.getDataPoints().size());
+        for (CounterSnapshot.CounterDataPointSnapshot dataPoint : snapshot.getDataPoints()) {
+            int i = Integer.parseInt(dataPoint.getLabels().get("l"));
+            Assert.assertEquals(1, i % 2);
+            Assert.assertEquals(i, dataPoint.getValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testCardinalityLimit() {
+        Counter counter = Counter.builder().name("test").labelNames("path", "status").cardinalityLimit(3).build();
+        CounterDataPoint a = counter.labelValues("/a", "200");
+        counter.labelValues("/b", "200").inc(2.0);
+        counter.labelValues("/c", "200").inc(3.0);
+        CounterDataPoint overflow = counter.labelValues("/d", "200");
+        Assert.assertSame(overflow, counter.labelValues("/e", "500"));
+        Assert.assertNotSame(a, overflow);
+        Assert.assertSame(a, counter.labelValues("/a", "200")); // existing label values still work
+        overflow.inc(4.0);
+        Assert.assertEquals(2, counter.getOverflowRedirectCount());
+
+        CounterSnapshot snapshot = counter.collect();
+        Assert.assertEquals(4, snapshot.getDataPoints().size());
+        for (CounterSnapshot.CounterDataPointSnapshot dataPoint : snapshot.getDataPoints()) {
+            if (dataPoint.getLabels().get("path").equals(Counter.OVERFLOW_LABEL_VALUE)) {
+                Assert.assertEquals(Counter.OVERFLOW_LABEL_VALUE, dataPoint.getLabels().get("status"));
+                Assert.assertEquals(4.0, dataPoint.getValue(), 0.0);
+            }
+        }
+
+        // Removing a data point makes room for a new combination of label values.
+        counter.remove("/b", "200");
+        Assert.assertNotSame(overflow, counter.labelValues("/d", "200"));
+        Assert.assertEquals(2, counter.getOverflowRedirectCount());
+    }
+
+    @Test
+    public void testCardinalityLimitMetrics() {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        Counter counter = Counter.builder().name("limited_requests").labelNames("path").cardinalityLimit(1).register(registry);
+        Counter.builder().name("unlimited_requests").labelNames("path").register(registry);
+        counter.labelValues("/a").inc();
+        for (int i = 0; i < 3; i++) {
+            counter.labelValues("/b").inc(); // the same new label value is counted each time
+        }
+        // A metric with the same name in another registry is not included.
+        PrometheusRegistry otherRegistry = new PrometheusRegistry();
+        Counter other = Counter.builder().name("limited_requests").labelNames("path").cardinalityLimit(1).register(otherRegistry);
+        other.labelValues("/a").inc();
+        other.labelValues("/b").inc();
+        CardinalityLimitMetrics.builder().register(registry);
+        CounterSnapshot snapshot = (CounterSnapshot) registry.scrape().stream()
+                .filter(s -> s.getMetadata().getName().equals("prometheus_cardinality_limit_overflow_calls"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        Assert.assertEquals(1, snapshot.getDataPoints().size());
+        CounterSnapshot.CounterDataPointSnapshot dataPoint = snapshot.getDataPoints().get(0);
+        Assert.assertEquals("limited_requests", dataPoint.getLabels().get("metric"));
+        Assert.assertEquals(3.0, dataPoint.getValue(), 0.0);
+    }
+
+    @Test
+    public void testNoCardinalityLimitByDefault() {
+        Counter counter = Counter.builder().name("test").labelNames("l").build();
+        for (int i = 0; i < 1_000; i++) {
+            counter.labelValues(Integer.toString(i)).inc();
+        }
+        Assert.assertEquals(1_000, counter.collect().getDataPoints().size());
+        Assert.assertEquals(0, counter.getOverflowRedirectCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCardinalityLimit() {
+        Counter.builder().name("test").labelNames("l").cardinalityLimit(-1);
+    }
+
+    @Test
+    public void testIdleExpiry() throws Exception {
+        ManualClock clock = new ManualClock();
+        Clock origClock = Clock.get();
+        Clock.set(clock);
+        try {
+            testIdleExpiry(clock);
+        } finally {
+            Clock.set(origClock);
+        }
+    }
+
+    private void testIdleExpiry(ManualClock clock) throws Exception {
+        Counter counter = Counter.builder().name("counter").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+        Gauge gauge = Gauge.builder().name("gauge").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+        Histogram histogram = Histogram.builder().name("histogram").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+        Summary summary = Summary.builder().name("summary").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+        StateSet stateSet = StateSet.builder().name("state_set").states("s").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+        List<StatefulMetric<?, ?>> metrics = Arrays.asList(counter, gauge, histogram, summary, stateSet);
+        CounterDataPoint idleCounter = counter.labelValues("idle");
+        for (String labelValue : new String[]{"active", "idle"}) {
+            counter.labelValues(labelValue).inc();
+            gauge.labelValues(labelValue).set(1.0);
+            histogram.labelValues(labelValue).observe(1.0);
+            summary.labelValues(labelValue).observe(1.0);
+            stateSet.labelValues(labelValue).setTrue("s");
+        }
+        for (StatefulMetric<?, ?> metric : metrics) {
+            Assert.assertEquals(2, metric.collect().getDataPoints().size());
+        }
+        clock.millis += 1000;
+        counter.labelValues("active").inc();
+        gauge.labelValues("active").set(2.0);
+        histogram.labelValues("active").observe(2.0);
+        summary.labelValues("active").observe(2.0);
+        stateSet.labelValues("active").setFalse("s");
+        for (StatefulMetric<?, ?> metric : metrics) {
+            List<? extends DataPointSnapshot> dataPoints = metric.collect().getDataPoints();
+            Assert.assertEquals(metric.getMetadata().getName(), 1, dataPoints.size());
+            Assert.assertEquals("active", dataPoints.get(0).getLabels().get("l"));
+        }
+        // Idle data points are removed asynchronously by the scheduler.
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (counter.labelValues("idle") == idleCounter) {
+            Assert.assertTrue("idle data point was not removed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, counter.collect().getDataPoints().size());
+    }
+
+    @Test
+    public void testIdleExpiryIsReset() {
+        ManualClock clock = new ManualClock();
+        Clock origClock = Clock.get();
+        Clock.set(clock);
+        try {
+            Counter counter = Counter.builder().name("counter").labelNames("l").idleExpiry(1, TimeUnit.SECONDS).build();
+            CounterDataPoint dataPoint = counter.labelValues("a");
+            dataPoint.inc();
+            Assert.assertEquals(1, counter.collect().getDataPoints().size());
+            // Updated just before the expiry, so the idle time starts again at the next collect().
+            clock.millis += 999;
+            dataPoint.inc();
+            Assert.assertEquals(1, counter.collect().getDataPoints().size());
+            clock.millis += 999;
+            Assert.assertEquals(1, counter.collect().getDataPoints().size());
+            clock.millis += 1;
+            Assert.assertEquals(0, counter.collect().getDataPoints().size());
+        } finally {
+            Clock.set(origClock);
+        }
+    }
+
+    @Test
+    public void testPutBackRespectsCardinalityLimit() {
+        Counter counter = Counter.builder().name("counter").labelNames("l").cardinalityLimit(1).build();
+        Counter.DataPoint a = (Counter.DataPoint) counter.labelValues("a");
+        a.inc(3.0);
+        counter.remove("a");
+        counter.labelValues("b").inc();
+        // An idle data point that was updated while it was removed, but "b" took its place in the meantime.
+        counter.putBack(new String[]{"a"}, a);
+        CounterSnapshot snapshot = counter.collect();
+        Assert.assertEquals(2, snapshot.getDataPoints().size());
+        CounterSnapshot.CounterDataPointSnapshot counterOverflow = getOverflow(snapshot);
+        Assert.assertEquals(3.0, counterOverflow.getValue(), 0.0);
+
+        Gauge gauge = Gauge.builder().name("gauge").labelNames("l").cardinalityLimit(1).build();
+        Gauge.DataPoint g = (Gauge.DataPoint) gauge.labelValues("a");
+        g.set(7.0);
+        gauge.remove("a");
+        gauge.labelValues("b").set(1.0);
+        gauge.putBack(new String[]{"a"}, g);
+        GaugeSnapshot.GaugeDataPointSnapshot gaugeOverflow = getOverflow(gauge.collect());
+        Assert.assertEquals(7.0, gaugeOverflow.getValue(), 0.0);
+
+        Summary summary = Summary.builder().name("summary").labelNames("l").quantile(0.5).cardinalityLimit(1).build();
+        Summary.DataPoint s = (Summary.DataPoint) summary.labelValues("a");
+        s.observe(1.0);
+        s.observe(2.0);
+        summary.remove("a");
+        summary.labelValues("b").observe(1.0);
+        summary.labelValues("c").observe(4.0); // overflow
+        summary.putBack(new String[]{"a"}, s);
+        SummarySnapshot.SummaryDataPointSnapshot summaryOverflow = getOverflow(summary.collect());
+        Assert.assertEquals(3, summaryOverflow.getCount());
+        Assert.assertEquals(7.0, summaryOverflow.getSum(), 0.0);
+    }
+
+    @Test
+    public void testPutBackHistogramRespectsCardinalityLimit() {
+        Histogram histogram = Histogram.builder().name("histogram").labelNames("l").cardinalityLimit(1)
+                .classicUpperBounds(1.0, 2.0)
+                .nativeInitialSchema(3)
+                .build();
+        Histogram.DataPoint a = (Histogram.DataPoint) histogram.labelValues("a");
+        a.observe(0.5);
+        a.observe(1.5);
+        a.observe(1.6);
+        histogram.remove("a");
+        histogram.labelValues("b").observe(0.5);
+        histogram.labelValues("c").observe(3.0); // overflow
+        histogram.putBack(new String[]{"a"}, a);
+        HistogramSnapshot.HistogramDataPointSnapshot overflow = getOverflow(histogram.collect());
+        Assert.assertEquals(4, overflow.getCount());
+        Assert.assertEquals(6.6, overflow.getSum(), 1e-9);
+        ClassicHistogramBuckets classic = overflow.getClassicBuckets();
+        Assert.assertEquals(1, classic.getCount(0));
+        Assert.assertEquals(2, classic.getCount(1));
+        Assert.assertEquals(1, classic.getCount(2));
+        long nativeCount = overflow.getNativeZeroCount();
+        for (int i = 0; i < overflow.getNativeBucketsForPositiveValues().size(); i++) {
+            nativeCount += overflow.getNativeBucketsForPositiveValues().getCount(i);
+        }
+        Assert.assertEquals(4, nativeCount);
+    }
+
+    private static <T extends DataPointSnapshot> T getOverflow(MetricSnapshot snapshot) {
+        for (DataPointSnapshot dataPoint : snapshot.getDataPoints()) {
+            if (dataPoint.getLabels().get("l").equals(StatefulMetric.OVERFLOW_LABEL_VALUE)) {
+                @SuppressWarnings("unchecked")
+                T result = (T) dataPoint;
+                return result;
+            }
+        }
+        throw new AssertionError("overflow data point not found");
+    }
+
+    private static class ManualClock extends Clock {
+
+        private long millis = 1_000_000;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+    }
+
+    @Test
+    public void testClear() {
+        Counter counter = Counter.builder().name("test").labelNames("l").cardinalityLimit(2).build();
+        CounterDataPoint a = counter.labelValues("a");
+        counter.labelValues("b").inc();
+        counter.labelValues("c").inc(); // overflow
+        Assert.assertEquals(3, counter.collect().getDataPoints().size());
+        counter.clear();
+        Assert.assertEquals(0, counter.collect().getDataPoints().size());
+        Assert.assertNotSame(a, counter.labelValues("a"));
+        counter.labelValues("c").inc(); // not overflow anymore
+        Assert.assertEquals(2, counter.collect().getDataPoints().size());
+    }
+
+    @Test
+    public void testClearWithoutLabels() {
+        Counter counter = Counter.builder().name("test").build();
+        counter.inc(3.0);
+        counter.clear();
+        Assert.assertEquals(0.0, counter.collect().getDataPoints().get(0).getValue(), 0.0);
+        counter.inc();
+        Assert.assertEquals(1.0, counter.collect().getDataPoints().get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testClearWhileUpdating() throws Exception {
+        Counter counter = Counter.builder().name("test").labelNames("l").build();
+        Counter noLabels = Counter.builder().name("test_no_labels").build();
+        Thread[] threads = new Thread[4];
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100_000; i++) {
+                        counter.labelValues(Integer.toString(i % 100)).inc();
+                        noLabels.inc();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (int i = 0; i < 100; i++) {
+            counter.clear();
+            noLabels.clear();
+            Assert.assertTrue(counter.collect().getDataPoints().size() <= 100);
+        }
+        for (Thread thread : threads) {
+            thread.join();
         }
+        Assert.assertEquals(0, errors.get());
+        // After clear(), the no-labels counter must still be usable, i.e. updates must be visible.
+        noLabels.clear();
+        noLabels.inc();
+        Assert.assertEquals(1.0, noLabels.collect().getDataPoints().get(0).getValue(), 0.0);
     }
 }
@@ -1,5 +1,67 @@
 package io.prometheus.metrics.core.metrics;
 
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.Exemplars;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
 public class SummaryTest {
   // TODO, port the SummaryTest from simpleclient over.
+
+  @Test
+  public void testExemplars() {
+    Summary summary = Summary.builder()
+        .name("test_seconds")
+        .quantile(0.5)
+        .build();
+    summary.observeWithExemplar(0.2, Labels.of("trace_id", "abc"));
+    SummarySnapshot.SummaryDataPointSnapshot data = summary.collect().getDataPoints().get(0);
+    Assert.assertEquals(1, data.getExemplars().size());
+    Exemplar exemplar = data.getExemplars().get(0);
+    Assert.assertEquals(0.2, exemplar.getValue(), 0.0);
+    Assert.assertEquals(Labels.of("trace_id", "abc"), exemplar.getLabels());
+  }
+
+  @Test
+  public void testExemplarsDisabled() {
+    Summary summary = Summary.builder()
+        .name("test_seconds")
+        .withoutExemplars()
+        .build();
+    summary.observeWithExemplar(0.2, Labels.of("trace_id", "abc"));
+    Assert.assertSame(Exemplars.EMPTY, summary.collect().getDataPoints().get(0).getExemplars());
+  }
+
+  @Test
+  public void testCustomQuantileEstimator() {
+    Summary summary = Summary.builder()
+        .name("test_seconds")
+        .quantile(0.5)
+        .quantile(0.99)
+        .maxAgeSeconds(60)
+        .numberOfAgeBuckets(3)
+        .quantileEstimator((maxAgeSeconds, ageBuckets) -> new QuantileEstimator() {
+          private double max = Double.NaN;
+
+          @Override
+          public void observe(double value) {
+            max = Double.isNaN(max) ? value : Math.max(max, value);
+          }
+
+          @Override
+          public double[] get(double[] quantiles) {
+            Assert.assertArrayEquals(new double[]{0.5, 0.99}, quantiles, 0.0);
+            return new double[]{maxAgeSeconds, max + ageBuckets};
+          }
+        })
+        .build();
+    summary.observe(1.0);
+    summary.observe(2.0);
+    SummarySnapshot.SummaryDataPointSnapshot data = summary.collect().getDataPoints().get(0);
+    Assert.assertEquals(60.0, data.getQuantiles().get(0).getValue(), 0.0);
+    Assert.assertEquals(5.0, data.getQuantiles().get(1).getValue(), 0.0);
+    Assert.assertEquals(2, data.getCount());
+  }
 }
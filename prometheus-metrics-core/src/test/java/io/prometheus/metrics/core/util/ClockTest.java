@@ -0,0 +1,77 @@
+package io.prometheus.metrics.core.util;
+
+import io.prometheus.metrics.config.ClockProperties;
+import io.prometheus.metrics.core.datapoints.Timer;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ClockTest {
+
+    private static class ManualClock extends Clock {
+
+        long millis = 1_000_000L;
+        long nanos = 0L;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+    }
+
+    private Clock origClock;
+    private final ManualClock clock = new ManualClock();
+
+    @Before
+    public void setUp() {
+        origClock = Clock.get();
+        Clock.set(clock);
+    }
+
+    @After
+    public void tearDown() {
+        Clock.set(origClock);
+    }
+
+    @Test
+    public void testFromProperties() {
+        Assert.assertSame(Clock.system(), Clock.fromProperties(ClockProperties.builder().build()));
+        Assert.assertNotSame(Clock.system(), Clock.fromProperties(ClockProperties.builder().resolutionMillis(10).build()));
+    }
+
+    @Test
+    public void testCoarseClock() throws InterruptedException {
+        Clock coarse = Clock.coarse(1);
+        long start = coarse.currentTimeMillis();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (coarse.currentTimeMillis() == start && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(coarse.currentTimeMillis() > start);
+    }
+
+    @Test
+    public void testTimer() {
+        Histogram histogram = Histogram.builder().name("test_seconds").build();
+        Timer timer = histogram.startTimer();
+        clock.nanos += TimeUnit.MILLISECONDS.toNanos(1500);
+        Assert.assertEquals(1.5, timer.observeDuration(), 0.0);
+    }
+
+    @Test
+    public void testCreatedTimestamp() {
+        Counter counter = Counter.builder().name("test").build();
+        counter.inc();
+        Assert.assertEquals(clock.millis, counter.collect().getDataPoints().get(0).getCreatedTimestampMillis());
+    }
+}
@@ -0,0 +1,119 @@
+package io.prometheus.metrics.core.util;
+
+import io.prometheus.metrics.config.SchedulerProperties;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SchedulerTest {
+
+    @Test
+    public void testNewExecutor() throws Exception {
+        ScheduledExecutorService executor = Scheduler.newExecutor(SchedulerProperties.builder().threads(3).build());
+        Assert.assertEquals(3, ((ScheduledThreadPoolExecutor) executor).getCorePoolSize());
+        executor.shutdown();
+        // Falls back to platform threads if virtual threads are not available.
+        executor = Scheduler.newExecutor(SchedulerProperties.builder().virtualThreads(true).build());
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        Scheduler.awaitInitialization();
+        PrometheusRegistry registry = new PrometheusRegistry();
+        SchedulerMetrics.builder().register(registry);
+        MetricSnapshots snapshots = registry.scrape();
+        Assert.assertTrue(getCounter(snapshots, "prometheus_scheduler_tasks") >= 1);
+        Assert.assertTrue(getCounter(snapshots, "prometheus_scheduler_task_lag_seconds") >= 0);
+        Assert.assertTrue(getGauge(snapshots, "prometheus_scheduler_threads") >= 1);
+        Assert.assertTrue(getGauge(snapshots, "prometheus_scheduler_queued_tasks") >= 0);
+    }
+
+    @Test
+    public void testSetExecutor() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService previous = Scheduler.newExecutor(SchedulerProperties.builder().build());
+        try {
+            Scheduler.setExecutor(executor);
+            long tasksBefore = Scheduler.getTasksStarted();
+            Scheduler.awaitInitialization();
+            Assert.assertEquals(tasksBefore + 1, Scheduler.getTasksStarted());
+            // Unknown for executors that are not a ScheduledThreadPoolExecutor.
+            Assert.assertEquals(-1, Scheduler.getQueueSize());
+        } finally {
+            Scheduler.setExecutor(previous);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSetExecutorShutsDownOwnExecutor() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService next = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Scheduler.setExecutor(executor);
+            Scheduler.setExecutor(next);
+            // Executors passed to setExecutor() are managed by the caller.
+            Assert.assertFalse(executor.isShutdown());
+            Assert.assertTrue(Scheduler.getDefaultExecutor().isShutdown());
+        } finally {
+            Scheduler.setExecutor(Scheduler.newExecutor(SchedulerProperties.builder().build()));
+            executor.shutdown();
+            next.shutdown();
+        }
+    }
+
+    @Test
+    public void testAwaitInitializationMultipleThreads() throws Exception {
+        ScheduledExecutorService executor = Scheduler.newExecutor(SchedulerProperties.builder().threads(4).build());
+        ScheduledExecutorService previous = Scheduler.getExecutor();
+        try {
+            Scheduler.setExecutor(executor);
+            AtomicBoolean done = new AtomicBoolean(false);
+            Scheduler.schedule(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.set(true);
+            }, 0, TimeUnit.MILLISECONDS);
+            Scheduler.awaitInitialization();
+            Assert.assertTrue(done.get());
+        } finally {
+            Scheduler.setExecutor(previous);
+            executor.shutdown();
+        }
+    }
+
+    private double getCounter(MetricSnapshots snapshots, String name) {
+        return ((CounterSnapshot) find(snapshots, name)).getDataPoints().get(0).getValue();
+    }
+
+    private double getGauge(MetricSnapshots snapshots, String name) {
+        return ((GaugeSnapshot) find(snapshots, name)).getDataPoints().get(0).getValue();
+    }
+
+    private MetricSnapshot find(MetricSnapshots snapshots, String name) {
+        for (MetricSnapshot snapshot : snapshots) {
+            if (snapshot.getMetadata().getName().equals(name)) {
+                return snapshot;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+}
@@ -0,0 +1,88 @@
+package io.prometheus.metrics.exporter.common;
+
+import io.prometheus.metrics.model.registry.MultiCollector;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics about the response buffers and gzip {@link java.util.zip.Deflater Deflaters} that
+ * {@link PrometheusScrapeHandler} reuses across scrapes. Register them like this:
+ * <pre>{@code
+ *   ExporterPoolMetrics.builder().register();
+ * }</pre>
+ * Example metrics being exported:
+ * <pre>
+ * # HELP prometheus_exporter_pool_hits_total Number of scrapes that reused a pooled object
+ * # TYPE prometheus_exporter_pool_hits_total counter
+ * prometheus_exporter_pool_hits_total{pool="deflater"} 1203.0
+ * prometheus_exporter_pool_hits_total{pool="response_buffer"} 1210.0
+ * # HELP prometheus_exporter_pool_misses_total Number of scrapes that had to allocate a new object
+ * # TYPE prometheus_exporter_pool_misses_total counter
+ * prometheus_exporter_pool_misses_total{pool="deflater"} 3.0
+ * prometheus_exporter_pool_misses_total{pool="response_buffer"} 4.0
+ * </pre>
+ * The numbers are summed over all scrape endpoints in the JVM. If misses keep increasing,
+ * scrapes run concurrently more often than {@code io.prometheus.exporter.responsePoolSize} allows.
+ */
+public class ExporterPoolMetrics implements MultiCollector {
+
+    private static final String PROMETHEUS_EXPORTER_POOL_HITS = "prometheus_exporter_pool_hits";
+    private static final String PROMETHEUS_EXPORTER_POOL_MISSES = "prometheus_exporter_pool_misses";
+
+    static final LongAdder responseBufferHits = new LongAdder();
+    static final LongAdder responseBufferMisses = new LongAdder();
+    static final LongAdder deflaterHits = new LongAdder();
+    static final LongAdder deflaterMisses = new LongAdder();
+
+    private static final Labels DEFLATER = Labels.of("pool", "deflater");
+    private static final Labels RESPONSE_BUFFER = Labels.of("pool", "response_buffer");
+
+    private ExporterPoolMetrics() {
+    }
+
+    @Override
+    public MetricSnapshots collect() {
+        return new MetricSnapshots(
+                counter(PROMETHEUS_EXPORTER_POOL_HITS, "Number of scrapes that reused a pooled object", deflaterHits, responseBufferHits),
+                counter(PROMETHEUS_EXPORTER_POOL_MISSES, "Number of scrapes that had to allocate a new object", deflaterMisses, responseBufferMisses)
+        );
+    }
+
+    private CounterSnapshot counter(String name, String help, LongAdder deflater, LongAdder responseBuffer) {
+        return new CounterSnapshot(new MetricMetadata(name, help), Arrays.asList(
+                new CounterDataPointSnapshot(deflater.sum(), DEFLATER, null, 0),
+                new CounterDataPointSnapshot(responseBuffer.sum(), RESPONSE_BUFFER, null, 0)
+        ));
+    }
+
+    @Override
+    public List<String> getPrometheusNames() {
+        return Arrays.asList(PROMETHEUS_EXPORTER_POOL_HITS, PROMETHEUS_EXPORTER_POOL_MISSES);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Builder() {
+        }
+
+        public void register() {
+            register(PrometheusRegistry.defaultRegistry);
+        }
+
+        public void register(PrometheusRegistry registry) {
+            registry.register(new ExporterPoolMetrics());
+        }
+    }
+}
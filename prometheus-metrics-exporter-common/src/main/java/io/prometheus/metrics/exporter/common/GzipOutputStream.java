@@ -0,0 +1,54 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Like {@link java.util.zip.GZIPOutputStream}, but with a {@link Deflater} provided by the caller so that it can
+ * be reused. The {@code Deflater} must be created with {@code nowrap = true}, and it is not ended when this
+ * stream is closed.
+ */
+final class GzipOutputStream extends DeflaterOutputStream {
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, // magic number
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            (byte) 0xff // operating system: unknown
+    };
+
+    private final CRC32 crc = new CRC32();
+
+    GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+        super(out, deflater);
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            super.finish();
+            byte[] trailer = new byte[8];
+            writeIntLE(trailer, 0, crc.getValue());
+            writeIntLE(trailer, 4, def.getBytesRead());
+            out.write(trailer);
+        }
+    }
+
+    private static void writeIntLE(byte[] buf, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            buf[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
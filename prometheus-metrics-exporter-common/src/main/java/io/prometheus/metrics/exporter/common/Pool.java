@@ -0,0 +1,66 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of reusable objects.
+ * <p>
+ * {@link #acquire()} never blocks: If no idle object is available a new one is created.
+ * {@link #release(Object)} drops the object if the pool is full or if it is not {@link #isReusable(Object) reusable}.
+ */
+abstract class Pool<T> {
+
+    private final BlockingQueue<T> idle; // null if the size is 0
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    Pool(int size, LongAdder hits, LongAdder misses) {
+        this.idle = size > 0 ? new ArrayBlockingQueue<>(size) : null;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    T acquire() {
+        T result = idle != null ? idle.poll() : null;
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        return create();
+    }
+
+    void release(T object) {
+        if (idle == null || !isReusable(object)) {
+            discard(object);
+            return;
+        }
+        reset(object);
+        if (!idle.offer(object)) {
+            discard(object);
+        }
+    }
+
+    abstract T create();
+
+    /**
+     * Prepare the object for the next {@link #acquire()}.
+     */
+    abstract void reset(T object);
+
+    /**
+     * Called before {@link #reset(Object)}. Objects that are not reusable are discarded rather than returned
+     * to the pool, for example because they hold too much memory.
+     */
+    boolean isReusable(T object) {
+        return true;
+    }
+
+    /**
+     * Called for objects that are not returned to the pool.
+     */
+    void discard(T object) {
+    }
+}
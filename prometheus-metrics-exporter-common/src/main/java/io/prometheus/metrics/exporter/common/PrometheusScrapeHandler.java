@@ -6,6 +6,7 @@ import io.prometheus.metrics.expositionformats.ExpositionFormatWriter;
 import io.prometheus.metrics.expositionformats.ExpositionFormats;
 import io.prometheus.metrics.model.registry.MetricNameFilter;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 
 import java.io.ByteArrayOutputStream;
@@ -14,19 +15,34 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Prometheus scrape endpoint.
+ * <p>
+ * By default, the response is buffered so that it can be sent with a {@code Content-Length} header.
+ * If {@link io.prometheus.metrics.config.ExporterProperties#getStreamResponse()} is enabled, metrics are written
+ * to a chunked response while they are collected.
+ * <p>
+ * Response buffers and gzip {@link Deflater Deflaters} are reused across scrapes, see
+ * {@link io.prometheus.metrics.config.ExporterProperties#getResponsePoolSize()} and {@link ExporterPoolMetrics}.
  */
 public class PrometheusScrapeHandler {
 
+    // Response buffers that grew larger than this are not pooled, so that a single large scrape response
+    // does not keep its memory allocated for the lifetime of the scrape endpoint.
+    static final int MAX_POOLED_RESPONSE_BUFFER_SIZE = 8 * 1024 * 1024;
+
     private final PrometheusRegistry registry;
     private final ExpositionFormats expositionFormats;
     private final Predicate<String> nameFilter;
-    private AtomicInteger lastResponseSize = new AtomicInteger(2 << 9); //  0.5 MB
+    private final boolean streamResponse;
+    private final AtomicInteger lastResponseSize = new AtomicInteger(2 << 9); //  0.5 MB
+    private final Pool<ByteArrayOutputStream> responseBuffers;
+    private final Pool<Deflater> deflaters;
 
     public PrometheusScrapeHandler() {
         this(PrometheusProperties.get(), PrometheusRegistry.defaultRegistry);
@@ -44,49 +60,158 @@ public class PrometheusScrapeHandler {
         this.expositionFormats = ExpositionFormats.init(config.getExporterProperties());
         this.registry = registry;
         this.nameFilter = makeNameFilter(config.getExporterFilterProperties());
+        this.streamResponse = config.getExporterProperties().getStreamResponse();
+        int poolSize = config.getExporterProperties().getResponsePoolSize();
+        this.responseBuffers = new Pool<ByteArrayOutputStream>(poolSize, ExporterPoolMetrics.responseBufferHits, ExporterPoolMetrics.responseBufferMisses) {
+            @Override
+            ByteArrayOutputStream create() {
+                return new ByteArrayOutputStream(lastResponseSize.get() + 1024);
+            }
+
+            @Override
+            boolean isReusable(ByteArrayOutputStream buffer) {
+                return buffer.size() <= MAX_POOLED_RESPONSE_BUFFER_SIZE;
+            }
+
+            @Override
+            void reset(ByteArrayOutputStream buffer) {
+                buffer.reset(); // keeps the capacity
+            }
+        };
+        this.deflaters = new Pool<Deflater>(poolSize, ExporterPoolMetrics.deflaterHits, ExporterPoolMetrics.deflaterMisses) {
+            @Override
+            Deflater create() {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+
+            @Override
+            void reset(Deflater deflater) {
+                deflater.reset();
+            }
+
+            @Override
+            void discard(Deflater deflater) {
+                deflater.end(); // release native memory now rather than on finalization
+            }
+        };
     }
 
     public void handleRequest(PrometheusHttpExchange exchange) throws IOException {
+        PrometheusHttpRequest request = exchange.getRequest();
+        if (streamResponse && request.getParameter("debug") == null && !request.getMethod().equals("HEAD")) {
+            handleStreamingRequest(exchange);
+            return;
+        }
         try {
-            PrometheusHttpRequest request = exchange.getRequest();
             PrometheusHttpResponse response = exchange.getResponse();
             MetricSnapshots snapshots = scrape(request);
             if (writeDebugResponse(snapshots, exchange)) {
                 return;
             }
-            ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(lastResponseSize.get() + 1024);
+            ByteArrayOutputStream responseBuffer = responseBuffers.acquire();
+            try {
+                writeResponse(request, response, snapshots, responseBuffer);
+            } finally {
+                responseBuffers.release(responseBuffer);
+            }
+        } catch (IOException e) {
+            exchange.handleException(e);
+        } catch (RuntimeException e) {
+            exchange.handleException(e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void writeResponse(PrometheusHttpRequest request, PrometheusHttpResponse response, MetricSnapshots snapshots, ByteArrayOutputStream responseBuffer) throws IOException {
+        String acceptHeader = request.getHeader("Accept");
+        ExpositionFormatWriter writer = expositionFormats.findWriter(acceptHeader);
+        writer.write(responseBuffer, snapshots);
+        lastResponseSize.set(responseBuffer.size());
+        response.setHeader("Content-Type", writer.getContentType());
+
+        if (shouldUseCompression(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            Deflater deflater = deflaters.acquire();
+            try (GzipOutputStream gzipOutputStream = new GzipOutputStream(response.sendHeadersAndGetBody(200, 0), deflater)) {
+                responseBuffer.writeTo(gzipOutputStream);
+            } finally {
+                deflaters.release(deflater);
+            }
+        } else {
+            int contentLength = responseBuffer.size();
+            if (contentLength > 0) {
+                response.setHeader("Content-Length", String.valueOf(contentLength));
+            }
+            if (request.getMethod().equals("HEAD")) {
+                // The HTTPServer implementation will throw an Exception if we close the output stream
+                // without sending a response body, so let's not close the output stream in case of a HEAD response.
+                response.sendHeadersAndGetBody(200, -1);
+            } else {
+                try (OutputStream outputStream = response.sendHeadersAndGetBody(200, contentLength)) {
+                    responseBuffer.writeTo(outputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collectors are collected while the response is written, so that the complete scrape result is never held
+     * in memory, and the first bytes are sent before the last collector is collected.
+     * <p>
+     * If an Exception occurs after the response headers have been sent, it is too late for an error response.
+     * In that case the response is not completed: Neither the gzip trailer nor the terminating chunk are written,
+     * and the exchange is not closed. The Exception is re-thrown so that the HTTP server aborts the connection,
+     * and the scraper sees a failed scrape rather than a well-formed response with metrics missing.
+     */
+    private void handleStreamingRequest(PrometheusHttpExchange exchange) throws IOException {
+        boolean aborted = false;
+        boolean headersSent = false;
+        try {
+            PrometheusHttpRequest request = exchange.getRequest();
+            PrometheusHttpResponse response = exchange.getResponse();
             String acceptHeader = request.getHeader("Accept");
             ExpositionFormatWriter writer = expositionFormats.findWriter(acceptHeader);
-            writer.write(responseBuffer, snapshots);
-            lastResponseSize.set(responseBuffer.size());
+            Predicate<String> filter = makeNameFilter(request.getParameterValues("name[]"));
+            Iterator<MetricSnapshot> snapshots = registry.scrapeLazily(filter, request);
+            // Collect the first snapshot before sending the headers,
+            // so that an Exception in the first collector still results in an error response.
+            snapshots.hasNext();
             response.setHeader("Content-Type", writer.getContentType());
-
             if (shouldUseCompression(request)) {
                 response.setHeader("Content-Encoding", "gzip");
-                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(response.sendHeadersAndGetBody(200, 0))) {
-                    responseBuffer.writeTo(gzipOutputStream);
+                Deflater deflater = deflaters.acquire();
+                try {
+                    OutputStream body = response.sendHeadersAndGetBody(200, 0);
+                    headersSent = true;
+                    GzipOutputStream gzipOutputStream = new GzipOutputStream(body, deflater);
+                    writer.writeStreaming(gzipOutputStream, snapshots);
+                    gzipOutputStream.close(); // only if successful, as this writes the gzip trailer
+                } finally {
+                    deflaters.release(deflater);
                 }
             } else {
-                int contentLength = responseBuffer.size();
-                if (contentLength > 0) {
-                    response.setHeader("Content-Length", String.valueOf(contentLength));
-                }
-                if (request.getMethod().equals("HEAD")) {
-                    // The HTTPServer implementation will throw an Exception if we close the output stream
-                    // without sending a response body, so let's not close the output stream in case of a HEAD response.
-                    response.sendHeadersAndGetBody(200, -1);
-                } else {
-                    try (OutputStream outputStream = response.sendHeadersAndGetBody(200, contentLength)) {
-                        responseBuffer.writeTo(outputStream);
-                    }
-                }
+                OutputStream body = response.sendHeadersAndGetBody(200, 0);
+                headersSent = true;
+                writer.writeStreaming(body, snapshots);
+                body.close(); // only if successful, as this writes the terminating chunk
             }
         } catch (IOException e) {
+            aborted = headersSent;
             exchange.handleException(e);
+            if (aborted) {
+                throw e;
+            }
         } catch (RuntimeException e) {
+            aborted = headersSent;
             exchange.handleException(e);
+            if (aborted) {
+                throw e;
+            }
         } finally {
-            exchange.close();
+            if (!aborted) {
+                exchange.close();
+            }
         }
     }
 
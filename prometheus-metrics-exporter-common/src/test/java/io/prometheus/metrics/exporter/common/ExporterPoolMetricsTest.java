@@ -0,0 +1,49 @@
+package io.prometheus.metrics.exporter.common;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExporterPoolMetricsTest {
+
+    @Test
+    public void testMetrics() {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        ExporterPoolMetrics.builder().register(registry);
+        MetricSnapshots before = registry.scrape();
+
+        ExporterPoolMetrics.deflaterHits.add(3);
+        ExporterPoolMetrics.deflaterMisses.add(1);
+        ExporterPoolMetrics.responseBufferHits.add(5);
+        ExporterPoolMetrics.responseBufferMisses.add(2);
+
+        MetricSnapshots after = registry.scrape();
+        Assert.assertEquals(2, after.size());
+        Assert.assertEquals(3, delta(before, after, "prometheus_exporter_pool_hits", "deflater"), 0.0);
+        Assert.assertEquals(1, delta(before, after, "prometheus_exporter_pool_misses", "deflater"), 0.0);
+        Assert.assertEquals(5, delta(before, after, "prometheus_exporter_pool_hits", "response_buffer"), 0.0);
+        Assert.assertEquals(2, delta(before, after, "prometheus_exporter_pool_misses", "response_buffer"), 0.0);
+    }
+
+    private double delta(MetricSnapshots before, MetricSnapshots after, String name, String pool) {
+        return getValue(after, name, pool) - getValue(before, name, pool);
+    }
+
+    private double getValue(MetricSnapshots snapshots, String name, String pool) {
+        for (MetricSnapshot snapshot : snapshots) {
+            if (snapshot.getMetadata().getName().equals(name)) {
+                for (CounterDataPointSnapshot data : ((CounterSnapshot) snapshot).getDataPoints()) {
+                    if (data.getLabels().equals(Labels.of("pool", pool))) {
+                        return data.getValue();
+                    }
+                }
+            }
+        }
+        throw new AssertionError(name + "{pool=\"" + pool + "\"} not found");
+    }
+}
@@ -0,0 +1,85 @@
+package io.prometheus.metrics.exporter.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+public class GzipOutputStreamTest {
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertRoundTrip(new byte[0], newDeflater());
+    }
+
+    @Test
+    public void testSmall() throws IOException {
+        assertRoundTrip("my_counter_total 1.0\n".getBytes("UTF-8"), newDeflater());
+    }
+
+    @Test
+    public void testLarge() throws IOException {
+        byte[] data = new byte[1024 * 1024];
+        new Random(0).nextBytes(data);
+        assertRoundTrip(data, newDeflater());
+    }
+
+    @Test
+    public void testDeflaterReuse() throws IOException {
+        Deflater deflater = newDeflater();
+        assertRoundTrip("first".getBytes("UTF-8"), deflater);
+        deflater.reset();
+        assertRoundTrip("second".getBytes("UTF-8"), deflater);
+    }
+
+    @Test
+    public void testSizeModulo4GiB() throws IOException {
+        // The gzip trailer stores the uncompressed size modulo 2^32 (ISIZE, RFC 1952).
+        // Pretend that 4 GiB were compressed before, without actually compressing 4 GiB.
+        long offset = 1L << 32;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true) {
+            @Override
+            public long getBytesRead() {
+                return super.getBytesRead() + offset;
+            }
+        };
+        byte[] data = "my_counter_total 1.0\n".getBytes("UTF-8");
+        byte[] compressed = assertRoundTrip(data, deflater);
+        int n = compressed.length;
+        long isize = (compressed[n - 4] & 0xffL)
+                | (compressed[n - 3] & 0xffL) << 8
+                | (compressed[n - 2] & 0xffL) << 16
+                | (compressed[n - 1] & 0xffL) << 24;
+        Assert.assertEquals((offset + data.length) & 0xffffffffL, isize);
+    }
+
+    private static Deflater newDeflater() {
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private static byte[] assertRoundTrip(byte[] data, Deflater deflater) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GzipOutputStream out = new GzipOutputStream(compressed, deflater)) {
+            // write in chunks to test the CRC over multiple writes
+            for (int off = 0; off < data.length; off += 1000) {
+                out.write(data, off, Math.min(1000, data.length - off));
+            }
+        }
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                uncompressed.write(buffer, 0, n);
+            }
+        }
+        Assert.assertArrayEquals(data, uncompressed.toByteArray());
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+package io.prometheus.metrics.exporter.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PoolTest {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Item {
+        private int size;
+        private boolean reset;
+    }
+
+    private class TestPool extends Pool<Item> {
+
+        private final List<Item> discarded = new ArrayList<>();
+
+        TestPool(int size) {
+            super(size, hits, misses);
+        }
+
+        @Override
+        Item create() {
+            return new Item();
+        }
+
+        @Override
+        void reset(Item item) {
+            item.reset = true;
+        }
+
+        @Override
+        boolean isReusable(Item item) {
+            return item.size <= 10;
+        }
+
+        @Override
+        void discard(Item item) {
+            discarded.add(item);
+        }
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        TestPool pool = new TestPool(2);
+        Item item = pool.acquire();
+        Assert.assertEquals(0, hits.sum());
+        Assert.assertEquals(1, misses.sum());
+        pool.release(item);
+        Assert.assertTrue(item.reset);
+        Assert.assertSame(item, pool.acquire());
+        Assert.assertEquals(1, hits.sum());
+        Assert.assertEquals(1, misses.sum());
+        Assert.assertTrue(pool.discarded.isEmpty());
+    }
+
+    @Test
+    public void testOverflow() {
+        TestPool pool = new TestPool(1);
+        Item first = pool.acquire();
+        Item second = pool.acquire();
+        Assert.assertEquals(2, misses.sum());
+        pool.release(first);
+        pool.release(second); // pool is full
+        Assert.assertEquals(1, pool.discarded.size());
+        Assert.assertSame(second, pool.discarded.get(0));
+        Assert.assertSame(first, pool.acquire());
+        Assert.assertNotSame(second, pool.acquire());
+        Assert.assertEquals(1, hits.sum());
+        Assert.assertEquals(3, misses.sum());
+    }
+
+    @Test
+    public void testSizeZero() {
+        TestPool pool = new TestPool(0);
+        Item item = pool.acquire();
+        pool.release(item);
+        Assert.assertSame(item, pool.discarded.get(0));
+        Assert.assertNotSame(item, pool.acquire());
+        Assert.assertEquals(0, hits.sum());
+        Assert.assertEquals(2, misses.sum());
+    }
+
+    @Test
+    public void testNotReusable() {
+        TestPool pool = new TestPool(2);
+        Item item = pool.acquire();
+        item.size = 11;
+        pool.release(item);
+        Assert.assertSame(item, pool.discarded.get(0));
+        Assert.assertFalse(item.reset);
+        Assert.assertNotSame(item, pool.acquire());
+        Assert.assertEquals(0, hits.sum());
+    }
+
+    @Test
+    public void testReleaseAfterException() {
+        TestPool pool = new TestPool(2);
+        Item item = null;
+        try {
+            item = pool.acquire();
+            try {
+                item.size = 5;
+                throw new IllegalStateException("scrape failed");
+            } finally {
+                pool.release(item);
+            }
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertTrue(item.reset);
+        Assert.assertSame(item, pool.acquire());
+        Assert.assertEquals(1, hits.sum());
+    }
+}
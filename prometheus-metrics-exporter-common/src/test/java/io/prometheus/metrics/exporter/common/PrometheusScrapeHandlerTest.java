@@ -0,0 +1,269 @@
+package io.prometheus.metrics.exporter.common;
+
+import io.prometheus.metrics.config.ExporterProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.model.registry.Collector;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot.GaugeDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+public class PrometheusScrapeHandlerTest {
+
+    @Test
+    public void testStreamingResponse() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(gauge("gauge_a"));
+        registry.register(gauge("gauge_b"));
+        TestExchange exchange = new TestExchange();
+        handler(registry, true).handleRequest(exchange);
+        Assert.assertEquals(200, exchange.statusCode);
+        Assert.assertTrue(exchange.body.closed);
+        Assert.assertTrue(exchange.closed);
+        Assert.assertNull(exchange.exception);
+        String body = exchange.body.toString("UTF-8");
+        Assert.assertTrue(body.contains("gauge_a 1.0"));
+        Assert.assertTrue(body.contains("gauge_b 1.0"));
+    }
+
+    @Test
+    public void testStreamingResponseExceptionInFirstCollector() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(failingCollector());
+        TestExchange exchange = new TestExchange();
+        handler(registry, true).handleRequest(exchange);
+        // Headers were not sent yet, so the exchange can still send an error response.
+        Assert.assertEquals(-1, exchange.statusCode);
+        Assert.assertEquals("collect failed", exchange.exception.getMessage());
+        Assert.assertTrue(exchange.closed);
+    }
+
+    @Test
+    public void testStreamingResponseAbortedOnException() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(gauge("gauge_a"));
+        registry.register(failingCollector());
+        TestExchange exchange = new TestExchange();
+        try {
+            handler(registry, true).handleRequest(exchange);
+            Assert.fail("Expected the Exception to be re-thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("collect failed", e.getMessage());
+        }
+        Assert.assertEquals(200, exchange.statusCode);
+        Assert.assertEquals("collect failed", exchange.exception.getMessage());
+        // Neither the response body nor the exchange are closed, so the response is not completed.
+        Assert.assertFalse(exchange.body.closed);
+        Assert.assertFalse(exchange.closed);
+    }
+
+    @Test
+    public void testGzipStreamingResponseAbortedOnException() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(gauge("gauge_a"));
+        registry.register(failingCollector());
+        TestExchange exchange = new TestExchange();
+        exchange.requestHeaders.put("Accept-Encoding", "gzip");
+        try {
+            handler(registry, true).handleRequest(exchange);
+            Assert.fail("Expected the Exception to be re-thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("collect failed", e.getMessage());
+        }
+        Assert.assertEquals("gzip", exchange.responseHeaders.get("Content-Encoding"));
+        Assert.assertFalse(exchange.body.closed);
+        Assert.assertFalse(exchange.closed);
+        // The gzip trailer was not written.
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(exchange.body.toByteArray()))) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // read until the end of the stream
+            }
+            Assert.fail("Expected EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void testGzipStreamingResponse() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(gauge("gauge_a"));
+        TestExchange exchange = new TestExchange();
+        exchange.requestHeaders.put("Accept-Encoding", "gzip");
+        handler(registry, true).handleRequest(exchange);
+        Assert.assertTrue(exchange.body.closed);
+        Assert.assertTrue(exchange.closed);
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(exchange.body.toByteArray()))) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                uncompressed.write(buffer, 0, n);
+            }
+        }
+        Assert.assertTrue(uncompressed.toString("UTF-8").contains("gauge_a 1.0"));
+    }
+
+    @Test
+    public void testResponseBufferIsPooled() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(gauge("gauge_a"));
+        PrometheusScrapeHandler handler = handler(registry, false);
+        long hits = ExporterPoolMetrics.responseBufferHits.sum();
+        long misses = ExporterPoolMetrics.responseBufferMisses.sum();
+        handler.handleRequest(new TestExchange());
+        handler.handleRequest(new TestExchange());
+        Assert.assertEquals(misses + 1, ExporterPoolMetrics.responseBufferMisses.sum());
+        Assert.assertEquals(hits + 1, ExporterPoolMetrics.responseBufferHits.sum());
+    }
+
+    @Test
+    public void testLargeResponseBufferIsNotPooled() throws IOException {
+        char[] value = new char[1024 * 1024];
+        Arrays.fill(value, 'x');
+        String largeValue = new String(value);
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(() -> {
+            GaugeSnapshot.Builder builder = GaugeSnapshot.builder().name("gauge_large");
+            for (int i = 0; i < 9; i++) {
+                builder.dataPoint(GaugeDataPointSnapshot.builder()
+                        .labels(Labels.of("i", Integer.toString(i), "large", largeValue))
+                        .value(1.0)
+                        .build());
+            }
+            return builder.build();
+        });
+        PrometheusScrapeHandler handler = handler(registry, false);
+        long hits = ExporterPoolMetrics.responseBufferHits.sum();
+        long misses = ExporterPoolMetrics.responseBufferMisses.sum();
+        TestExchange exchange = new TestExchange();
+        handler.handleRequest(exchange);
+        Assert.assertTrue(exchange.body.size() > PrometheusScrapeHandler.MAX_POOLED_RESPONSE_BUFFER_SIZE);
+        handler.handleRequest(new TestExchange());
+        Assert.assertEquals(misses + 2, ExporterPoolMetrics.responseBufferMisses.sum());
+        Assert.assertEquals(hits, ExporterPoolMetrics.responseBufferHits.sum());
+    }
+
+    private static Collector gauge(String name) {
+        return () -> GaugeSnapshot.builder()
+                .name(name)
+                .dataPoint(GaugeDataPointSnapshot.builder().value(1.0).build())
+                .build();
+    }
+
+    private static Collector failingCollector() {
+        return () -> {
+            throw new IllegalStateException("collect failed");
+        };
+    }
+
+    private static PrometheusScrapeHandler handler(PrometheusRegistry registry, boolean streamResponse) {
+        PrometheusProperties defaults = PrometheusProperties.get();
+        PrometheusProperties config = new PrometheusProperties(
+                defaults.getDefaultMetricProperties(),
+                Collections.emptyMap(),
+                defaults.getExemplarProperties(),
+                ExporterProperties.builder().streamResponse(streamResponse).build(),
+                defaults.getExporterFilterProperties(),
+                defaults.getExporterHttpServerProperties(),
+                defaults.getExporterOpenTelemetryProperties());
+        return new PrometheusScrapeHandler(config, registry);
+    }
+
+    private static class TrackingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Like the HTTPServer's exchange adapter, exceptions are not re-thrown by {@link #handleException(RuntimeException)}.
+     */
+    private static class TestExchange implements PrometheusHttpExchange {
+
+        private final Map<String, String> requestHeaders = new HashMap<>();
+        private final Map<String, String> responseHeaders = new HashMap<>();
+        private final TrackingOutputStream body = new TrackingOutputStream();
+        private int statusCode = -1;
+        private Exception exception;
+        private boolean closed;
+
+        @Override
+        public PrometheusHttpRequest getRequest() {
+            return new PrometheusHttpRequest() {
+                @Override
+                public String getQueryString() {
+                    return null;
+                }
+
+                @Override
+                public Enumeration<String> getHeaders(String name) {
+                    String value = requestHeaders.get(name);
+                    List<String> values = value == null ? Collections.emptyList() : Collections.singletonList(value);
+                    return Collections.enumeration(values);
+                }
+
+                @Override
+                public String getMethod() {
+                    return "GET";
+                }
+
+                @Override
+                public String getRequestPath() {
+                    return "/metrics";
+                }
+            };
+        }
+
+        @Override
+        public PrometheusHttpResponse getResponse() {
+            return new PrometheusHttpResponse() {
+                @Override
+                public void setHeader(String name, String value) {
+                    responseHeaders.put(name, value);
+                }
+
+                @Override
+                public OutputStream sendHeadersAndGetBody(int statusCode, int contentLength) {
+                    TestExchange.this.statusCode = statusCode;
+                    return body;
+                }
+            };
+        }
+
+        @Override
+        public void handleException(IOException e) {
+            exception = e;
+        }
+
+        @Override
+        public void handleException(RuntimeException e) {
+            exception = e;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
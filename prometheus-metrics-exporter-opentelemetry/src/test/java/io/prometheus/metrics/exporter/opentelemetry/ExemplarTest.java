@@ -5,6 +5,7 @@ import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.github.tomakehurst.wiremock.matching.MatchResult;
 import com.github.tomakehurst.wiremock.matching.ValueMatcher;
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
@@ -13,10 +14,14 @@ import io.opentelemetry.proto.metrics.v1.InstrumentationLibraryMetrics;
 import io.opentelemetry.proto.metrics.v1.Metric;
 import io.opentelemetry.proto.metrics.v1.NumberDataPoint;
 import io.opentelemetry.proto.metrics.v1.ResourceMetrics;
+import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
 import io.prometheus.metrics.core.metrics.Counter;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.tracer.common.SpanContext;
+import io.prometheus.metrics.tracer.otel.OpenTelemetrySpanContext;
+import org.junit.Assert;
 import org.awaitility.core.ConditionTimeoutException;
 import org.junit.After;
 import org.junit.Before;
@@ -121,6 +126,51 @@ public class ExemplarTest {
 
     }
 
+    @Test
+    public void sampledSpanIsMarkedAsExemplar() {
+        try (SdkTracerProvider sdkTracerProvider = SdkTracerProvider.builder()
+                .setSampler(Sampler.alwaysOn())
+                .build()) {
+
+            Tracer test = sdkTracerProvider.get(INSTRUMENTATION_SCOPE_NAME);
+            Span span = test.spanBuilder(SPAN_NAME)
+                    .startSpan();
+            try (Scope scope = span.makeCurrent()) {
+                String[] traceIdAndSpanId = new OpenTelemetrySpanContext().markCurrentSpanAsExemplarIfSampled();
+                Assert.assertNotNull(traceIdAndSpanId);
+                Assert.assertEquals(span.getSpanContext().getTraceId(), traceIdAndSpanId[0]);
+                Assert.assertEquals(span.getSpanContext().getSpanId(), traceIdAndSpanId[1]);
+            } finally {
+                span.end();
+            }
+            Assert.assertEquals(SpanContext.EXEMPLAR_ATTRIBUTE_VALUE, getExemplarAttribute(span));
+        }
+    }
+
+    @Test
+    public void notSampledSpanIsNotMarkedAsExemplar() {
+        try (SdkTracerProvider sdkTracerProvider = SdkTracerProvider.builder()
+                .setSampler(Sampler.alwaysOff())
+                .build()) {
+
+            Tracer test = sdkTracerProvider.get(INSTRUMENTATION_SCOPE_NAME);
+            Span span = test.spanBuilder(SPAN_NAME)
+                    .startSpan();
+            try (Scope scope = span.makeCurrent()) {
+                Assert.assertNull(new OpenTelemetrySpanContext().markCurrentSpanAsExemplarIfSampled());
+            } finally {
+                span.end();
+            }
+        }
+        // No current span.
+        Assert.assertNull(new OpenTelemetrySpanContext().markCurrentSpanAsExemplarIfSampled());
+    }
+
+    private static String getExemplarAttribute(Span span) {
+        return ((ReadableSpan) span).toSpanData().getAttributes()
+                .get(AttributeKey.stringKey(SpanContext.EXEMPLAR_ATTRIBUTE_NAME));
+    }
+
     private static ValueMatcher<Request> getExemplarCountMatcher(int expectedCount) {
         return request -> {
             try {
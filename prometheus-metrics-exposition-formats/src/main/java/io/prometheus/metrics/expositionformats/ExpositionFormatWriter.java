@@ -1,9 +1,11 @@
 package io.prometheus.metrics.expositionformats;
 
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 public interface ExpositionFormatWriter {
     boolean accepts(String acceptHeader);
@@ -12,5 +14,19 @@ public interface ExpositionFormatWriter {
      * Text formats use UTF-8 encoding.
      */
     void write(OutputStream out, MetricSnapshots metricSnapshots) throws IOException;
+
+    /**
+     * Like {@link #write(OutputStream, MetricSnapshots)}, but each snapshot is written as soon as it is returned
+     * by {@code metricSnapshots}, see {@code PrometheusRegistry.scrapeLazily()}.
+     * Snapshots are written in the order of the Iterator.
+     * <p>
+     * The default implementation collects all snapshots first and then calls
+     * {@link #write(OutputStream, MetricSnapshots)}. Override this if the format can be written incrementally.
+     */
+    default void writeStreaming(OutputStream out, Iterator<MetricSnapshot> metricSnapshots) throws IOException {
+        MetricSnapshots.Builder builder = MetricSnapshots.builder();
+        metricSnapshots.forEachRemaining(builder::metricSnapshot);
+        write(out, builder.build());
+    }
     String getContentType();
 }
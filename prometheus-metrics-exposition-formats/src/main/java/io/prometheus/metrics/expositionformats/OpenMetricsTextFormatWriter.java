@@ -20,8 +20,7 @@ import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeDouble;
@@ -61,8 +60,14 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
     }
 
     public void write(OutputStream out, MetricSnapshots metricSnapshots) throws IOException {
-        OutputStreamWriter writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-        for (MetricSnapshot snapshot : metricSnapshots) {
+        writeStreaming(out, metricSnapshots.iterator());
+    }
+
+    @Override
+    public void writeStreaming(OutputStream out, Iterator<MetricSnapshot> metricSnapshots) throws IOException {
+        Utf8Writer writer = new Utf8Writer(out);
+        while (metricSnapshots.hasNext()) {
+            MetricSnapshot snapshot = metricSnapshots.next();
             if (snapshot.getDataPoints().size() > 0) {
                 if (snapshot instanceof CounterSnapshot) {
                     writeCounter(writer, (CounterSnapshot) snapshot);
@@ -85,7 +90,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         writer.flush();
     }
 
-    private void writeCounter(OutputStreamWriter writer, CounterSnapshot snapshot) throws IOException {
+    private void writeCounter(Utf8Writer writer, CounterSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "counter", metadata);
         for (CounterSnapshot.CounterDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -96,7 +101,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeGauge(OutputStreamWriter writer, GaugeSnapshot snapshot) throws IOException {
+    private void writeGauge(Utf8Writer writer, GaugeSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "gauge", metadata);
         for (GaugeSnapshot.GaugeDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -110,7 +115,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeHistogram(OutputStreamWriter writer, HistogramSnapshot snapshot) throws IOException {
+    private void writeHistogram(Utf8Writer writer, HistogramSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         if (snapshot.isGaugeHistogram()) {
             writeMetadata(writer, "gaugehistogram", metadata);
@@ -121,7 +126,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeClassicHistogramBuckets(OutputStreamWriter writer, MetricMetadata metadata, String countSuffix, String sumSuffix, List<HistogramSnapshot.HistogramDataPointSnapshot> dataList) throws IOException {
+    private void writeClassicHistogramBuckets(Utf8Writer writer, MetricMetadata metadata, String countSuffix, String sumSuffix, List<HistogramSnapshot.HistogramDataPointSnapshot> dataList) throws IOException {
         for (HistogramSnapshot.HistogramDataPointSnapshot data : dataList) {
             ClassicHistogramBuckets buckets = getClassicBuckets(data);
             Exemplars exemplars = data.getExemplars();
@@ -159,7 +164,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeSummary(OutputStreamWriter writer, SummarySnapshot snapshot) throws IOException {
+    private void writeSummary(Utf8Writer writer, SummarySnapshot snapshot) throws IOException {
         boolean metadataWritten = false;
         MetricMetadata metadata = snapshot.getMetadata();
         for (SummarySnapshot.SummaryDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -191,7 +196,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeInfo(OutputStreamWriter writer, InfoSnapshot snapshot) throws IOException {
+    private void writeInfo(Utf8Writer writer, InfoSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "info", metadata);
         for (InfoSnapshot.InfoDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -201,7 +206,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeStateSet(OutputStreamWriter writer, StateSetSnapshot snapshot) throws IOException {
+    private void writeStateSet(Utf8Writer writer, StateSetSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "stateset", metadata);
         for (StateSetSnapshot.StateSetDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -234,7 +239,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeUnknown(OutputStreamWriter writer, UnknownSnapshot snapshot) throws IOException {
+    private void writeUnknown(Utf8Writer writer, UnknownSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "unknown", metadata);
         for (UnknownSnapshot.UnknownDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -248,14 +253,14 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeCountAndSum(OutputStreamWriter writer, MetricMetadata metadata, DistributionDataPointSnapshot data, String countSuffix, String sumSuffix, Exemplars exemplars) throws IOException {
+    private void writeCountAndSum(Utf8Writer writer, MetricMetadata metadata, DistributionDataPointSnapshot data, String countSuffix, String sumSuffix, Exemplars exemplars) throws IOException {
         int exemplarIndex = 0;
         if (data.hasCount()) {
             writeNameAndLabels(writer, metadata.getPrometheusName(), countSuffix, data.getLabels());
             writeLong(writer, data.getCount());
             if (exemplars.size() > 0) {
                 writeScrapeTimestampAndExemplar(writer, data, exemplars.get(exemplarIndex));
-                exemplarIndex = exemplarIndex + 1 % exemplars.size();
+                exemplarIndex = (exemplarIndex + 1) % exemplars.size();
             } else {
                 writeScrapeTimestampAndExemplar(writer, data, null);
             }
@@ -271,7 +276,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeCreated(OutputStreamWriter writer, MetricMetadata metadata, DataPointSnapshot data) throws IOException {
+    private void writeCreated(Utf8Writer writer, MetricMetadata metadata, DataPointSnapshot data) throws IOException {
         if (createdTimestampsEnabled && data.hasCreatedTimestamp()) {
             writeNameAndLabels(writer, metadata.getPrometheusName(), "_created", data.getLabels());
             writeTimestamp(writer, data.getCreatedTimestampMillis());
@@ -283,11 +288,11 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeNameAndLabels(OutputStreamWriter writer, String name, String suffix, Labels labels) throws IOException {
+    private void writeNameAndLabels(Utf8Writer writer, String name, String suffix, Labels labels) throws IOException {
         writeNameAndLabels(writer, name, suffix, labels, null, 0.0);
     }
 
-    private void writeNameAndLabels(OutputStreamWriter writer, String name, String suffix, Labels labels,
+    private void writeNameAndLabels(Utf8Writer writer, String name, String suffix, Labels labels,
                                     String additionalLabelName, double additionalLabelValue) throws IOException {
         writer.write(name);
         if (suffix != null) {
@@ -299,7 +304,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         writer.write(' ');
     }
 
-    private void writeScrapeTimestampAndExemplar(OutputStreamWriter writer, DataPointSnapshot data, Exemplar exemplar) throws IOException {
+    private void writeScrapeTimestampAndExemplar(Utf8Writer writer, DataPointSnapshot data, Exemplar exemplar) throws IOException {
         if (data.hasScrapeTimestamp()) {
             writer.write(' ');
             writeTimestamp(writer, data.getScrapeTimestampMillis());
@@ -317,7 +322,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         writer.write('\n');
     }
 
-    private void writeMetadata(OutputStreamWriter writer, String typeName, MetricMetadata metadata) throws IOException {
+    private void writeMetadata(Utf8Writer writer, String typeName, MetricMetadata metadata) throws IOException {
         writer.write("# TYPE ");
         writer.write(metadata.getPrometheusName());
         writer.write(' ');
@@ -1,6 +1,7 @@
 package io.prometheus.metrics.expositionformats;
 
 import io.prometheus.metrics.shaded.com_google_protobuf_3_21_7.TextFormat;
+import io.prometheus.metrics.shaded.com_google_protobuf_3_21_7.Timestamp;
 import io.prometheus.metrics.expositionformats.generated.com_google_protobuf_3_21_7.Metrics;
 import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
 import io.prometheus.metrics.model.snapshots.CounterSnapshot;
@@ -22,6 +23,7 @@ import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 import static io.prometheus.metrics.expositionformats.ProtobufUtil.timestampFromMillis;
 
@@ -60,15 +62,36 @@ public class PrometheusProtobufWriter implements ExpositionFormatWriter {
         return stringBuilder.toString();
     }
 
+    /**
+     * The output is the same as writing {@link #convert(MetricSnapshot)} with
+     * {@link Metrics.MetricFamily#writeDelimitedTo(OutputStream)} for each snapshot, but the protobuf messages
+     * are encoded directly from the snapshots without creating the intermediate protobuf objects.
+     * See {@link ProtobufEncoder}.
+     */
     @Override
     public void write(OutputStream out, MetricSnapshots metricSnapshots) throws IOException {
-        for (MetricSnapshot snapshot : metricSnapshots) {
+        writeStreaming(out, metricSnapshots.iterator());
+    }
+
+    @Override
+    public void writeStreaming(OutputStream out, Iterator<MetricSnapshot> metricSnapshots) throws IOException {
+        ProtobufEncoder encoder = new ProtobufEncoder(out);
+        while (metricSnapshots.hasNext()) {
+            MetricSnapshot snapshot = metricSnapshots.next();
             if (snapshot.getDataPoints().size() > 0) {
-                convert(snapshot).writeDelimitedTo(out);
+                encoder.startSizing();
+                writeMetricFamily(encoder, snapshot);
+                encoder.startWritingDelimited();
+                writeMetricFamily(encoder, snapshot);
             }
         }
+        encoder.flush();
     }
 
+    /**
+     * Convert a snapshot to a protobuf object. This is used for {@link #toDebugString(MetricSnapshots)},
+     * {@link #write(OutputStream, MetricSnapshots)} encodes the snapshots directly.
+     */
     public Metrics.MetricFamily convert(MetricSnapshot snapshot) {
         Metrics.MetricFamily.Builder builder = Metrics.MetricFamily.newBuilder();
         if (snapshot instanceof CounterSnapshot) {
@@ -363,4 +386,285 @@ public class PrometheusProtobufWriter implements ExpositionFormatWriter {
             metricBuilder.setTimestampMs(data.getScrapeTimestampMillis());
         }
     }
+
+    // The write*() methods below are the streaming equivalent of the convert() methods above.
+    // Fields must be written in field number order, because that's what the protobuf library does.
+
+    private void writeMetricFamily(ProtobufEncoder encoder, MetricSnapshot snapshot) throws IOException {
+        MetricMetadata metadata = snapshot.getMetadata();
+        if (snapshot instanceof CounterSnapshot) {
+            writeMetadata(encoder, metadata, "_total", Metrics.MetricType.COUNTER);
+            for (CounterDataPointSnapshot data : ((CounterSnapshot) snapshot).getDataPoints()) {
+                writeCounter(encoder, data);
+            }
+        } else if (snapshot instanceof GaugeSnapshot) {
+            writeMetadata(encoder, metadata, null, Metrics.MetricType.GAUGE);
+            for (GaugeSnapshot.GaugeDataPointSnapshot data : ((GaugeSnapshot) snapshot).getDataPoints()) {
+                writeGauge(encoder, data.getLabels(), null, null, data.getValue(), data);
+            }
+        } else if (snapshot instanceof HistogramSnapshot) {
+            HistogramSnapshot histogram = (HistogramSnapshot) snapshot;
+            writeMetadata(encoder, metadata, null, histogram.isGaugeHistogram() ? Metrics.MetricType.GAUGE_HISTOGRAM : Metrics.MetricType.HISTOGRAM);
+            for (HistogramSnapshot.HistogramDataPointSnapshot data : histogram.getDataPoints()) {
+                writeHistogram(encoder, data);
+            }
+        } else if (snapshot instanceof SummarySnapshot) {
+            SummarySnapshot summary = (SummarySnapshot) snapshot;
+            boolean hasMetrics = false;
+            for (SummarySnapshot.SummaryDataPointSnapshot data : summary.getDataPoints()) {
+                hasMetrics = hasMetrics || isWritten(data);
+            }
+            if (hasMetrics) {
+                writeMetadata(encoder, metadata, null, Metrics.MetricType.SUMMARY);
+                for (SummarySnapshot.SummaryDataPointSnapshot data : summary.getDataPoints()) {
+                    if (isWritten(data)) {
+                        writeSummary(encoder, data);
+                    }
+                }
+            }
+        } else if (snapshot instanceof InfoSnapshot) {
+            writeMetadata(encoder, metadata, "_info", Metrics.MetricType.GAUGE);
+            for (InfoSnapshot.InfoDataPointSnapshot data : ((InfoSnapshot) snapshot).getDataPoints()) {
+                writeGauge(encoder, data.getLabels(), null, null, 1, data);
+            }
+        } else if (snapshot instanceof StateSetSnapshot) {
+            StateSetSnapshot stateSet = (StateSetSnapshot) snapshot;
+            boolean hasMetrics = false;
+            for (StateSetSnapshot.StateSetDataPointSnapshot data : stateSet.getDataPoints()) {
+                hasMetrics = hasMetrics || data.size() > 0;
+            }
+            if (hasMetrics) {
+                writeMetadata(encoder, metadata, null, Metrics.MetricType.GAUGE);
+                for (StateSetSnapshot.StateSetDataPointSnapshot data : stateSet.getDataPoints()) {
+                    for (int i = 0; i < data.size(); i++) {
+                        writeGauge(encoder, data.getLabels(), metadata.getPrometheusName(), data.getName(i), data.isTrue(i) ? 1 : 0, data);
+                    }
+                }
+            }
+        } else if (snapshot instanceof UnknownSnapshot) {
+            writeMetadata(encoder, metadata, null, Metrics.MetricType.UNTYPED);
+            for (UnknownSnapshot.UnknownDataPointSnapshot data : ((UnknownSnapshot) snapshot).getDataPoints()) {
+                writeUnknown(encoder, data);
+            }
+        }
+    }
+
+    private boolean isWritten(SummarySnapshot.SummaryDataPointSnapshot data) {
+        return data.hasCount() || data.hasSum() || data.getQuantiles().size() > 0;
+    }
+
+    private void writeMetadata(ProtobufEncoder encoder, MetricMetadata metadata, String nameSuffix, Metrics.MetricType type) throws IOException {
+        if (nameSuffix == null) {
+            encoder.writeString(Metrics.MetricFamily.NAME_FIELD_NUMBER, metadata.getPrometheusName());
+        } else {
+            encoder.writeString(Metrics.MetricFamily.NAME_FIELD_NUMBER, metadata.getPrometheusName() + nameSuffix);
+        }
+        if (metadata.getHelp() != null) {
+            encoder.writeString(Metrics.MetricFamily.HELP_FIELD_NUMBER, metadata.getHelp());
+        }
+        encoder.writeVarint(Metrics.MetricFamily.TYPE_FIELD_NUMBER, type.getNumber());
+    }
+
+    private void writeCounter(ProtobufEncoder encoder, CounterDataPointSnapshot data) throws IOException {
+        encoder.startMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+        writeLabels(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, data.getLabels());
+        encoder.startMessage(Metrics.Metric.COUNTER_FIELD_NUMBER);
+        encoder.writeDouble(Metrics.Counter.VALUE_FIELD_NUMBER, data.getValue());
+        if (data.getExemplar() != null) {
+            writeExemplar(encoder, Metrics.Counter.EXEMPLAR_FIELD_NUMBER, data.getExemplar());
+        }
+        encoder.endMessage(Metrics.Metric.COUNTER_FIELD_NUMBER);
+        writeScrapeTimestamp(encoder, data);
+        encoder.endMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+    }
+
+    /**
+     * Gauges, Info data points, and StateSet states. For StateSet states, {@code additionalLabelName} is
+     * the metric name and {@code additionalLabelValue} is the state name.
+     */
+    private void writeGauge(ProtobufEncoder encoder, Labels labels, String additionalLabelName, String additionalLabelValue,
+                            double value, DataPointSnapshot data) throws IOException {
+        encoder.startMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+        writeLabels(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, labels);
+        if (additionalLabelName != null) {
+            writeLabel(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, additionalLabelName, additionalLabelValue);
+        }
+        encoder.startMessage(Metrics.Metric.GAUGE_FIELD_NUMBER);
+        encoder.writeDouble(Metrics.Gauge.VALUE_FIELD_NUMBER, value);
+        encoder.endMessage(Metrics.Metric.GAUGE_FIELD_NUMBER);
+        writeScrapeTimestamp(encoder, data);
+        encoder.endMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+    }
+
+    private void writeHistogram(ProtobufEncoder encoder, HistogramSnapshot.HistogramDataPointSnapshot data) throws IOException {
+        encoder.startMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+        writeLabels(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, data.getLabels());
+        writeScrapeTimestamp(encoder, data);
+        encoder.startMessage(Metrics.Metric.HISTOGRAM_FIELD_NUMBER);
+        if (data.hasCount()) {
+            encoder.writeVarint(Metrics.Histogram.SAMPLE_COUNT_FIELD_NUMBER, data.getCount());
+        }
+        if (data.hasSum()) {
+            encoder.writeDouble(Metrics.Histogram.SAMPLE_SUM_FIELD_NUMBER, data.getSum());
+        }
+        if (data.hasClassicHistogramData()) {
+            ClassicHistogramBuckets buckets = data.getClassicBuckets();
+            double lowerBound = Double.NEGATIVE_INFINITY;
+            long cumulativeCount = 0;
+            for (int i = 0; i < buckets.size(); i++) {
+                cumulativeCount += buckets.getCount(i);
+                double upperBound = buckets.getUpperBound(i);
+                writeBucket(encoder, cumulativeCount, upperBound, data.getExemplars().get(lowerBound, upperBound));
+                lowerBound = upperBound;
+            }
+        } else if (data.hasNativeHistogramData()) {
+            // Add a single +Inf bucket for the exemplar.
+            Exemplar exemplar = data.getExemplars().getLatest();
+            if (exemplar != null) {
+                writeBucket(encoder, getNativeCount(data), Double.POSITIVE_INFINITY, exemplar);
+            }
+        }
+        if (data.hasNativeHistogramData()) {
+            encoder.writeZigZag(Metrics.Histogram.SCHEMA_FIELD_NUMBER, data.getNativeSchema());
+            encoder.writeDouble(Metrics.Histogram.ZERO_THRESHOLD_FIELD_NUMBER, data.getNativeZeroThreshold());
+            encoder.writeVarint(Metrics.Histogram.ZERO_COUNT_FIELD_NUMBER, data.getNativeZeroCount());
+            writeNativeBuckets(encoder, data.getNativeBucketsForNegativeValues(), true, Metrics.Histogram.NEGATIVE_SPAN_FIELD_NUMBER);
+            writeNativeBuckets(encoder, data.getNativeBucketsForNegativeValues(), false, Metrics.Histogram.NEGATIVE_DELTA_FIELD_NUMBER);
+            writeNativeBuckets(encoder, data.getNativeBucketsForPositiveValues(), true, Metrics.Histogram.POSITIVE_SPAN_FIELD_NUMBER);
+            writeNativeBuckets(encoder, data.getNativeBucketsForPositiveValues(), false, Metrics.Histogram.POSITIVE_DELTA_FIELD_NUMBER);
+        }
+        encoder.endMessage(Metrics.Metric.HISTOGRAM_FIELD_NUMBER);
+        encoder.endMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+    }
+
+    private void writeBucket(ProtobufEncoder encoder, long cumulativeCount, double upperBound, Exemplar exemplar) throws IOException {
+        encoder.startMessage(Metrics.Histogram.BUCKET_FIELD_NUMBER);
+        encoder.writeVarint(Metrics.Bucket.CUMULATIVE_COUNT_FIELD_NUMBER, cumulativeCount);
+        encoder.writeDouble(Metrics.Bucket.UPPER_BOUND_FIELD_NUMBER, upperBound);
+        if (exemplar != null) {
+            writeExemplar(encoder, Metrics.Bucket.EXEMPLAR_FIELD_NUMBER, exemplar);
+        }
+        encoder.endMessage(Metrics.Histogram.BUCKET_FIELD_NUMBER);
+    }
+
+    /**
+     * Same algorithm as {@link #addBuckets(Metrics.Histogram.Builder, NativeHistogramBuckets, int)}.
+     * Spans and deltas are different fields, so this writes either the spans or the deltas.
+     */
+    private void writeNativeBuckets(ProtobufEncoder encoder, NativeHistogramBuckets buckets, boolean spans, int fieldNumber) throws IOException {
+        if (buckets.size() > 0) {
+            int offset = buckets.getBucketIndex(0);
+            int length = 0;
+            int previousIndex = offset;
+            long previousCount = 0;
+            for (int i = 0; i < buckets.size(); i++) {
+                if (buckets.getBucketIndex(i) > previousIndex + 1) {
+                    // If the gap between bucketIndex and previousIndex is just 1 or 2,
+                    // we don't start a new span but continue the existing span and add 1 or 2 empty buckets.
+                    if (buckets.getBucketIndex(i) <= previousIndex + 3) {
+                        while (buckets.getBucketIndex(i) > previousIndex + 1) {
+                            length++;
+                            previousIndex++;
+                            if (!spans) {
+                                encoder.writeZigZag(fieldNumber, -previousCount);
+                            }
+                            previousCount = 0;
+                        }
+                    } else {
+                        if (spans) {
+                            writeBucketSpan(encoder, fieldNumber, offset, length);
+                        }
+                        offset = buckets.getBucketIndex(i) - (previousIndex + 1);
+                        length = 0;
+                    }
+                }
+                length++;
+                previousIndex = buckets.getBucketIndex(i);
+                if (!spans) {
+                    encoder.writeZigZag(fieldNumber, buckets.getCount(i) - previousCount);
+                }
+                previousCount = buckets.getCount(i);
+            }
+            if (spans) {
+                writeBucketSpan(encoder, fieldNumber, offset, length);
+            }
+        }
+    }
+
+    private void writeBucketSpan(ProtobufEncoder encoder, int fieldNumber, int offset, int length) throws IOException {
+        encoder.startMessage(fieldNumber);
+        encoder.writeZigZag(Metrics.BucketSpan.OFFSET_FIELD_NUMBER, offset);
+        encoder.writeVarint(Metrics.BucketSpan.LENGTH_FIELD_NUMBER, length);
+        encoder.endMessage(fieldNumber);
+    }
+
+    private void writeSummary(ProtobufEncoder encoder, SummarySnapshot.SummaryDataPointSnapshot data) throws IOException {
+        encoder.startMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+        writeLabels(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, data.getLabels());
+        encoder.startMessage(Metrics.Metric.SUMMARY_FIELD_NUMBER);
+        if (data.hasCount()) {
+            encoder.writeVarint(Metrics.Summary.SAMPLE_COUNT_FIELD_NUMBER, data.getCount());
+        }
+        if (data.hasSum()) {
+            encoder.writeDouble(Metrics.Summary.SAMPLE_SUM_FIELD_NUMBER, data.getSum());
+        }
+        Quantiles quantiles = data.getQuantiles();
+        for (int i = 0; i < quantiles.size(); i++) {
+            encoder.startMessage(Metrics.Summary.QUANTILE_FIELD_NUMBER);
+            encoder.writeDouble(Metrics.Quantile.QUANTILE_FIELD_NUMBER, quantiles.get(i).getQuantile());
+            encoder.writeDouble(Metrics.Quantile.VALUE_FIELD_NUMBER, quantiles.get(i).getValue());
+            encoder.endMessage(Metrics.Summary.QUANTILE_FIELD_NUMBER);
+        }
+        encoder.endMessage(Metrics.Metric.SUMMARY_FIELD_NUMBER);
+        writeScrapeTimestamp(encoder, data);
+        encoder.endMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+    }
+
+    private void writeUnknown(ProtobufEncoder encoder, UnknownSnapshot.UnknownDataPointSnapshot data) throws IOException {
+        encoder.startMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+        writeLabels(encoder, Metrics.Metric.LABEL_FIELD_NUMBER, data.getLabels());
+        encoder.startMessage(Metrics.Metric.UNTYPED_FIELD_NUMBER);
+        encoder.writeDouble(Metrics.Untyped.VALUE_FIELD_NUMBER, data.getValue());
+        encoder.endMessage(Metrics.Metric.UNTYPED_FIELD_NUMBER);
+        encoder.endMessage(Metrics.MetricFamily.METRIC_FIELD_NUMBER);
+    }
+
+    private void writeLabels(ProtobufEncoder encoder, int fieldNumber, Labels labels) throws IOException {
+        for (int i = 0; i < labels.size(); i++) {
+            writeLabel(encoder, fieldNumber, labels.getPrometheusName(i), labels.getValue(i));
+        }
+    }
+
+    private void writeLabel(ProtobufEncoder encoder, int fieldNumber, String name, String value) throws IOException {
+        encoder.startMessage(fieldNumber);
+        encoder.writeString(Metrics.LabelPair.NAME_FIELD_NUMBER, name);
+        encoder.writeString(Metrics.LabelPair.VALUE_FIELD_NUMBER, value);
+        encoder.endMessage(fieldNumber);
+    }
+
+    private void writeExemplar(ProtobufEncoder encoder, int fieldNumber, Exemplar exemplar) throws IOException {
+        encoder.startMessage(fieldNumber);
+        writeLabels(encoder, Metrics.Exemplar.LABEL_FIELD_NUMBER, exemplar.getLabels());
+        encoder.writeDouble(Metrics.Exemplar.VALUE_FIELD_NUMBER, exemplar.getValue());
+        if (exemplar.hasTimestamp()) {
+            // google.protobuf.Timestamp is proto3, so fields with value 0 are omitted.
+            long seconds = exemplar.getTimestampMillis() / 1000L;
+            int nanos = (int) (exemplar.getTimestampMillis() % 1000L * 1000000L);
+            encoder.startMessage(Metrics.Exemplar.TIMESTAMP_FIELD_NUMBER);
+            if (seconds != 0) {
+                encoder.writeVarint(Timestamp.SECONDS_FIELD_NUMBER, seconds);
+            }
+            if (nanos != 0) {
+                encoder.writeVarint(Timestamp.NANOS_FIELD_NUMBER, nanos);
+            }
+            encoder.endMessage(Metrics.Exemplar.TIMESTAMP_FIELD_NUMBER);
+        }
+        encoder.endMessage(fieldNumber);
+    }
+
+    private void writeScrapeTimestamp(ProtobufEncoder encoder, DataPointSnapshot data) throws IOException {
+        if (data.hasScrapeTimestamp()) {
+            encoder.writeVarint(Metrics.Metric.TIMESTAMP_MS_FIELD_NUMBER, data.getScrapeTimestampMillis());
+        }
+    }
 }
@@ -15,11 +15,14 @@ import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeDouble;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeEscapedLabelValue;
@@ -55,10 +58,21 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
     }
 
     public void write(OutputStream out, MetricSnapshots metricSnapshots) throws IOException {
+        writeStreaming(out, metricSnapshots.iterator());
+    }
+
+    /**
+     * If created timestamps are enabled, the {@code _created} metrics are written after all other metrics,
+     * so the counter, histogram, and summary snapshots are kept until the end.
+     */
+    @Override
+    public void writeStreaming(OutputStream out, Iterator<MetricSnapshot> metricSnapshots) throws IOException {
         // See https://prometheus.io/docs/instrumenting/exposition_formats/
         // "unknown", "gauge", "counter", "stateset", "info", "histogram", "gaugehistogram", and "summary".
-        OutputStreamWriter writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-        for (MetricSnapshot snapshot : metricSnapshots) {
+        Utf8Writer writer = new Utf8Writer(out);
+        List<MetricSnapshot> snapshotsWithCreated = writeCreatedTimestamps ? new ArrayList<>() : null;
+        while (metricSnapshots.hasNext()) {
+            MetricSnapshot snapshot = metricSnapshots.next();
             if (snapshot.getDataPoints().size() > 0) {
                 if (snapshot instanceof CounterSnapshot) {
                     writeCounter(writer, (CounterSnapshot) snapshot);
@@ -75,25 +89,33 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
                 } else if (snapshot instanceof UnknownSnapshot) {
                     writeUnknown(writer, (UnknownSnapshot) snapshot);
                 }
+                if (snapshotsWithCreated != null && (snapshot instanceof CounterSnapshot
+                        || snapshot instanceof HistogramSnapshot || snapshot instanceof SummarySnapshot)) {
+                    snapshotsWithCreated.add(snapshot);
+                }
             }
         }
-        if (writeCreatedTimestamps) {
-            for (MetricSnapshot snapshot : metricSnapshots) {
-                if (snapshot.getDataPoints().size() > 0) {
-                    if (snapshot instanceof CounterSnapshot) {
-                        writeCreated(writer, snapshot);
-                    } else if (snapshot instanceof HistogramSnapshot) {
-                        writeCreated(writer, snapshot);
-                    } else if (snapshot instanceof SummarySnapshot) {
-                        writeCreated(writer, snapshot);
-                    }
-                }
+        if (snapshotsWithCreated != null) {
+            for (MetricSnapshot snapshot : snapshotsWithCreated) {
+                writeCreated(writer, snapshot);
             }
         }
         writer.flush();
     }
 
+    /**
+     * @deprecated Only used internally, use {@link #write(OutputStream, MetricSnapshots)} instead.
+     */
+    @Deprecated
     public void writeCreated(OutputStreamWriter writer, MetricSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8Writer utf8Writer = new Utf8Writer(out);
+        writeCreated(utf8Writer, snapshot);
+        utf8Writer.flush();
+        writer.write(new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private void writeCreated(Utf8Writer writer, MetricSnapshot snapshot) throws IOException {
             boolean metadataWritten = false;
             MetricMetadata metadata = snapshot.getMetadata();
             for (DataPointSnapshot data : snapshot.getDataPoints()) {
@@ -110,7 +132,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
 
     }
 
-    private void writeCounter(OutputStreamWriter writer, CounterSnapshot snapshot) throws IOException {
+    private void writeCounter(Utf8Writer writer, CounterSnapshot snapshot) throws IOException {
         if (snapshot.getDataPoints().size() > 0) {
             MetricMetadata metadata = snapshot.getMetadata();
             writeMetadata(writer, "_total", "counter", metadata);
@@ -122,7 +144,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeGauge(OutputStreamWriter writer, GaugeSnapshot snapshot) throws IOException {
+    private void writeGauge(Utf8Writer writer, GaugeSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "", "gauge", metadata);
         for (GaugeSnapshot.GaugeDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -132,7 +154,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeHistogram(OutputStreamWriter writer, HistogramSnapshot snapshot) throws IOException {
+    private void writeHistogram(Utf8Writer writer, HistogramSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "", "histogram", metadata);
         for (HistogramSnapshot.HistogramDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -173,7 +195,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeGaugeCountSum(OutputStreamWriter writer, HistogramSnapshot snapshot, MetricMetadata metadata) throws IOException {
+    private void writeGaugeCountSum(Utf8Writer writer, HistogramSnapshot snapshot, MetricMetadata metadata) throws IOException {
         // Prometheus text format does not support gaugehistogram's _gcount and _gsum.
         // So we append _gcount and _gsum as gauge metrics.
         boolean metadataWritten = false;
@@ -202,7 +224,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeSummary(OutputStreamWriter writer, SummarySnapshot snapshot) throws IOException {
+    private void writeSummary(Utf8Writer writer, SummarySnapshot snapshot) throws IOException {
         boolean metadataWritten = false;
         MetricMetadata metadata = snapshot.getMetadata();
         for (SummarySnapshot.SummaryDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -231,7 +253,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeInfo(OutputStreamWriter writer, InfoSnapshot snapshot) throws IOException {
+    private void writeInfo(Utf8Writer writer, InfoSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "_info", "gauge", metadata);
         for (InfoSnapshot.InfoDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -241,7 +263,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeStateSet(OutputStreamWriter writer, StateSetSnapshot snapshot) throws IOException {
+    private void writeStateSet(Utf8Writer writer, StateSetSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "", "gauge", metadata);
         for (StateSetSnapshot.StateSetDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -274,7 +296,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeUnknown(OutputStreamWriter writer, UnknownSnapshot snapshot) throws IOException {
+    private void writeUnknown(Utf8Writer writer, UnknownSnapshot snapshot) throws IOException {
         MetricMetadata metadata = snapshot.getMetadata();
         writeMetadata(writer, "", "untyped", metadata);
         for (UnknownSnapshot.UnknownDataPointSnapshot data : snapshot.getDataPoints()) {
@@ -284,11 +306,11 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         }
     }
 
-    private void writeNameAndLabels(OutputStreamWriter writer, String name, String suffix, Labels labels) throws IOException {
+    private void writeNameAndLabels(Utf8Writer writer, String name, String suffix, Labels labels) throws IOException {
         writeNameAndLabels(writer, name, suffix, labels, null, 0.0);
     }
 
-    private void writeNameAndLabels(OutputStreamWriter writer, String name, String suffix, Labels labels,
+    private void writeNameAndLabels(Utf8Writer writer, String name, String suffix, Labels labels,
                                     String additionalLabelName, double additionalLabelValue) throws IOException {
         writer.write(name);
         if (suffix != null) {
@@ -300,7 +322,7 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         writer.write(' ');
     }
 
-    private void writeMetadata(OutputStreamWriter writer, String suffix, String typeString, MetricMetadata metadata) throws IOException {
+    private void writeMetadata(Utf8Writer writer, String suffix, String typeString, MetricMetadata metadata) throws IOException {
         if (metadata.getHelp() != null && !metadata.getHelp().isEmpty()) {
             writer.write("# HELP ");
             writer.write(metadata.getPrometheusName());
@@ -321,23 +343,11 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         writer.write('\n');
     }
 
-    private void writeEscapedHelp(Writer writer, String s) throws IOException {
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            switch (c) {
-                case '\\':
-                    writer.append("\\\\");
-                    break;
-                case '\n':
-                    writer.append("\\n");
-                    break;
-                default:
-                    writer.append(c);
-            }
-        }
+    private void writeEscapedHelp(Utf8Writer writer, String s) throws IOException {
+        writer.writeEscaped(s, false);
     }
 
-    private void writeScrapeTimestampAndNewline(OutputStreamWriter writer, DataPointSnapshot data) throws IOException {
+    private void writeScrapeTimestampAndNewline(Utf8Writer writer, DataPointSnapshot data) throws IOException {
         if (data.hasScrapeTimestamp()) {
             writer.write(' ');
             writeTimestamp(writer, data.getScrapeTimestampMillis());
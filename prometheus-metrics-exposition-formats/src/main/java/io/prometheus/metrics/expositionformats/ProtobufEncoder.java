@@ -0,0 +1,240 @@
+package io.prometheus.metrics.expositionformats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes protobuf messages directly to an {@link OutputStream}, without creating message objects.
+ * <p>
+ * Nested messages are prefixed with their length, so each message is encoded twice with the same code:
+ * <ol>
+ *     <li>{@link #startSizing()}: Nothing is written. The lengths of the nested messages and strings are
+ *     recorded in the order in which they occur.</li>
+ *     <li>{@link #startWritingDelimited()}: The message is written, and the recorded lengths are used for the
+ *     length prefixes.</li>
+ * </ol>
+ * The caller must make exactly the same calls in both passes.
+ * <p>
+ * Not thread safe. The buffers are reused for the entire scrape.
+ */
+final class ProtobufEncoder {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Enough for a tag and a varint, or a tag and a fixed64.
+    private static final int MAX_FIELD_LENGTH = 20;
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+
+    private boolean sizing;
+    // Number of bytes the current message would have in the sizing pass.
+    private int size;
+    // Lengths of nested messages and strings, in the order in which they occur.
+    private int[] lengths = new int[64];
+    private int numberOfLengths;
+    // Sizing pass: Stack of indexes in lengths for the messages that are currently open.
+    // Writing pass: Only openMessages[0] is used as the index of the next length.
+    private int[] openMessages = new int[8];
+    private int depth;
+
+    ProtobufEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Start the sizing pass for a new top level message.
+     */
+    void startSizing() {
+        sizing = true;
+        size = 0;
+        numberOfLengths = 0;
+        depth = 0;
+    }
+
+    /**
+     * End the sizing pass, write the length of the top level message, and start the writing pass.
+     */
+    void startWritingDelimited() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("startMessage() and endMessage() calls do not match.");
+        }
+        sizing = false;
+        openMessages[0] = 0;
+        ensureCapacity(MAX_FIELD_LENGTH);
+        writeVarint(size);
+    }
+
+    void startMessage(int fieldNumber) throws IOException {
+        if (sizing) {
+            if (depth == openMessages.length) {
+                openMessages = Arrays.copyOf(openMessages, 2 * depth);
+            }
+            openMessages[depth++] = addLength(size); // start offset, replaced with the length in endMessage()
+        } else {
+            ensureCapacity(MAX_FIELD_LENGTH);
+            writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+            writeVarint(lengths[openMessages[0]++]);
+        }
+    }
+
+    void endMessage(int fieldNumber) {
+        if (sizing) {
+            int index = openMessages[--depth];
+            int length = size - lengths[index];
+            lengths[index] = length;
+            size += tagSize(fieldNumber) + varintSize(length);
+        }
+    }
+
+    void writeString(int fieldNumber, String s) throws IOException {
+        if (sizing) {
+            int length = utf8Length(s);
+            addLength(length);
+            size += tagSize(fieldNumber) + varintSize(length) + length;
+        } else {
+            ensureCapacity(MAX_FIELD_LENGTH);
+            writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+            writeVarint(lengths[openMessages[0]++]);
+            writeUtf8(s);
+        }
+    }
+
+    void writeDouble(int fieldNumber, double value) throws IOException {
+        if (sizing) {
+            size += tagSize(fieldNumber) + 8;
+        } else {
+            ensureCapacity(MAX_FIELD_LENGTH);
+            writeTag(fieldNumber, WIRETYPE_FIXED64);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                buffer[pos++] = (byte) (bits >>> (8 * i));
+            }
+        }
+    }
+
+    /**
+     * For {@code int64}, {@code uint64}, and {@code int32} fields, and for enums.
+     * Negative {@code int32} values are sign extended, as in the protobuf library.
+     */
+    void writeVarint(int fieldNumber, long value) throws IOException {
+        if (sizing) {
+            size += tagSize(fieldNumber) + varintSize(value);
+        } else {
+            ensureCapacity(MAX_FIELD_LENGTH);
+            writeTag(fieldNumber, WIRETYPE_VARINT);
+            writeVarint(value);
+        }
+    }
+
+    /**
+     * For {@code sint32} and {@code sint64} fields.
+     */
+    void writeZigZag(int fieldNumber, long value) throws IOException {
+        writeVarint(fieldNumber, (value << 1) ^ (value >> 63));
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private int addLength(int length) {
+        if (numberOfLengths == lengths.length) {
+            lengths = Arrays.copyOf(lengths, 2 * numberOfLengths);
+        }
+        lengths[numberOfLengths] = length;
+        return numberOfLengths++;
+    }
+
+    private static int tagSize(int fieldNumber) {
+        return varintSize(fieldNumber << 3);
+    }
+
+    private static int varintSize(long value) {
+        int result = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            result++;
+        }
+        return result;
+    }
+
+    // Capacity must be ensured by the caller.
+    private void writeTag(int fieldNumber, int wireType) {
+        writeVarint((fieldNumber << 3) | wireType);
+    }
+
+    // Capacity must be ensured by the caller.
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+    }
+
+    // Unpaired surrogates are encoded as '?', like String.getBytes() which the protobuf library uses for them.
+    private static int utf8Length(String s) {
+        int result = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                result++;
+            } else if (c < 0x800) {
+                result += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                result += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                result++;
+            } else {
+                result += 3;
+            }
+        }
+        return result;
+    }
+
+    private void writeUtf8(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ensureCapacity(4);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[pos++] = '?';
+            } else {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (buffer.length - pos < n) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.prometheus.metrics.expositionformats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Replacement for an {@link java.io.OutputStreamWriter} with UTF-8 encoding for the text formats.
+ * <p>
+ * Characters are encoded directly into a byte buffer, which is flushed to the underlying {@link OutputStream}
+ * when full. Runs of ASCII characters, which is almost all of the text in the exposition formats, are copied
+ * in bulk. Numbers are formatted into the buffer without creating intermediate Strings.
+ * <p>
+ * Not thread safe. The buffer is reused for the entire scrape.
+ */
+final class Utf8Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Enough for any long, and for all doubles handled by writeDouble() without Double.toString().
+    private static final int MAX_NUMBER_LENGTH = 32;
+    private static final long[] POWERS_OF_TEN = new long[16];
+    // Double.toString() uses plain notation in this range, and scientific notation outside.
+    private static final double MIN_PLAIN = 1e-3;
+    private static final double MAX_PLAIN = 1e7;
+    // Scaled values must be exactly representable as double, so that the round trip check is exact.
+    private static final long MAX_SCALED = 1L << 53;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int pos = 0;
+
+    Utf8Writer(OutputStream out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    Utf8Writer(OutputStream out, int bufferSize) {
+        if (bufferSize < MAX_NUMBER_LENGTH) {
+            throw new IllegalArgumentException(bufferSize + ": bufferSize must be at least " + MAX_NUMBER_LENGTH);
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    void write(char c) throws IOException {
+        if (c < 0x80) {
+            if (pos == buffer.length) {
+                flushBuffer();
+            }
+            buffer[pos++] = (byte) c;
+        } else {
+            writeNonAscii(String.valueOf(c), 0);
+        }
+    }
+
+    void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int start, int end) throws IOException {
+        int i = start;
+        while (i < end) {
+            int asciiEnd = i;
+            while (asciiEnd < end && s.charAt(asciiEnd) < 0x80) {
+                asciiEnd++;
+            }
+            writeAscii(s, i, asciiEnd);
+            if (asciiEnd < end) {
+                i = writeNonAscii(s, asciiEnd);
+            } else {
+                i = asciiEnd;
+            }
+        }
+    }
+
+    /**
+     * Write {@code s} with the characters {@code \}, {@code "}, and newline escaped.
+     * If {@code escapeQuotes} is false, {@code "} is not escaped.
+     */
+    void writeEscaped(String s, boolean escapeQuotes) throws IOException {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '\n' || (c == '"' && escapeQuotes)) {
+                write(s, start, i);
+                write('\\');
+                write(c == '\n' ? 'n' : c);
+                start = i + 1;
+            }
+        }
+        write(s, start, s.length());
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value)); // cannot be negated
+            return;
+        }
+        ensureCapacity(MAX_NUMBER_LENGTH);
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        writeDigits(value);
+    }
+
+    /**
+     * Same output as {@link Double#toString(double)}, except for infinity which is written as {@code +Inf}
+     * and {@code -Inf}.
+     * <p>
+     * Integers and numbers with few decimal places in the range where {@link Double#toString(double)} uses
+     * plain notation are formatted directly. For these numbers, the shortest decimal that parses back to the
+     * same double is found by checking 1, 2, 3, ... decimal places. Other numbers fall back to
+     * {@link Double#toString(double)}.
+     */
+    void writeDouble(double d) throws IOException {
+        if (d == Double.POSITIVE_INFINITY) {
+            write("+Inf");
+        } else if (d == Double.NEGATIVE_INFINITY) {
+            write("-Inf");
+        } else if (d == 0.0) {
+            write(Double.doubleToRawLongBits(d) == 0 ? "0.0" : "-0.0");
+        } else if (!writePlainDouble(d)) {
+            write(Double.toString(d));
+        }
+    }
+
+    private boolean writePlainDouble(double d) throws IOException {
+        double abs = Math.abs(d);
+        if (!(abs >= MIN_PLAIN && abs < MAX_PLAIN)) {
+            return false; // also true for NaN
+        }
+        for (int decimals = 1; decimals < POWERS_OF_TEN.length; decimals++) {
+            long scaled = Math.round(abs * POWERS_OF_TEN[decimals]);
+            if (scaled >= MAX_SCALED) {
+                return false;
+            }
+            if ((double) scaled / POWERS_OF_TEN[decimals] == abs) {
+                if (scaled % 10 == 0 && decimals > 1) {
+                    // Cannot happen, as decimals - 1 would have matched. Fall back to be safe.
+                    return false;
+                }
+                ensureCapacity(MAX_NUMBER_LENGTH);
+                if (d < 0) {
+                    buffer[pos++] = '-';
+                }
+                long integerPart = scaled / POWERS_OF_TEN[decimals];
+                long fraction = scaled % POWERS_OF_TEN[decimals];
+                writeDigits(integerPart);
+                buffer[pos++] = '.';
+                if (decimals == 1 && fraction == 0) {
+                    buffer[pos++] = '0';
+                } else {
+                    // leading zeros of the fraction
+                    for (long p = POWERS_OF_TEN[decimals - 1]; p > fraction && p > 1; p /= 10) {
+                        buffer[pos++] = '0';
+                    }
+                    writeDigits(fraction);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    // value >= 0, capacity must be ensured by the caller.
+    private void writeDigits(long value) {
+        int length = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            length++;
+        }
+        for (int i = pos + length - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        pos += length;
+    }
+
+    // All characters in s between start and end are known to be ASCII.
+    @SuppressWarnings("deprecation")
+    private void writeAscii(String s, int start, int end) throws IOException {
+        while (start < end) {
+            if (pos == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(end - start, buffer.length - pos);
+            // The deprecated String.getBytes() copies the low byte of each char, which is correct for ASCII.
+            s.getBytes(start, start + n, buffer, pos);
+            pos += n;
+            start += n;
+        }
+    }
+
+    // Encode the character at index i, return the index of the next character.
+    private int writeNonAscii(String s, int i) throws IOException {
+        ensureCapacity(4);
+        char c = s.charAt(i);
+        if (c < 0x800) {
+            buffer[pos++] = (byte) (0xc0 | (c >> 6));
+            buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            return i + 2;
+        } else if (Character.isSurrogate(c)) {
+            buffer[pos++] = '?'; // malformed, same replacement as OutputStreamWriter
+        } else {
+            buffer[pos++] = (byte) (0xe0 | (c >> 12));
+            buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i + 1;
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (buffer.length - pos < n) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class ExpositionFormatsTest {
 
@@ -729,6 +730,33 @@ public class ExpositionFormatsTest {
         assertPrometheusProtobuf(prometheusProtobuf, summary);
     }
 
+    @Test
+    public void testSummaryExemplarsRotate() throws IOException {
+        // exemplars[2...] for the quantiles modulo exemplars.length, then exemplars[0] for _count and exemplars[1] for _sum.
+        String openMetricsText = "" +
+                "# TYPE latency_seconds summary\n" +
+                "latency_seconds{quantile=\"0.5\"} 0.2 # " + exemplarWithDotsString + "\n" +
+                "latency_seconds{quantile=\"0.9\"} 0.4 # " + exemplar1String + "\n" +
+                "latency_seconds{quantile=\"0.99\"} 0.8 # " + exemplar2String + "\n" +
+                "latency_seconds_count 3 # " + exemplar1String + "\n" +
+                "latency_seconds_sum 1.2 # " + exemplar2String + "\n" +
+                "# EOF\n";
+        SummarySnapshot summary = SummarySnapshot.builder()
+                .name("latency_seconds")
+                .dataPoint(SummaryDataPointSnapshot.builder()
+                        .count(3)
+                        .sum(1.2)
+                        .quantiles(Quantiles.builder()
+                                .quantile(0.5, 0.2)
+                                .quantile(0.9, 0.4)
+                                .quantile(0.99, 0.8)
+                                .build())
+                        .exemplars(Exemplars.of(exemplar1, exemplar2, exemplarWithDots))
+                        .build())
+                .build();
+        assertOpenMetricsText(openMetricsText, summary);
+    }
+
     @Test
     public void testClassicHistogramComplete() throws Exception {
         String openMetricsText = "" +
@@ -1788,6 +1816,85 @@ public class ExpositionFormatsTest {
         assertPrometheusText(prometheus, counter);
     }
 
+    @Test
+    public void testPrometheusProtobufManySnapshots() throws IOException {
+        // Large enough to flush the write buffer several times, with non-ASCII characters and
+        // negative values that need 10 byte varints.
+        CounterSnapshot.Builder counter = CounterSnapshot.builder()
+                .name("requests")
+                .help("Anfragen \ud83d\ude00 \ud83d");
+        GaugeSnapshot.Builder gauge = GaugeSnapshot.builder()
+                .name("temperature");
+        for (int i = 0; i < 1000; i++) {
+            counter.dataPoint(CounterDataPointSnapshot.builder()
+                    .labels(Labels.of("path", "/\u00e4\u20ac/" + i))
+                    .value(i)
+                    .exemplar(Exemplar.builder()
+                            .value(i)
+                            .traceId("abc")
+                            .spanId(Integer.toString(i))
+                            .timestampMillis(-i)
+                            .build())
+                    .scrapeTimestampMillis(1672850685829L + i)
+                    .build());
+            gauge.dataPoint(GaugeDataPointSnapshot.builder()
+                    .labels(Labels.of("room", Integer.toString(i)))
+                    .value(-i)
+                    .build());
+        }
+        MetricSnapshots snapshots = MetricSnapshots.of(counter.build(), gauge.build());
+        PrometheusProtobufWriter writer = new PrometheusProtobufWriter();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (MetricSnapshot snapshot : snapshots) {
+            writer.convert(snapshot).writeDelimitedTo(expected);
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer.write(actual, snapshots);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testWriteStreaming() throws IOException {
+        // Snapshots are written in the order of the Iterator, created timestamps at the end.
+        GaugeSnapshot gauge = GaugeSnapshot.builder()
+                .name("z_gauge")
+                .dataPoint(GaugeDataPointSnapshot.builder().value(1.0).build())
+                .build();
+        CounterSnapshot counter = CounterSnapshot.builder()
+                .name("a_counter")
+                .dataPoint(CounterDataPointSnapshot.builder().value(2.0).createdTimestampMillis(1672850385800L).build())
+                .build();
+        String prometheus = "" +
+                "# TYPE z_gauge gauge\n" +
+                "z_gauge 1.0\n" +
+                "# TYPE a_counter_total counter\n" +
+                "a_counter_total 2.0\n" +
+                "# TYPE a_counter_created gauge\n" +
+                "a_counter_created 1672850385.800\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PrometheusTextFormatWriter(true).writeStreaming(out, Arrays.<MetricSnapshot>asList(gauge, counter).iterator());
+        Assert.assertEquals(prometheus, out.toString());
+
+        String openMetrics = "" +
+                "# TYPE z_gauge gauge\n" +
+                "z_gauge 1.0\n" +
+                "# TYPE a_counter counter\n" +
+                "a_counter_total 2.0\n" +
+                "a_counter_created 1672850385.800\n" +
+                "# EOF\n";
+        out.reset();
+        new OpenMetricsTextFormatWriter(true, false).writeStreaming(out, Arrays.<MetricSnapshot>asList(gauge, counter).iterator());
+        Assert.assertEquals(openMetrics, out.toString());
+
+        PrometheusProtobufWriter protobufWriter = new PrometheusProtobufWriter();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        protobufWriter.convert(gauge).writeDelimitedTo(expected);
+        protobufWriter.convert(counter).writeDelimitedTo(expected);
+        out.reset();
+        protobufWriter.writeStreaming(out, Arrays.<MetricSnapshot>asList(gauge, counter).iterator());
+        Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
     private void assertOpenMetricsText(String expected, MetricSnapshot snapshot) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         OpenMetricsTextFormatWriter writer = new OpenMetricsTextFormatWriter(true, true);
@@ -1816,10 +1923,16 @@ public class ExpositionFormatsTest {
         Assert.assertEquals(expected, out.toString());
     }
 
-    private void assertPrometheusProtobuf(String expected, MetricSnapshot snapshot) {
+    private void assertPrometheusProtobuf(String expected, MetricSnapshot snapshot) throws IOException {
         PrometheusProtobufWriter writer = new PrometheusProtobufWriter();
         Metrics.MetricFamily protobufData = writer.convert(snapshot);
         String actual = TextFormat.printer().shortDebugString(protobufData);
         Assert.assertEquals(expected, actual);
+        // write() encodes the snapshot directly, the result must be the same as writing the protobuf object.
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        protobufData.writeDelimitedTo(expectedBytes);
+        ByteArrayOutputStream actualBytes = new ByteArrayOutputStream();
+        writer.write(actualBytes, MetricSnapshots.of(snapshot));
+        Assert.assertArrayEquals(expectedBytes.toByteArray(), actualBytes.toByteArray());
     }
 }
@@ -0,0 +1,84 @@
+package io.prometheus.metrics.expositionformats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class Utf8WriterTest {
+
+    @Test
+    public void testDouble() throws IOException {
+        double[] values = {0.0, -0.0, 1.0, -1.0, 0.1, 0.25, 0.005, 0.001, 0.0009, 3.14, 1e7 - 1, 1e7, 1.5e7, 1e-10,
+                0.1 + 0.2, 12345.678, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, -123.456e-5};
+        for (double value : values) {
+            assertDouble(value);
+        }
+        Assert.assertEquals("+Inf", writeDouble(Double.POSITIVE_INFINITY));
+        Assert.assertEquals("-Inf", writeDouble(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testRandomDoubles() throws IOException {
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            assertDouble(random.nextDouble() * Math.pow(10, random.nextInt(12) - 4));
+            assertDouble(random.nextInt(1_000_000) / Math.pow(10, random.nextInt(8)));
+            assertDouble(Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    @Test
+    public void testLong() throws IOException {
+        long[] values = {0, 1, -1, 10, 1234567890, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utf8Writer writer = new Utf8Writer(out);
+            writer.writeLong(value);
+            writer.flush();
+            Assert.assertEquals(Long.toString(value), out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testUtf8() throws IOException {
+        String s = "ascii, äöü, €, 😀, malformed \ud83d.";
+        StringBuilder expected = new StringBuilder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8Writer writer = new Utf8Writer(out, 32); // small buffer to test flushing
+        for (int i = 0; i < 10; i++) {
+            writer.write(s);
+            writer.write('ä');
+            expected.append(s).append('ä');
+        }
+        writer.flush();
+        String expectedString = expected.toString();
+        Assert.assertArrayEquals(expectedString.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void testEscaped() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8Writer writer = new Utf8Writer(out);
+        writer.writeEscaped("a\\b\"c\ndä", true);
+        writer.write(' ');
+        writer.writeEscaped("a\\b\"c\nd", false);
+        writer.flush();
+        Assert.assertEquals("a\\\\b\\\"c\\ndä a\\\\b\"c\\nd", out.toString("UTF-8"));
+    }
+
+    private void assertDouble(double value) throws IOException {
+        Assert.assertEquals(Double.toString(value), writeDouble(value));
+    }
+
+    private String writeDouble(double value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8Writer writer = new Utf8Writer(out);
+        writer.writeDouble(value);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+}
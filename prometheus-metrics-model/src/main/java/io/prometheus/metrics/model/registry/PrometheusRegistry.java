@@ -2,7 +2,11 @@ package io.prometheus.metrics.model.registry;
 
 import static io.prometheus.metrics.model.snapshots.PrometheusNaming.prometheusName;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -53,6 +57,14 @@ public class PrometheusRegistry {
 		}
 	}
 
+	/**
+	 * Read-only view of the {@link Collector}s registered with this registry, in registration order.
+	 * {@link MultiCollector}s are not included.
+	 */
+	public List<Collector> getCollectors() {
+		return Collections.unmodifiableList(collectors);
+	}
+
 	public MetricSnapshots scrape() {
 		return scrape((PrometheusScrapeRequest) null);
 	}
@@ -126,4 +138,97 @@ public class PrometheusRegistry {
 		return result.build();
 	}
 
+	/**
+	 * Like {@link #scrape(Predicate, PrometheusScrapeRequest)}, but the collectors are not collected up-front.
+	 * Each call to {@link Iterator#hasNext()} collects the next collector until a snapshot is found, so only the
+	 * snapshots of one collector are held in memory at a time if the caller writes each snapshot immediately.
+	 * <p>
+	 * Unlike {@link MetricSnapshots}, the snapshots are not sorted by name but returned in registration order.
+	 * Duplicate metric names are detected when the duplicate is collected, which means that an
+	 * {@link IllegalStateException} may be thrown after some snapshots have already been returned.
+	 * <p>
+	 * The Iterator must be used by a single thread.
+	 *
+	 * @param includedNames may be {@code null}, which means all names are included.
+	 * @param scrapeRequest may be {@code null}.
+	 */
+	public Iterator<MetricSnapshot> scrapeLazily(Predicate<String> includedNames, PrometheusScrapeRequest scrapeRequest) {
+		return new LazyScrapeIterator(includedNames, scrapeRequest);
+	}
+
+	private class LazyScrapeIterator implements Iterator<MetricSnapshot> {
+
+		private final Predicate<String> includedNames;
+		private final PrometheusScrapeRequest scrapeRequest;
+		private final Iterator<Collector> collectorIterator = collectors.iterator();
+		private final Iterator<MultiCollector> multiCollectorIterator = multiCollectors.iterator();
+		private final Set<String> names = new HashSet<>();
+		private Iterator<MetricSnapshot> current = Collections.emptyIterator();
+		private MetricSnapshot next;
+
+		private LazyScrapeIterator(Predicate<String> includedNames, PrometheusScrapeRequest scrapeRequest) {
+			this.includedNames = includedNames;
+			this.scrapeRequest = scrapeRequest;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (current.hasNext()) {
+					next = current.next();
+				} else if (collectorIterator.hasNext()) {
+					MetricSnapshot snapshot = collect(collectorIterator.next());
+					current = snapshot == null ? Collections.emptyIterator() : Collections.singletonList(snapshot).iterator();
+				} else if (multiCollectorIterator.hasNext()) {
+					current = collect(multiCollectorIterator.next()).iterator();
+				} else {
+					return false;
+				}
+				if (next != null && !names.add(next.getMetadata().getPrometheusName())) {
+					throw new IllegalStateException(next.getMetadata().getPrometheusName() + ": duplicate metric name.");
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public MetricSnapshot next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			MetricSnapshot result = next;
+			next = null;
+			return result;
+		}
+
+		private MetricSnapshot collect(Collector collector) {
+			if (includedNames == null) {
+				return scrapeRequest == null ? collector.collect() : collector.collect(scrapeRequest);
+			}
+			String prometheusName = collector.getPrometheusName();
+			if (prometheusName != null && !includedNames.test(prometheusName)) {
+				return null;
+			}
+			return scrapeRequest == null ? collector.collect(includedNames) : collector.collect(includedNames, scrapeRequest);
+		}
+
+		private MetricSnapshots collect(MultiCollector collector) {
+			if (includedNames == null) {
+				return scrapeRequest == null ? collector.collect() : collector.collect(scrapeRequest);
+			}
+			List<String> prometheusNames = collector.getPrometheusNames();
+			boolean excluded = !prometheusNames.isEmpty();
+			for (String prometheusName : prometheusNames) {
+				if (includedNames.test(prometheusName)) {
+					excluded = false;
+					break;
+				}
+			}
+			if (excluded) {
+				return MetricSnapshots.of();
+			}
+			return scrapeRequest == null ? collector.collect(includedNames) : collector.collect(includedNames, scrapeRequest);
+		}
+	}
+
 }
@@ -112,7 +112,7 @@ public class Exemplar {
             }
             Labels allLabels;
             if (traceId != null && spanId != null) {
-                allLabels = Labels.of(TRACE_ID, traceId, SPAN_ID, spanId);
+                allLabels = Labels.ofTraceIdAndSpanId(traceId, spanId);
             } else if (traceId != null) {
                 allLabels = Labels.of(TRACE_ID, traceId);
             } else if (spanId != null) {
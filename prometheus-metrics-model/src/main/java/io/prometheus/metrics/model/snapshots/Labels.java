@@ -23,6 +23,9 @@ public class Labels implements Comparable<Labels>, Iterable<Label> {
         EMPTY = new Labels(names, names, values);
     }
 
+    // Sorted and valid, shared by all Labels created with ofTraceIdAndSpanId().
+    private static final String[] TRACE_ID_AND_SPAN_ID_NAMES = new String[]{Exemplar.SPAN_ID, Exemplar.TRACE_ID};
+
     // prometheusNames is the same as names, but dots are replaced with underscores.
     // Labels is sorted by prometheusNames.
     // If names[i] does not contain a dot, prometheusNames[i] references the same String as names[i]
@@ -71,6 +74,17 @@ public class Labels implements Comparable<Labels>, Iterable<Label> {
         return new Labels(names, prometheusNames, values);
     }
 
+    /**
+     * Same as {@code Labels.of(Exemplar.TRACE_ID, traceId, Exemplar.SPAN_ID, spanId)}, but faster because
+     * the label names are known to be valid and sorted. This is used when sampling exemplars.
+     */
+    public static Labels ofTraceIdAndSpanId(String traceId, String spanId) {
+        if (traceId == null || spanId == null) {
+            throw new NullPointerException("traceId and spanId must not be null");
+        }
+        return new Labels(TRACE_ID_AND_SPAN_ID_NAMES, TRACE_ID_AND_SPAN_ID_NAMES, new String[]{spanId, traceId});
+    }
+
     // package private for testing
     static String[] makePrometheusNames(String[] names) {
         String[] prometheusNames = names;
@@ -7,6 +7,12 @@ import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class PrometheusRegistryTest {
 
     Collector noName = () -> GaugeSnapshot.builder()
@@ -101,4 +107,72 @@ public class PrometheusRegistryTest {
         snapshots = registry.scrape();
         Assert.assertEquals(3, snapshots.size());
     }
+
+    @Test
+    public void getCollectors() {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(counterA1);
+        registry.register(gaugeA);
+        Assert.assertEquals(Arrays.asList(counterA1, gaugeA), registry.getCollectors());
+        registry.unregister(counterA1);
+        Assert.assertEquals(Arrays.asList(gaugeA), registry.getCollectors());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getCollectorsIsReadOnly() {
+        new PrometheusRegistry().getCollectors().add(counterB);
+    }
+
+    @Test
+    public void scrapeLazily() {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        AtomicInteger collectCount = new AtomicInteger();
+        registry.register(new Collector() {
+            @Override
+            public MetricSnapshot collect() {
+                collectCount.incrementAndGet();
+                return GaugeSnapshot.builder().name("z_gauge").build();
+            }
+        });
+        registry.register(counterB);
+        registry.register(gaugeA);
+        registry.register(new MultiCollector() {
+            @Override
+            public MetricSnapshots collect() {
+                return MetricSnapshots.of(
+                        CounterSnapshot.builder().name("multi_b").build(),
+                        CounterSnapshot.builder().name("multi_a").build());
+            }
+        });
+        Iterator<MetricSnapshot> snapshots = registry.scrapeLazily(null, null);
+        Assert.assertEquals(0, collectCount.get());
+        Assert.assertEquals("z_gauge", snapshots.next().getMetadata().getName());
+        Assert.assertEquals(1, collectCount.get());
+        List<String> names = new ArrayList<>();
+        snapshots.forEachRemaining(snapshot -> names.add(snapshot.getMetadata().getName()));
+        // registration order, not sorted
+        Assert.assertEquals(Arrays.asList("counter_b", "gauge_a", "multi_a", "multi_b"), names);
+        Assert.assertFalse(snapshots.hasNext());
+
+        names.clear();
+        registry.scrapeLazily(name -> name.startsWith("counter") || name.startsWith("multi"), null)
+                .forEachRemaining(snapshot -> names.add(snapshot.getMetadata().getName()));
+        Assert.assertEquals(Arrays.asList("counter_b", "multi_a", "multi_b"), names);
+        Assert.assertEquals(2, collectCount.get()); // z_gauge has no name at registration time, so it is collected and discarded
+    }
+
+    @Test
+    public void scrapeLazilyDuplicateName() {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.register(noName);
+        registry.register(noName);
+        Iterator<MetricSnapshot> snapshots = registry.scrapeLazily(null, null);
+        snapshots.next();
+        try {
+            snapshots.hasNext();
+            Assert.fail("Expected duplicate name Exception");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("duplicate") && e.getMessage().contains("no_name_gauge"));
+        }
+    }
 }
@@ -18,6 +18,15 @@ public class LabelsTest {
         Assert.assertTrue(a.compareTo(b) > 0);
     }
 
+    @Test
+    public void testOfTraceIdAndSpanId() {
+        Labels labels = Labels.ofTraceIdAndSpanId("abc", "123");
+        Assert.assertEquals(Labels.of(Exemplar.TRACE_ID, "abc", Exemplar.SPAN_ID, "123"), labels);
+        Assert.assertEquals("span_id", labels.getName(0));
+        Assert.assertEquals("abc", labels.get(Exemplar.TRACE_ID));
+        Assert.assertEquals(Labels.of("env", "prod", "span_id", "123", "trace_id", "abc"), labels.merge(Labels.of("env", "prod")));
+    }
+
     @Test
     public void testCompareDifferentLabelNames() {
         Labels labels1 = Labels.of("env", "prod", "status2", "200");
@@ -23,4 +23,25 @@ public interface SpanContext {
   boolean isCurrentSpanSampled();
 
   void markCurrentSpanAsExemplar();
+
+  /**
+   * Combines {@link #isCurrentSpanSampled()}, {@link #getCurrentSpanId()}, {@link #getCurrentTraceId()},
+   * and {@link #markCurrentSpanAsExemplar()} in a single call. This is called when an exemplar is sampled.
+   * Implementations should override this to look up the current span only once.
+   *
+   * @return {@code {traceId, spanId}} of the current span after marking it as an exemplar,
+   * or {@code null} if the current span is not sampled or if this call is not happening within a span context.
+   */
+  default String[] markCurrentSpanAsExemplarIfSampled() {
+    if (!isCurrentSpanSampled()) {
+      return null;
+    }
+    String spanId = getCurrentSpanId();
+    String traceId = getCurrentTraceId();
+    if (spanId == null || traceId == null) {
+      return null;
+    }
+    markCurrentSpanAsExemplar();
+    return new String[]{traceId, spanId};
+  }
 }
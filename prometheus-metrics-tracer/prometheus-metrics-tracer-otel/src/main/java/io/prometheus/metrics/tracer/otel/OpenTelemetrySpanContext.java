@@ -44,4 +44,20 @@ public class OpenTelemetrySpanContext implements SpanContext {
 	public void markCurrentSpanAsExemplar() {
 		Span.current().setAttribute(EXEMPLAR_ATTRIBUTE_NAME, EXEMPLAR_ATTRIBUTE_VALUE);
 	}
+
+	@Override
+	public String[] markCurrentSpanAsExemplarIfSampled() {
+		Span span = Span.current();
+		io.opentelemetry.api.trace.SpanContext spanContext = span.getSpanContext();
+		if (!spanContext.isSampled()) {
+			return null;
+		}
+		String spanId = spanContext.getSpanId();
+		String traceId = spanContext.getTraceId();
+		if (!SpanId.isValid(spanId) || !TraceId.isValid(traceId)) {
+			return null;
+		}
+		span.setAttribute(EXEMPLAR_ATTRIBUTE_NAME, EXEMPLAR_ATTRIBUTE_VALUE);
+		return new String[]{traceId, spanId};
+	}
 }